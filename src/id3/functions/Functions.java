@@ -1,27 +1,44 @@
 package id3.functions;
 
-import id3.gui.dialogs.ProgressDialog;
 import id3.gui.functionpanel.panels.AppendPrependPanel.TextFunction;
 import id3.gui.functionpanel.panels.FormattingPanel.TextRemovalType;
-import id3.main.GUI;
 import id3.main.Program;
 import id3.main.Settings;
 import id3.objects.Album;
 import id3.objects.Artist;
+import id3.objects.ArtworkRef;
 import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.objects.TrackStore.TrackField;
 import id3.tables.TableEntry;
+import id3.utils.CancellationToken;
 import id3.utils.Distancing;
+import id3.utils.Frontend;
+import id3.utils.ID3v2Reader;
+import id3.utils.ID3v2Reader.UnsupportedTagException;
+import id3.utils.Progress;
+import id3.utils.QuickTag;
+import id3.utils.TagJournal;
+import id3.utils.TagJournal.Operation;
+import id3.utils.TagSession;
+import id3.utils.TagWriteExecutor;
+import id3.utils.TagWriter;
 import id3.utils.Utils;
 import org.jaudiotagger.tag.*;
+import org.jaudiotagger.tag.id3.AbstractID3v2Tag;
+import org.jaudiotagger.tag.id3.AbstractTag;
+import org.jaudiotagger.tag.id3.ID3v23Tag;
+import org.jaudiotagger.tag.id3.ID3v24Tag;
 import org.jaudiotagger.tag.images.Artwork;
 import org.jaudiotagger.tag.images.StandardArtwork;
 import xmlwise.Plist;
 
-import javax.swing.*;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -34,18 +51,23 @@ public final class Functions
 {
 	private static final Logger LOG = Program.LOG;
 	
+	/** Files listed when an operation couldn't be restored, see {@link #restoreOperation} */
+	private static final int MAX_FAILED_FILES_SHOWN = 20;
+	
 	protected Functions() 
 	{ }
 	
 	/** Appends / Prepends text to a tag field.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param function  Append or Prepend ?
 	 * @param editField  The field to append / prepend to.
 	 * @param text  The text to append / prepend to editField
 	 */
-	public static void appendOrPrependText(Entry<String, Map> entry, TextFunction function, FieldKey editField, String text)
+	public static void appendOrPrependText(TrackStore tracks, int row, TextFunction function, FieldKey editField, String text)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		String field = tag.getFirst(editField);
 		
 		switch (function)
@@ -66,7 +88,7 @@ public final class Functions
 		{
 			tag.setField(editField, field);
 			
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINER, "Sucessfully app/prepended text: " + tag.toString());
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
@@ -81,14 +103,16 @@ public final class Functions
 	
 	/** Appends / Prepends one tag's field to another
 	 * field on the same tag.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param function  Append or Prepend ?
 	 * @param editField  The field to append / prepend to.
 	 * @param copyField  This field's text will be appended / prepended to editField.
 	 */
-	public static void appendOrPrependField(Entry<String, Map> entry, TextFunction function, FieldKey editField, FieldKey copyField)
+	public static void appendOrPrependField(TrackStore tracks, int row, TextFunction function, FieldKey editField, FieldKey copyField)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		String field = tag.getFirst(editField);
 		String text = tag.getFirst(copyField);
 		
@@ -110,7 +134,7 @@ public final class Functions
 		{
 			tag.setField(editField, field);
 			
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINER, "Sucessfully app/prepended field: " + tag.toString());
 		} 
 		catch (KeyNotFoundException | FieldDataInvalidException e)
@@ -125,18 +149,19 @@ public final class Functions
 	
 	/** Checks every track entry's song title to see if the title
 	 * also contain's the artist's name. Returns a new table entry if true.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @return  {@link TableEntry}, which is the object backing 
 	 * every {@link id3.tables.ID3Table}'s model.
 	 * @see id3.tables.abstractid3model.AbstractID3Model
 	 */
-	public static TableEntry getTitlesWithArtistNameIncluded(Entry<String, Map> entry)
+	public static TableEntry getTitlesWithArtistNameIncluded(TrackStore tracks, int row)
 	{
-		String fileLocation = Utils.getFilePathFromTrackEntry(entry);
+		String fileLocation = Utils.getFilePathFromTrackEntry(tracks, row);
 		
 		TableEntry tableEntry = new TableEntry();
-		tableEntry.SongTitle = (String) entry.getValue().getOrDefault("Name", "");
-		tableEntry.Artist = (String) entry.getValue().getOrDefault("Artist", "");
+		tableEntry.SongTitle = tracks.getString(row, TrackField.Name, "");
+		tableEntry.Artist = tracks.getString(row, TrackField.Artist, "");
 		tableEntry.FilePath = fileLocation;
 			
 		if(tableEntry.SongTitle.toLowerCase().matches(tableEntry.Artist.toLowerCase() + "\\s\\-\\s.*"))
@@ -149,11 +174,12 @@ public final class Functions
 	}
 	
 	/** Calculates each track's BPM and save's it to the tag.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 */
-	public static void detectBPM(Entry<String, Map> entry)
+	public static void detectBPM(TrackStore tracks, int row)
 	{
-		File file = new File(Utils.getFilePathFromTrackEntry(entry));
+		File file = new File(Utils.getFilePathFromTrackEntry(tracks, row));
 			
 		try 
 		{
@@ -176,9 +202,12 @@ public final class Functions
 	 * using the discovered songs and their ID3 tags. The new
 	 * xml file will need to be imported into iTunes to work
 	 * (file->library->import playlist)
+	 * <p>
+	 * If cancelled, no xml file is written.
 	 * @param directory  directory to scan
+	 * @param token  Checked between files.
 	 */
-	public static void buildLibraryFile(File directory)
+	public static void buildLibraryFile(File directory, CancellationToken token)
 	{
 		HashMap<String, Map> tracks = new HashMap<String, Map>();
 		ArrayList<String> files = new ArrayList<String>();
@@ -194,7 +223,7 @@ public final class Functions
 		library.put("Music Folder", "file://localhost" + directory.toURI().getPath());
 		library.put("Library Persistent ID", "0000000000000001");
 		
-		ProgressDialog progress = new ProgressDialog();
+		Progress progress = Frontend.get().openProgress(null, token);
 		
 		files = Utils.getAllFilesInSubDirs(directory);
 		
@@ -203,6 +232,10 @@ public final class Functions
 		int progressCounter = 0;
 		for(String filepath : files)
 		{
+			if(token.isCancelled())
+			{
+				break;
+			}
 			File file = new File(filepath);
 			LOG.log(Level.FINER, "PROCESSING: " + file.getAbsolutePath());
 			
@@ -220,7 +253,10 @@ public final class Functions
 		
 		progress.finish();
 		
-		writeXml(library);
+		if(!token.isCancelled())
+		{
+			writeXml(library);
+		}
 	}
 	
 	/** Writes a library map to a new .xml file
@@ -245,7 +281,7 @@ public final class Functions
 		}
 		catch (IOException e)
 		{
-			JOptionPane.showMessageDialog(GUI.frame, "Error creating new library file", "Error", JOptionPane.ERROR_MESSAGE);
+			Frontend.get().showError("Error creating new library file");
 		}
 		finally
 		{
@@ -269,17 +305,18 @@ public final class Functions
 	 * @param copyDir  Directory iPod audio files will be copied to.
 	 * @param buildXml  If true, also create a new iTunes Library.xml
 	 * containing all files copied from the iPod.
+	 * @param token  Checked between files.
 	 */
-	public static void copyFromIpod(char driveLetter, String copyDir, boolean buildXml)
+	public static void copyFromIpod(char driveLetter, String copyDir, boolean buildXml, CancellationToken token)
 	{
 		File musicDir = new File(driveLetter + ":" + "\\iPod_Control\\Music");
 		if(!musicDir.exists())
 		{
-			JOptionPane.showMessageDialog(GUI.frame, "Failed to discover iPod music directory", "Error", JOptionPane.ERROR_MESSAGE);
+			Frontend.get().showError("Failed to discover iPod music directory");
 			return;
 		}
 		
-		ProgressDialog progress = new ProgressDialog();
+		Progress progress = Frontend.get().openProgress(null, token);
 		
 		ArrayList<String> files = Utils.getAllFilesInSubDirs(musicDir);
 		
@@ -288,6 +325,10 @@ public final class Functions
 		int progressCounter = 0;
 		for(String file : files)
 		{
+			if(token.isCancelled())
+			{
+				break;
+			}
 			LOG.log(Level.FINER, "PROCESSING: " + file);
 			
 			File copyFromFile = new File(file);
@@ -297,7 +338,8 @@ public final class Functions
 			
 			try
 			{
-				Tag tag = Utils.getTagFromAudioFile(copyFromFile.getAbsolutePath());
+				QuickTag tag = QuickTag.readFields(copyFromFile.getAbsolutePath(),
+						EnumSet.of(FieldKey.TRACK, FieldKey.TITLE, FieldKey.ARTIST, FieldKey.ALBUM));
 				
 				String trackNum = tag.getFirst(FieldKey.TRACK);
 				if(trackNum.length() == 1)
@@ -361,9 +403,9 @@ public final class Functions
 		}
 		progress.finish();
 		
-		if(buildXml)
+		if(buildXml && !token.isCancelled())
 		{
-			buildLibraryFile(new File(copyDir));
+			buildLibraryFile(new File(copyDir), token);
 		}
 	}
 	
@@ -372,18 +414,24 @@ public final class Functions
 	 * @param field  The tag field used to store the calculated rating.
 	 * @param isUseCustomRatings  If true, uses a custom rating system to
 	 * calculate ratings. Default behavior is to simply average all ratings.
+	 * @param token  Checked between artists and files.
 	 * @see Library#createArtistObjects()
 	 * @see id3.gui.dialogs.ArtistRatingDialog
 	 */
-	public static void calculateArtistRating(Library lib, FieldKey field, boolean isUseCustomRatings)
+	public static void calculateArtistRating(Library lib, FieldKey field, boolean isUseCustomRatings, CancellationToken token)
 	{
+		Progress progress = Frontend.get().openProgress(null, token);
+		progress.getChannel().beginPhase("Rating Artists", lib.getLibraryArtists().size());
+		
 		if(isUseCustomRatings)
 		{
-			ProgressDialog progress = new ProgressDialog(lib.getLibraryArtists().size());
-			
 			int progressCounter = 0;
 			for(Artist artist : lib.getLibraryArtists())
 			{
+				if(token.isCancelled())
+				{
+					break;
+				}
 				LOG.log(Level.FINER, "Getting rating for artist: " + artist.getName());
 				int ratingIsFourPlus = 0;
 				int rated = 0;
@@ -391,9 +439,9 @@ public final class Functions
 				
 				for(Album album : artist.getAlbums())
 				{
-					for(String trackKey : album.getTracks().keySet())
+					for(int row : album.getTracks())
 					{
-						int rating = (int) lib.getOrDefaultTrackValue(trackKey, "Rating", 0);
+						int rating = lib.getTracks().getInt(row, TrackField.Rating, 0);
 						if(rating > 0)
 						{
 							rated++;
@@ -458,23 +506,24 @@ public final class Functions
 				LOG.log(Level.FINER, "Final rating: " + artist.getRating());
 				progress.update(progressCounter++);
 			}
-			progress.finish();
 		}
 		else if(!isUseCustomRatings)
 		{
-			ProgressDialog progress = new ProgressDialog(lib.getLibraryArtists().size());
-			
 			int progressCounter = 0;
 			for(Artist artist : lib.getLibraryArtists())
 			{
+				if(token.isCancelled())
+				{
+					break;
+				}
 				int artistRating = 0;
 				int ratedCount = 0;
 				
 				for(Album album : artist.getAlbums())
 				{
-					for(String track : album.getTracks().keySet())
+					for(int row : album.getTracks())
 					{
-						int songRating = (int) lib.getOrDefaultTrackValue(track, "Rating", 0) / 20;
+						int songRating = lib.getTracks().getInt(row, TrackField.Rating, 0) / 20;
 						if(songRating != 0)
 						{
 							ratedCount++;
@@ -487,46 +536,74 @@ public final class Functions
 				LOG.log(Level.FINE, "Artist Rating: " + artist.getRating());
 				progress.update(progressCounter++);
 			}
+		}
+		progress.getChannel().endPhase();
+		if(token.isCancelled())
+		{
 			progress.finish();
+			return;
 		}
 		
-		ProgressDialog progress = new ProgressDialog(lib.getLibraryArtists().size());
+		progress.getChannel().beginPhase("Writing Tags", lib.getLibraryArtists().size());
 		
-		int progressCounter = 0;
-		for(Artist artist : lib.getLibraryArtists())
+		CancellationToken previous = TagWriteExecutor.bind(token);
+		try
 		{
-			String ratingString = "Artist Rating: ";
-			int rating = artist.getRating();
-			switch(rating)
+			int progressCounter = 0;
+			for(Artist artist : lib.getLibraryArtists())
 			{
-				case(0) :
-					ratingString += "Unrated";
-					break;
-				default :
-					ratingString += rating;
+				if(token.isCancelled())
+				{
 					break;
-			}
+				}
+				String ratingString = "Artist Rating: ";
+				int rating = artist.getRating();
+				switch(rating)
+				{
+					case(0) :
+						ratingString += "Unrated";
+						break;
+					default :
+						ratingString += rating;
+						break;
+				}
 			
-			for(Album album : artist.getAlbums())
-			{
-				for(String trackPath : album.getTracks().values())
+				for(Album album : artist.getAlbums())
 				{
-					try
+					for(int row : album.getTracks())
 					{
-						Tag tag = Utils.getTagFromAudioFile(trackPath);
-						tag.setField(field, ratingString);
+						if(token.isCancelled())
+						{
+							break;
+						}
+						String trackPath = lib.getTracks().getFilePath(row);
+						try
+						{
+							if(QuickTag.readFields(trackPath, EnumSet.of(field)).getFirst(field).equals(ratingString))
+							{
+								continue;	// Already saved
+							}
+							TagSession session = TagSession.open(trackPath);
+							Tag tag = session.getTag();
+							tag.setField(field, ratingString);
 						
-						Utils.saveTagToFile(trackPath, tag);
-						LOG.log(Level.FINER, "Artist rating sucessfully saved: " + tag.toString());
-					}
-					catch (KeyNotFoundException | TagException e)
-					{
-						LOG.log(Level.WARNING, "Failed to write artist rating to tag: " + trackPath);
+							TagWriteExecutor.submit(session);
+							LOG.log(Level.FINER, "Artist rating sucessfully saved: " + tag.toString());
+						}
+						catch (KeyNotFoundException | TagException e)
+						{
+							LOG.log(Level.WARNING, "Failed to write artist rating to tag: " + trackPath);
+						}
 					}
 				}
+				progress.update(progressCounter++);
 			}
-			progress.update(progressCounter++);
 		}
+		finally
+		{
+			TagWriteExecutor.bind(previous);
+		}
+		TagWriteExecutor.awaitAll();
 		progress.finish();
 	}
 	
@@ -536,14 +613,20 @@ public final class Functions
 	 * @param field  The tag field to save calculated album rating to.
 	 * @param minPercentSongsRated  Album calculation will only be done
 	 * if at least this percentage of its' tracks are rated.
+	 * @param token  Checked between artists and files.
 	 */
-	public static void calculateAlbumRating(Library lib, FieldKey field, int minPercentSongsRated)
+	public static void calculateAlbumRating(Library lib, FieldKey field, int minPercentSongsRated, CancellationToken token)
 	{
-		ProgressDialog progress = new ProgressDialog(lib.getLibraryArtists().size());
+		Progress progress = Frontend.get().openProgress(null, token);
+		progress.getChannel().beginPhase("Rating Albums", lib.getLibraryArtists().size());
 		
 		int progressCounter = 0;
 		for(Artist artist : lib.getLibraryArtists())
 		{
+			if(token.isCancelled())
+			{
+				break;
+			}
 			for(Album album : artist.getAlbums())
 			{
 				double percent = (double) minPercentSongsRated / 100;
@@ -551,9 +634,9 @@ public final class Functions
 				int albumRating = 0;
 				int unrated = 0;
 				
-				for(String trackKey : album.getTracks().keySet())
+				for(int row : album.getTracks())
 				{
-					int songRating = (int) lib.getOrDefaultTrackValue(trackKey, "Rating", 0);
+					int songRating = lib.getTracks().getInt(row, TrackField.Rating, 0);
 					if(songRating > 0)
 					{
 						albumRating = albumRating + (songRating / 20);
@@ -578,60 +661,90 @@ public final class Functions
 			}
 			progress.update(progressCounter++);
 		}
-		progress.finish();
+		progress.getChannel().endPhase();
+		if(token.isCancelled())
+		{
+			progress.finish();
+			return;
+		}
 		
-		progress = new ProgressDialog(lib.getLibraryArtists().size());
+		progress.getChannel().beginPhase("Writing Tags", lib.getLibraryArtists().size());
 		
-		progressCounter = 0;
-		for(Artist artist : lib.getLibraryArtists())
+		CancellationToken previous = TagWriteExecutor.bind(token);
+		try
 		{
-			for(Album album : artist.getAlbums())
+			progressCounter = 0;
+			for(Artist artist : lib.getLibraryArtists())
 			{
-				String ratingString = "Album Rating: ";
-				int rating = album.getRating();
-				switch(rating)
+				if(token.isCancelled())
 				{
-					case(0) :
-						ratingString += "Unrated";
-						break;
-					default :
-						ratingString += rating;
-						break;
+					break;
 				}
-				
-				for(String trackPath : album.getTracks().values())
+				for(Album album : artist.getAlbums())
 				{
-					try
+					String ratingString = "Album Rating: ";
+					int rating = album.getRating();
+					switch(rating)
 					{
-						Tag tag = Utils.getTagFromAudioFile(trackPath);
-						tag.setField(field, ratingString);
-						
-						Utils.saveTagToFile(trackPath, tag);
-						LOG.log(Level.FINER, "Album rating successfully added: " + tag.toString());
+						case(0) :
+							ratingString += "Unrated";
+							break;
+						default :
+							ratingString += rating;
+							break;
 					}
-					catch (KeyNotFoundException | TagException e)
+				
+					for(int row : album.getTracks())
 					{
-						LOG.log(Level.WARNING, "Failed to write album rating to tag: " + trackPath);
+						if(token.isCancelled())
+						{
+							break;
+						}
+						String trackPath = lib.getTracks().getFilePath(row);
+						try
+						{
+							if(QuickTag.readFields(trackPath, EnumSet.of(field)).getFirst(field).equals(ratingString))
+							{
+								continue;	// Already saved
+							}
+							TagSession session = TagSession.open(trackPath);
+							Tag tag = session.getTag();
+							tag.setField(field, ratingString);
+						
+							TagWriteExecutor.submit(session);
+							LOG.log(Level.FINER, "Album rating successfully added: " + tag.toString());
+						}
+						catch (KeyNotFoundException | TagException e)
+						{
+							LOG.log(Level.WARNING, "Failed to write album rating to tag: " + trackPath);
+						}
 					}
 				}
+				progress.update(progressCounter++);
 			}
-			progress.update(progressCounter++);
 		}
+		finally
+		{
+			TagWriteExecutor.bind(previous);
+		}
+		TagWriteExecutor.awaitAll();
 		progress.finish();
 	}
 	
 	/** Deletes a tag's field.
-	 * @param entry  Library file's equivalent to a track in iTunes.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param field  The tag field to delete.
 	 * <p>
 	 * Note that the artwork field is deleted by passing
 	 * {@code FieldKey.MEDIA}
 	 */
-	public static void deleteField(Entry<String, Map> entry, FieldKey field)
+	public static void deleteField(TrackStore tracks, int row, FieldKey field)
 	{		
 		try
 		{
-			Tag tag = Utils.getTagFromTrackEntry(entry);
+			TagSession session = TagSession.open(tracks, row);
+			Tag tag = session.getTag();
 			
 			if(field == FieldKey.MEDIA)
 			{
@@ -642,7 +755,7 @@ public final class Functions
 				tag.deleteField(field);
 			}
 				
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINE, "Deleted " + field + ": " + tag.toString());
 		}
 		catch (StringIndexOutOfBoundsException ex)
@@ -654,14 +767,16 @@ public final class Functions
 	/** If artwork is not saved directly on the tag in a file
 	 * and instead contains a url pointing to the image, attempt to
 	 * get the image and save it on the tag.
-	 * @param entry  Library file's equivalent to a track in iTunes. 
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 */
-	public static void embedArtwork(Entry<String, Map> entry)
+	public static void embedArtwork(TrackStore tracks, int row)
 	{	
 		Tag tag = null;
 		try
 		{
-			tag = Utils.getTagFromTrackEntry(entry);
+			TagSession session = TagSession.open(tracks, row);
+			tag = session.getTag();
 			
 			Artwork artwork = tag.getFirstArtwork();
 			if(!artwork.isLinked())
@@ -675,7 +790,7 @@ public final class Functions
 			StandardArtwork art = StandardArtwork.createArtworkFromFile(file);
 			tag.addField(art);
 			
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINE, "Sucessfully embedded artwork: " + tag.toString());
 		}
 		catch (IOException | TagException e)
@@ -690,19 +805,21 @@ public final class Functions
 	
 	/** Saves a jpg of all artwork found in a library by checking
 	 * all tracks. Duplicate art is ignored.
-	 * @param entry  Library file's equivalent to a track in iTunes.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param exportDir  The directory to save the artwork to.
 	 * @param isSplitByArtist  Splits artwork files by artist. The
 	 * Folder structure will be exportDir/artist/all artwork. Default
 	 * behavior puts all artwork files in exportDir named by
 	 * "artist - album.jpg".
 	 */
-	public static void exportArtwork(Entry<String, Map> entry, String exportDir, boolean isSplitByArtist)
+	public static void exportArtwork(TrackStore tracks, int row, String exportDir, boolean isSplitByArtist)
 	{
-		OutputStream out = null; Tag tag = null;
+		OutputStream out = null;
+		String path = Utils.getFilePathFromTrackEntry(tracks, row);
 		try
 		{
-			tag = Utils.getTagFromTrackEntry(entry);
+			QuickTag tag = QuickTag.readFields(path, EnumSet.of(FieldKey.ARTIST, FieldKey.ALBUM));
 				
 			String artist = tag.getFirst(FieldKey.ARTIST);
 			if(artist.isEmpty())
@@ -730,7 +847,8 @@ public final class Functions
 			
 			if(!new File(artworkPath).exists())
 			{
-				Artwork artwork = tag.getFirstArtwork();
+				ArtworkRef ref = ArtworkRef.locate(path);
+				Artwork artwork = ref == null ? null : ref.load();
 				if(artwork == null)
 				{
 					return;
@@ -743,7 +861,7 @@ public final class Functions
 		} 
 		catch(IOException e)
 		{
-			LOG.log(Level.WARNING, "Failed to read file while fetching artwork for export: " + tag.toString());
+			LOG.log(Level.WARNING, "Failed to read file while fetching artwork for export: " + path);
 		}
 		catch (StringIndexOutOfBoundsException ex)
 		{
@@ -773,22 +891,28 @@ public final class Functions
 	 * look for tracks that might be equal to the missing track.
 	 * This is helpful for tracks that are renamed to be slightly
 	 * different.
+	 * @param token  Checked between tracks. If cancelled, no csv
+	 * file is written.
 	 */
-	public static void findMissingSongs(Library lib, boolean isAttemptDiscovery)
+	public static void findMissingSongs(Library lib, boolean isAttemptDiscovery, CancellationToken token)
 	{
 		ArrayList<TableEntry> missingSongs = new ArrayList<TableEntry>();
-		ProgressDialog progress = new ProgressDialog(lib.getTrackMapEntries().size());
+		TrackStore tracks = lib.getTracks();
+		Progress progress = Frontend.get().openProgress(tracks.size(), token);
 		
-		int progressCounter = 0;
-		for(Entry<String, Map> entry : lib.getTrackMapEntries())
+		for(int row = 0; row < tracks.size(); row++)
 		{
-			progress.update(progressCounter++);
+			if(token.isCancelled())
+			{
+				break;
+			}
+			progress.update(row);
 			
-			String fileLocation = Utils.getFilePathFromTrackEntry(entry);
+			String fileLocation = Utils.getFilePathFromTrackEntry(tracks, row);
 			
 			TableEntry tableEntry = null; // Not used for table in this method, but for storing values
-			String artist = (String) entry.getValue().getOrDefault("Artist", "");
-			String album = (String) entry.getValue().getOrDefault("Album", "");
+			String artist = tracks.getString(row, TrackField.Artist, "");
+			String album = tracks.getString(row, TrackField.Album, "");
 			
 			File file = new File(fileLocation);
 			String fileName = file.getName();
@@ -852,12 +976,15 @@ public final class Functions
 		}
 		
 		progress.finish();
-		writeMissingTracks(missingSongs);
+		if(!token.isCancelled())
+		{
+			writeMissingTracks(missingSongs);
+		}
 	}
 	
 	/** Creates a csv file containing missing tracks.
 	 * @param missingTracks  List of missing tracks.
-	 * @see #findMissingSongs(Library, boolean) findMissingSongs
+	 * @see #findMissingSongs(Library, boolean, CancellationToken) findMissingSongs
 	 */
 	private static void writeMissingTracks(ArrayList<TableEntry> missingTracks)
 	{
@@ -896,14 +1023,15 @@ public final class Functions
 	 * listed in the library file, but have a number added to the end of
 	 * the name. Older versions of iTunes sometimes added copies of the
 	 * same song for whatever reason. (i.e 01 name.mp3, 01 name 1.mp3)
-	 * @param entry  Library file's equivalent to a track in iTunes.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @return  {@link TableEntry} object, used to back {@link id3.tables.ID3Table}'s
 	 * model.
 	 * @see id3.tables.abstractid3model.AbstractID3Model
 	 */
-	public static TableEntry deleteDuplicateFiles(Entry<String, Map> entry)
+	public static TableEntry deleteDuplicateFiles(TrackStore tracks, int row)
 	{
-		String fileLocation = Utils.getFilePathFromTrackEntry(entry);
+		String fileLocation = Utils.getFilePathFromTrackEntry(tracks, row);
 		
 		TableEntry tableEntry = null;
 			
@@ -939,18 +1067,19 @@ public final class Functions
 	 * @param isIgnoreImages  image files will not be listed. This is
 	 * useful if you know some ID3 tags use linked images (thus deleting
 	 * the image file would remove the artwork from any linked ID3 tags)
+	 * @param token  Checked between tracks. If cancelled, nothing is listed.
 	 * @return  {@link TableEntry} object, used to back {@link id3.tables.ID3Table}'s
 	 * model.
 	 * @see id3.tables.abstractid3model.AbstractID3Model
 	 */
-	public static ArrayList<TableEntry> findUnlistedSongs(Library lib, boolean isIgnoreImages)
+	public static ArrayList<TableEntry> findUnlistedSongs(Library lib, boolean isIgnoreImages, CancellationToken token)
 	{
-		ProgressDialog progress = new ProgressDialog();
+		Progress progress = Frontend.get().openProgress(null, token);
 		
 		File musicDir = new File(lib.getMusicFolder());
 		if(!musicDir.exists())
 		{
-			JOptionPane.showMessageDialog(GUI.frame, "Music directory doesn't exist!", "Error", JOptionPane.ERROR_MESSAGE);
+			Frontend.get().showError("Music directory doesn't exist!");
 			progress.finish();
 			return new ArrayList<TableEntry>();
 		}
@@ -971,11 +1100,16 @@ public final class Functions
 			allFilesInMusicDir.removeAll(imageFiles);
 		}
 		
-		progress.setDeterminate(lib.getTrackMapEntries().size());
-		int progressCounter = 0;
-		for(Entry<String, Map> entry : lib.getTrackMapEntries())
+		TrackStore tracks = lib.getTracks();
+		progress.setDeterminate(tracks.size());
+		for(int row = 0; row < tracks.size(); row++)
 		{
-			String fileLocation = Utils.getFilePathFromTrackEntry(entry);
+			if(token.isCancelled())
+			{
+				progress.finish();
+				return new ArrayList<TableEntry>();
+			}
+			String fileLocation = Utils.getFilePathFromTrackEntry(tracks, row);
 			fileLocation = fileLocation.substring(1, fileLocation.length()).replace("/", "\\");
 			LOG.log(Level.FINER, "SEARCHING: " + fileLocation);
 			
@@ -984,7 +1118,7 @@ public final class Functions
 				LOG.log(Level.FINER, "ITUNES ENTRY FOUND: " + fileLocation);
 				allFilesInMusicDir.remove(fileLocation);
 			}
-			progress.update(progressCounter++);
+			progress.update(row);
 		}
 		progress.finish();
 		
@@ -1011,7 +1145,8 @@ public final class Functions
 	
 	/** Capitalizes the first letter of every word for every field,
 	 * excluding comments, composer, and grouping by default.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param isUseProperCaps  Words that shouldn't be capitalzied will
 	 * not be (i.e. articles - a, of, the, etc.).
 	 * @param isIncludeComments  Include comments field.
@@ -1019,10 +1154,11 @@ public final class Functions
 	 * @param isIncludeGrouping  Include grouping field.
 	 * @see Utils#capitalizeTitle(String, boolean)
 	 */
-	public static void formatFields(Entry<String, Map> entry, boolean isUseProperCaps, boolean isIncludeComments,
+	public static void formatFields(TrackStore tracks, int row, boolean isUseProperCaps, boolean isIncludeComments,
 			boolean isIncludeComposer, boolean isIncludeGrouping)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		try 
 		{
 			String title = tag.getFirst(FieldKey.TITLE);
@@ -1067,7 +1203,7 @@ public final class Functions
 				tag.setField(FieldKey.GROUPING, formatGrouping);
 			}
 			
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
 		{
@@ -1081,11 +1217,13 @@ public final class Functions
 	
 	/** All leading and trailing whitespace (spaces) will be
 	 * removed from all fields on every tag.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 */
-	public static void removeLeadingTrailingSpaces(Entry<String, Map> entry)
+	public static void removeLeadingTrailingSpaces(TrackStore tracks, int row)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		try 
 		{
 			tag.setField(FieldKey.TITLE, tag.getFirst(FieldKey.TITLE).trim());
@@ -1098,7 +1236,7 @@ public final class Functions
 			tag.setField(FieldKey.COMMENT, tag.getFirst(FieldKey.COMMENT).trim()); 
 			
 			LOG.log(Level.FINEST, tag.toString());
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
 		{
@@ -1112,14 +1250,16 @@ public final class Functions
 	
 	/** Remove a number of characters from either the start
 	 * or end of a tag field.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param field  Field to remove characters from.
 	 * @param type  Remove leading or remove tailing chars
 	 * @param nChars  Number of characters to remove
 	 */
-	public static void removeLeadingTrailingChars(Entry<String, Map> entry, FieldKey field, TextRemovalType type, int nChars)
+	public static void removeLeadingTrailingChars(TrackStore tracks, int row, FieldKey field, TextRemovalType type, int nChars)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		
 		String editField = tag.getFirst(field);
 		if(editField.length() < nChars)
@@ -1141,11 +1281,11 @@ public final class Functions
 			tag.setField(field, editField);
 			
 			LOG.log(Level.FINEST, tag.toString());
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
 		{
-			JOptionPane.showMessageDialog(GUI.frame, "Failed to remove \'n\' chars: " + tag.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+			Frontend.get().showError("Failed to remove \'n\' chars: " + tag.toString());
 			LOG.log(Level.WARNING, "Couldn't remove n chars: " + tag.toString());
 		}
 		catch (StringIndexOutOfBoundsException ex)
@@ -1155,7 +1295,8 @@ public final class Functions
 	}
 	
 	/** Not yet implemented.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 */
 	public static void fetchLyrics(TableEntry entry)
 	{
@@ -1167,25 +1308,26 @@ public final class Functions
 	}
 	
 	/** Creates TableEntrys for all tracks that have a rating >= the provided rating.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param minRating  Minimum rating required. 
 	 * @return  {@link TableEntry} object that backs {@link id3.tables.ID3Table}'s
 	 * table model.
 	 * @see id3.tables.abstractid3model.AbstractID3Model
 	 */
-	public static TableEntry getSongsByMinimumRating(Entry<String, Map> entry, int minRating)
+	public static TableEntry getSongsByMinimumRating(TrackStore tracks, int row, int minRating)
 	{
-		String fileLocation = Utils.getFilePathFromTrackEntry(entry);
+		String fileLocation = Utils.getFilePathFromTrackEntry(tracks, row);
 		
 		TableEntry tableEntry = null;
 			
-		int rating = (int) entry.getValue().getOrDefault("Rating", 0) / 20;
+		int rating = tracks.getInt(row, TrackField.Rating, 0) / 20;
 		if(rating >= minRating)
 		{
 			tableEntry = new TableEntry();
-			tableEntry.SongTitle = (String) entry.getValue().getOrDefault("Name", "");
-			tableEntry.Artist = (String) entry.getValue().getOrDefault("Artist", "");
-			tableEntry.Album = (String) entry.getValue().getOrDefault("Album", "");
+			tableEntry.SongTitle = tracks.getString(row, TrackField.Name, "");
+			tableEntry.Artist = tracks.getString(row, TrackField.Artist, "");
+			tableEntry.Album = tracks.getString(row, TrackField.Album, "");
 			tableEntry.Rating = String.valueOf(rating);
 			tableEntry.FilePath = fileLocation;
 		}
@@ -1195,19 +1337,34 @@ public final class Functions
 	/** Attempts to fill the provided missing fields by looking
 	 * at other tracks on the same album and seeing if the field
 	 * in question is filled out for the other track.
+	 * @param tracks  Library's track entries
 	 * @param album  {@link Album} object containing the tracks
 	 * @param keys  Tag fields to attempt to fill missing
 	 * @see Library#createArtistObjects()
 	 */
-	public static void fixMissing(Album album, FieldKey[] keys)
+	public static void fixMissing(TrackStore tracks, Album album, FieldKey[] keys)
 	{
-		for(String trackPath : album.getTracks().values())
+		EnumSet<FieldKey> textKeys = EnumSet.noneOf(FieldKey.class);
+		Collections.addAll(textKeys, keys);
+		boolean isFixArtwork = textKeys.remove(FieldKey.MEDIA);
+		
+		for(int row : album.getTracks())
 		{
-			Tag tag = null;
+			String trackPath = tracks.getFilePath(row);
+			if(!isFixArtwork && !isAnyFieldEmpty(QuickTag.readFields(trackPath, textKeys), textKeys))
+			{
+				continue;	// Nothing to fix, file isn't opened for writing
+			}
+			
+			TagSession session = TagSession.open(trackPath);
+			Tag tag = session.getTag();
+			if(tag == null)
+			{
+				continue;
+			}
+			
 			try
 			{
-				tag = Utils.getTagFromAudioFile(trackPath);
-				
 				for(FieldKey key : keys)
 				{
 					String albumField = null;
@@ -1252,13 +1409,14 @@ public final class Functions
 						}
 						case MEDIA :
 						{
-							albumField = album.getArtwork().getMimeType(); // Non-null means artwork exists
+							Artwork artwork = album.getArtwork(tracks);	// Only read when artwork is being fixed
+							albumField = artwork != null ? artwork.getMimeType() : null; // Non-null means artwork exists
 							break;
 						}
 					}
 					
-					if(albumField == "-1" || albumField.isEmpty()	//Make sure album obj has meaningful field data
-							|| albumField.matches(Library.UUID_REGEX))
+					if(albumField == null || albumField == "-1" || albumField.isEmpty()	//Make sure album obj has meaningful field data
+							|| Library.isGeneratedName(albumField))
 					{
 						continue;
 					}
@@ -1267,7 +1425,7 @@ public final class Functions
 					{
 						if(tag.getArtworkList().isEmpty())
 						{
-							tag.createField(album.getArtwork());
+							tag.createField(album.getArtwork(tracks));
 						}
 					}
 					else
@@ -1290,38 +1448,53 @@ public final class Functions
 				// do nothing : bug w/ JAudioTagger, sometimes throws this ex
 			}
 			
-			Utils.saveTagToFile(trackPath, tag);
+			TagWriteExecutor.submit(session);
+		}
+	}
+	
+	private static boolean isAnyFieldEmpty(QuickTag tag, EnumSet<FieldKey> keys)
+	{
+		for(FieldKey key : keys)
+		{
+			if(tag.getFirst(key).isEmpty())
+			{
+				return true;
+			}
 		}
+		return false;
 	}
 	
 	/** Calculates an album's "proper" track count
 	 * by checking to see how many tracks exist on that album.
 	 * Default behavior is to only write the track count tracks
 	 * that have empty {@code FieldKey.TRACK_TOTAL} fields.
+	 * @param tracks  Library's track entries
 	 * @param album  {@link Album} object to get track count from.
 	 * @param isIncludeNonEmpty  {@code FieldKey.TRACK_TOTAL} will
 	 * be overwritten with the newly calculated count.
 	 */
-	public static void calculateTrackCount(Album album, boolean isIncludeNonEmpty)
+	public static void calculateTrackCount(TrackStore tracks, Album album, boolean isIncludeNonEmpty)
 	{
 		String calculatedCount = String.valueOf(album.getCalculatedTrackCount());
-		for(String trackPath : album.getTracks().values())
+		for(int row : album.getTracks())
 		{
+			String trackPath = tracks.getFilePath(row);
 			try
 			{
-				Tag tag = Utils.getTagFromAudioFile(trackPath);
-				String count = tag.getFirst(FieldKey.TRACK_TOTAL);
+				String count = QuickTag.readFields(trackPath, EnumSet.of(FieldKey.TRACK_TOTAL)).getFirst(FieldKey.TRACK_TOTAL);
 				if(!count.isEmpty() && !isIncludeNonEmpty)
 				{
 					continue;
 				}
 				
-				if(count != calculatedCount)
+				if(!count.equals(calculatedCount))
 				{
+					TagSession session = TagSession.open(trackPath);
+					Tag tag = session.getTag();
 					tag.setField(FieldKey.TRACK_TOTAL, calculatedCount);
 					
 					LOG.log(Level.FINE, "Calculated Track Count: " + count +  ", added to: " + trackPath);
-					Utils.saveTagToFile(trackPath, tag);
+					TagWriteExecutor.submit(session);
 				}
 			}
 			catch (TagException e)
@@ -1338,18 +1511,19 @@ public final class Functions
 	
 	/** Creates a TableEntry for each track that has the track number
 	 * within the song's title.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @return  {@link TableEntry} object that backs {@link id3.tables.ID3Table}'s
 	 * table model.
 	 * @see id3.tables.abstractid3model.AbstractID3Model
 	 */
-	public static TableEntry removeTrackNumberFromTitles(Entry<String, Map> entry)
+	public static TableEntry removeTrackNumberFromTitles(TrackStore tracks, int row)
 	{	
-		String fileLocation = Utils.getFilePathFromTrackEntry(entry);
+		String fileLocation = Utils.getFilePathFromTrackEntry(tracks, row);
 		
 		TableEntry tableEntry = null;
 			
-		String title = (String) entry.getValue().getOrDefault("Name", "");
+		String title = tracks.getString(row, TrackField.Name, "");
 		String newTitle = null;
 		String tracknum = null;
 			
@@ -1399,21 +1573,209 @@ public final class Functions
 		return tableEntry;
 	}
 	
+	/** Rewrites an mp3's tag as an ID3v2 tag of the supplied version,
+	 * with padding reserved after its frames, so that later edits can be
+	 * written in place (see {@link TagWriter}). Existing padding is never
+	 * reduced. Files whose tag already has the version and at least the
+	 * padding are left untouched.
+	 * @param path  Audio file path.
+	 * @param version  ID3v2 major version, 3 or 4.
+	 * @param padding  Bytes of padding to reserve.
+	 * @return  Bytes of padding added, or -1 if the file was skipped.
+	 * @throws UncheckedIOException  If the file doesn't exist, or its
+	 * tag couldn't be read or written.
+	 */
+	public static int normalizeTag(String path, int version, int padding)
+	{
+		if(!path.toLowerCase().endsWith(".mp3"))
+		{
+			return -1;
+		}
+		if(!new File(path).exists())
+		{
+			throw new UncheckedIOException(new FileNotFoundException(path));
+		}
+		
+		int oldPadding = 0;
+		try
+		{
+			ID3v2Reader.Layout layout = ID3v2Reader.readLayout(path);
+			if(layout != null)
+			{
+				if(layout.version == version && layout.padding >= padding)
+				{
+					return -1;	// Already complies
+				}
+				oldPadding = layout.padding;
+			}
+		}
+		catch (UnsupportedTagException e)
+		{
+			LOG.log(Level.FINER, "Unsupported tag layout, normalizing: " + path);
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "Failed to read tag layout: " + path);
+			throw new UncheckedIOException(e);
+		}
+		
+		Tag tag = Utils.getTagFromAudioFile(path);
+		if(!(tag instanceof AbstractTag) || Settings.isDebugMode)
+		{
+			return -1;
+		}
+		AbstractID3v2Tag normalized = version == 3 ? new ID3v23Tag((AbstractTag) tag) : new ID3v24Tag((AbstractTag) tag);
+		
+		int reserved = Math.max(padding, oldPadding);
+		try
+		{
+			if(TagWriter.rewrite(new File(path), normalized, reserved) > 0)
+			{
+				LOG.log(Level.FINER, "Tag normalized to ID3v2." + version + ": " + path);
+				return reserved - oldPadding;
+			}
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.SEVERE, "ID3 Tag failed to write: " + path);
+			throw new UncheckedIOException(e);
+		}
+		return -1;
+	}
+	
+	/** Rolls back, or completes, a journaled operation by setting every
+	 * field it changed to its value before, or after, the operation.
+	 * The operation is then marked as undone, or as finished.
+	 * <p>
+	 * If cancelled, or if any file couldn't be restored, the operation
+	 * isn't marked, so that it can be restored again. Files that couldn't
+	 * be restored are reported through {@link Frontend#showError(String)}.
+	 * @param op  Operation, see {@link TagJournal}.
+	 * @param isRollback  True to restore the fields' old values,
+	 * false to write their new values.
+	 * @param token  Checked between files.
+	 */
+	public static void restoreOperation(Operation op, boolean isRollback, CancellationToken token)
+	{
+		Map<String, Map<FieldKey, String>> files = op.getValues(isRollback);
+		Progress progress = Frontend.get().openProgress(files.size(), token);
+		
+		ConcurrentLinkedQueue<String> failed = new ConcurrentLinkedQueue<>();
+		ArrayList<CompletableFuture<Void>> commits = new ArrayList<>();
+		CancellationToken previous = TagWriteExecutor.bind(token);
+		try
+		{
+			int progressCounter = 0;
+			for(Entry<String, Map<FieldKey, String>> file : files.entrySet())
+			{
+				if(token.isCancelled())
+				{
+					break;
+				}
+				String path = file.getKey();
+				TagSession session = TagSession.open(path);
+				Tag tag = session.getTag();
+				if(tag == null)
+				{
+					LOG.log(Level.WARNING, "Failed to restore tag, file can't be read: " + path);
+					failed.add(path);
+				}
+				else
+				{
+					try
+					{
+						for(Entry<FieldKey, String> field : file.getValue().entrySet())
+						{
+							if(field.getValue() == null)
+							{
+								tag.deleteField(field.getKey());	// Wasn't set
+							}
+							else
+							{
+								try
+								{
+									tag.setField(field.getKey(), field.getValue());
+								}
+								catch (FieldDataInvalidException e)
+								{
+									if(!field.getValue().isEmpty())
+									{
+										throw e;
+									}
+									tag.deleteField(field.getKey());	// Can't be empty in this tag type, i.e. ID3v2.3 year
+								}
+							}
+						}
+						commits.add(TagWriteExecutor.submit(session).handle((written, e) ->
+						{
+							if(e != null && !token.isCancelled())
+							{
+								failed.add(path);
+							}
+							return null;
+						}));
+						LOG.log(Level.FINER, "Tag restored: " + path);
+					}
+					catch (KeyNotFoundException | FieldDataInvalidException e)
+					{
+						LOG.log(Level.WARNING, "Failed to restore tag: " + path);
+						failed.add(path);
+					}
+				}
+				progress.update(progressCounter++);
+			}
+		}
+		finally
+		{
+			TagWriteExecutor.bind(previous);
+		}
+		CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).join();
+		if(!failed.isEmpty())
+		{
+			List<String> paths = new ArrayList<>(failed);
+			StringBuilder sb = new StringBuilder("\"" + op.getName() + "\" couldn't be " + (isRollback ? "undone" : "completed")
+					+ ", " + paths.size() + " files failed, see the log for details:");
+			for(String path : paths.subList(0, Math.min(paths.size(), MAX_FAILED_FILES_SHOWN)))
+			{
+				sb.append("\r\n" + path);
+			}
+			if(paths.size() > MAX_FAILED_FILES_SHOWN)
+			{
+				sb.append("\r\n...");
+			}
+			Frontend.get().showError(sb.toString());
+		}
+		else if(!token.isCancelled())
+		{
+			if(isRollback)
+			{
+				TagJournal.markUndone(op);
+			}
+			else
+			{
+				TagJournal.markFinished(op);
+			}
+		}
+		progress.finish();
+	}
+	
 	/** Saves the track's song rating as listed in iTunes
 	 * as an equivalent rating on its ID3 tag.
-	 * @param entry  Library file's equivalent to a track in iTunes.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 */
-	public static void saveRatings(Entry<String, Map> entry)
+	public static void saveRatings(TrackStore tracks, int row)
 	{	
-		String rating = String.valueOf(entry.getValue().getOrDefault("Rating", "0"));
+		String rating = String.valueOf(tracks.getInt(row, TrackField.Rating, 0));
 		rating = Utils.convertITunesRatingToID3(rating);
 			
 		try
 		{
-			Tag tag = Utils.getTagFromTrackEntry(entry);
+			TagSession session = TagSession.open(tracks, row);
+			Tag tag = session.getTag();
 			tag.setField(FieldKey.RATING, rating);
 				
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINE, "Rating saved to tag: " + tag.toString());
 		}
 		catch (TagException e)
@@ -1426,19 +1788,21 @@ public final class Functions
 	 * <p>
 	 * A like-field are fields that accept the same types
 	 * (string, int, etc.)
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param fieldOne  First field to use in swap.
 	 * @param fieldTwo  Second field to use in swap.
 	 */
-	public static void swapTags(Entry<String, Map> entry, FieldKey fieldOne, FieldKey fieldTwo)
+	public static void swapTags(TrackStore tracks, int row, FieldKey fieldOne, FieldKey fieldTwo)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		try
 		{
 			tag.setField(fieldOne, tag.getFirst(fieldTwo));
 			tag.setField(fieldTwo, tag.getFirst(fieldOne));
 			
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINER, "Swap successful: " + tag.toString());
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
@@ -1453,18 +1817,20 @@ public final class Functions
 	
 	/** Copies one like-field to another. The copy from field
 	 * will remain unchanged.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 * @param fieldCopy  Field to copy from.
 	 * @param fieldReplace  Field to copy to.
 	 */
-	public static void copyTags(Entry<String, Map> entry, FieldKey fieldCopy, FieldKey fieldReplace)
+	public static void copyTags(TrackStore tracks, int row, FieldKey fieldCopy, FieldKey fieldReplace)
 	{
-		Tag tag = Utils.getTagFromTrackEntry(entry);
+		TagSession session = TagSession.open(tracks, row);
+		Tag tag = session.getTag();
 		try
 		{
 			tag.setField(fieldReplace, tag.getFirst(fieldCopy));
 			
-			Utils.saveTagToFile(entry, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINER, "Copy successful: " + tag.toString());
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
@@ -1485,38 +1851,42 @@ public final class Functions
 	 * @return  List of {@link TableEntry}s containing 
 	 * fields with the matching text and what the fields will become
 	 * if textFind text is replaced with textReplace.
+	 * If cancelled, only the tracks searched so far are listed.
 	 */
-	public static ArrayList<TableEntry> findMatchingTextInTagFields(Library lib, String textFind, String textReplace)
+	public static ArrayList<TableEntry> findMatchingTextInTagFields(Library lib, String textFind, String textReplace,
+			CancellationToken token)
 	{
 		ArrayList<TableEntry> tableEntries = new ArrayList<TableEntry>();
-		ProgressDialog progress = new ProgressDialog(lib.getTrackMapEntries().size());
+		TrackStore tracks = lib.getTracks();
+		Progress progress = Frontend.get().openProgress(tracks.size(), token);
 		
-		int progressCounter = 0;
-		for(Entry<String, Map> trackEntry : lib.getTrackMapEntries())
+		for(int row = 0; row < tracks.size(); row++)
 		{
-			for(Object obj: trackEntry.getValue().entrySet())
+			if(token.isCancelled())
 			{
-				Entry<String, Object> fieldEntry = (Entry<String, Object>) obj;
-				String value = String.valueOf(fieldEntry.getValue());
-				
-				if(fieldEntry.getKey().equalsIgnoreCase("Location"))
+				break;
+			}
+			for(TrackField field : TrackField.values())
+			{
+				if(field == TrackField.Location || field == TrackField.PersistentID)
 				{
 					continue;
 				}
 				
-				if(value.contains(textFind))
+				String value = tracks.getText(row, field);
+				if(value != null && value.contains(textFind))
 				{
 					LOG.log(Level.FINER, "Found match: " + value);
 					
 					TableEntry entry = new TableEntry();
 					entry.SongTitle = value;
 					entry.NewTitle = value.replace(textFind, textReplace);
-					entry.Status = fieldEntry.getKey();
-					entry.FilePath = Utils.getFilePathFromTrackEntry(trackEntry);
+					entry.Status = field.getKey();
+					entry.FilePath = Utils.getFilePathFromTrackEntry(tracks, row);
 					tableEntries.add(entry);
 				}
 			}
-			progress.update(progressCounter++);
+			progress.update(row);
 		}
 		progress.finish();
 		
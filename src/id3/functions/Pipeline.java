@@ -0,0 +1,98 @@
+package id3.functions;
+
+import id3.objects.TrackStore;
+import id3.utils.TagSession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** An ordered chain of per-track functions, run in a single
+ * pass over a library.
+ * <p>
+ * All stages of a track edit the same {@link TagSession}: the track's
+ * file is read by the first stage that opens it, each stage edits the tag
+ * as left by the ones before, and the file is written once, after the last
+ * stage, see {@link TagSession#batch(Runnable)}. Running N functions costs
+ * one rewrite of each file instead of N.
+ * <pre>
+ * Pipeline pipeline = new Pipeline()
+ *         .add("Formatting", formattingPanel::runFunction, true)
+ *         .add("Save Ratings", Functions::saveRatings, true);
+ * TrackExecutor.runLibrary(lib, row -> pipeline.run(tracks, row), pipeline.isThreadSafe(), progress, token);
+ * </pre>
+ * Stages should only edit the track's own tag, through a {@link TagSession}.
+ * @see id3.gui.functionpanel.FunctionPanel#isPipelineStage()
+ */
+public class Pipeline
+{
+	/** A function run for every track,
+	 * e.g. {@link id3.gui.functionpanel.FunctionPanel#runFunction(TrackStore, int)}
+	 */
+	public interface Stage
+	{
+		void run(TrackStore tracks, int row);
+	}
+
+	private final ArrayList<String> 	names 	= new ArrayList<>();
+	private final ArrayList<Stage> 		stages 	= new ArrayList<>();
+	private boolean 					isThreadSafe = true;
+
+	/** Appends a stage, run after the stages added before it.
+	 * @param name  Name of the stage's function.
+	 * @param stage  Function to run for every track.
+	 * @param isThreadSafe  True if the stage can run for several tracks at once.
+	 * @return  This pipeline.
+	 */
+	public Pipeline add(String name, Stage stage, boolean isThreadSafe)
+	{
+		names.add(name);
+		stages.add(stage);
+		this.isThreadSafe &= isThreadSafe;
+		return this;
+	}
+
+	/** Runs every stage for a track, in order, reading
+	 * and writing the track's file once.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
+	 */
+	public void run(TrackStore tracks, int row)
+	{
+		TagSession.batch(() ->
+		{
+			for(Stage stage : stages)
+			{
+				stage.run(tracks, row);
+			}
+		});
+	}
+
+	/** @return  Names of the stages, in order */
+	public List<String> getNames()
+	{
+		return Collections.unmodifiableList(names);
+	}
+
+	/** @return  Names of the stages, e.g. {@code "Formatting > Save Ratings"} */
+	public String getName()
+	{
+		return String.join(" > ", names);
+	}
+
+	public int size()
+	{
+		return stages.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return stages.isEmpty();
+	}
+
+	/** @return  True if every stage can run for several tracks at once */
+	public boolean isThreadSafe()
+	{
+		return isThreadSafe;
+	}
+}
@@ -0,0 +1,73 @@
+package id3.gui.customui;
+
+import javax.swing.text.*;
+import java.awt.*;
+
+/** A document filter that accepts only numbers,
+ * of at most two digits.
+ * <pre>
+ * PlainDocument doc = new PlainDocument();
+ * doc.setDocumentFilter(new NumbersOnlyFilter());
+ * </pre>
+ */
+public class NumbersOnlyFilter extends DocumentFilter
+{
+	@Override
+	public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) throws BadLocationException
+	{
+		Document doc = fb.getDocument();
+		StringBuilder sb = new StringBuilder();
+		sb.append(doc.getText(0,  doc.getLength()));
+		sb.insert(offset, string);
+
+		if(doc.getLength() >= 2)
+		{
+			return;
+		}
+
+		if(testInput(sb.toString()))
+		{
+			super.insertString(fb, offset, string, attr);
+		}
+		else
+		{
+			Toolkit.getDefaultToolkit().beep();
+		}
+	}
+
+	@Override
+	public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException
+	{
+		Document doc = fb.getDocument();
+		StringBuilder sb = new StringBuilder();
+		sb.append(doc.getText(0,  doc.getLength()));
+		sb.replace(offset, offset + length, text);
+
+		if(doc.getLength() >= 2)
+		{
+			return;
+		}
+
+		if(testInput(sb.toString()))
+		{
+			super.replace(fb, offset, length, text, attrs);
+		}
+		else
+		{
+			Toolkit.getDefaultToolkit().beep();
+		}
+	}
+
+	private static boolean testInput(String input)
+	{
+		try
+		{
+			Integer.parseInt(input);
+			return true;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package id3.gui.dialogs;
+
+import id3.main.GUI;
+import id3.utils.CancellationToken;
+import id3.utils.Frontend;
+import id3.utils.Progress;
+
+import javax.swing.*;
+
+/** Shows functions' progress in a {@link ProgressDialog}
+ * and their messages in message dialogs.
+ */
+public class DialogFrontend extends Frontend
+{
+	@Override
+	public Progress openProgress(String message, CancellationToken token)
+	{
+		ProgressDialog progress = ProgressDialog.open(() -> token != null ? new ProgressDialog(token) : new ProgressDialog());
+		if(message != null)
+		{
+			progress.setMessage(message);
+		}
+		return progress;
+	}
+
+	@Override
+	public void showError(String message)
+	{
+		JOptionPane.showMessageDialog(GUI.frame, message, "Error", JOptionPane.ERROR_MESSAGE);
+	}
+
+	@Override
+	public void showMessage(String title, String message)
+	{
+		JOptionPane.showMessageDialog(GUI.frame, message, title, JOptionPane.INFORMATION_MESSAGE);
+	}
+}
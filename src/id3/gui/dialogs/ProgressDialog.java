@@ -1,25 +1,55 @@
 package id3.gui.dialogs;
 
 import id3.main.GUI;
+import id3.utils.CancellationToken;
+import id3.utils.Progress;
+import id3.utils.ProgressChannel;
+import id3.utils.TagWriter;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.util.Set;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
-/** Creates a dialog with a progress bar */
-public class ProgressDialog extends JDialog
+/** Creates a dialog with a progress bar.
+ * <p>
+ * Functions report progress to the dialog's {@link ProgressChannel},
+ * from any number of threads, without touching Swing. The dialog samples
+ * the channel on the event dispatch thread every {@link #SAMPLE_MILLIS}
+ * and shows items and bytes written per second, and the time left.
+ * <p>
+ * Like every Swing component, the dialog is created on the event
+ * dispatch thread, see {@link #open(Supplier)}.
+ */
+public class ProgressDialog extends JDialog implements Progress
 {
+	/** How often the channel is sampled */
+	private static final int SAMPLE_MILLIS = 150;
+	
 	private JProgressBar progress;
 	private JLabel lblMsg;
+	private JLabel lblStats;
 	private JButton btnCancel;
+	private Timer timer;
+	
+	private final ProgressChannel channel = new ProgressChannel(TagWriter::getBytesWritten);
+	private volatile String message = "Processing...";
+
+	/** Cancelled by the cancel button, null if the function can't be cancelled */
+	private CancellationToken token;
+	private volatile boolean isFinished;
 
 	/** Creates a new {@code ProgressDialog} instance.
 	 * By default, the progressbar is indeterminate.
 	 * Note that any time a progress bar is active,
 	 * {@link GUI#frame} will be disabled, disallowing
 	 * any additonal input.
+	 * <p>
+	 * The cancel button is disabled until the dialog is
+	 * finished, see {@link #ProgressDialog(CancellationToken)}.
 	 */
 	public ProgressDialog()
 	{
@@ -31,9 +61,15 @@ public class ProgressDialog extends JDialog
 		lblMsg = new JLabel("Processing...");
 		lblMsg.setHorizontalAlignment(SwingConstants.CENTER);
 		lblMsg.setFont(new Font("Verdana", Font.PLAIN, 12));
-		lblMsg.setBounds(0, 41, 224, 14);
+		lblMsg.setBounds(0, 33, 224, 14);
 		getContentPane().add(lblMsg);
 		
+		lblStats = new JLabel();
+		lblStats.setHorizontalAlignment(SwingConstants.CENTER);
+		lblStats.setFont(new Font("Verdana", Font.PLAIN, 10));
+		lblStats.setBounds(0, 53, 224, 14);
+		getContentPane().add(lblStats);
+		
 		progress = new JProgressBar();
 		progress.setBounds(0, 0, 224, 23);
 		progress.setIndeterminate(true);
@@ -45,7 +81,6 @@ public class ProgressDialog extends JDialog
             if(btnCancel.getText().equals("Cancel"))
             {
                 cancel();
-                ProgressDialog.this.dispose();;
             }
             else
             {
@@ -53,9 +88,10 @@ public class ProgressDialog extends JDialog
             }
         });
 		btnCancel.setBounds(65, 78, 90, 23);
+		btnCancel.setEnabled(false);
 		getContentPane().add(btnCancel);
 		
-		GUI.lock();
+		SwingUtilities.invokeLater(GUI::lock);
 		
 		this.addWindowListener(new WindowListener()
 		{
@@ -77,6 +113,7 @@ public class ProgressDialog extends JDialog
 			@Override
 			public void windowClosed(WindowEvent e)
 			{
+				timer.stop();
 				cancel();
 			}
 			@Override
@@ -84,10 +121,57 @@ public class ProgressDialog extends JDialog
 			{ }
 		});
 		
+		timer = new Timer(SAMPLE_MILLIS, e -> refresh());
+		timer.start();
+		
 		this.setBounds(150, 150, 240, 160);
 		this.setVisible(true);
 	}
 	
+	/** Creates and shows a dialog on the event dispatch thread,
+	 * so that functions running on other threads can open one.
+	 * <pre>
+	 * ProgressDialog progress = ProgressDialog.open(() -> new ProgressDialog(token));
+	 * </pre>
+	 * @param dialog  Creates the dialog, e.g. one of the constructors.
+	 * @return  The dialog, once it's shown.
+	 */
+	public static ProgressDialog open(Supplier<ProgressDialog> dialog)
+	{
+		if(SwingUtilities.isEventDispatchThread())
+		{
+			return dialog.get();
+		}
+		
+		AtomicReference<ProgressDialog> created = new AtomicReference<>();
+		try
+		{
+			SwingUtilities.invokeAndWait(() -> created.set(dialog.get()));
+		}
+		catch (InvocationTargetException e)
+		{
+			throw new IllegalStateException("Failed to open progress dialog", e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while opening progress dialog", e);
+		}
+		return created.get();
+	}
+	
+	/** Creates a {@code ProgressDialog} whose cancel button
+	 * cancels the token, see {@link #cancel()}.
+	 * @param token  Checked by the function between files.
+	 * @see ProgressDialog#ProgressDialog()
+	 */
+	public ProgressDialog(CancellationToken token)
+	{
+		this();
+		this.token = token;
+		SwingUtilities.invokeLater(() -> btnCancel.setEnabled(true));
+	}
+	
 	/** Creates a determine {@code ProgressDialog}
 	 * @param max  Value representing 100% completion
 	 * @see ProgressDialog#ProgressDialog()
@@ -98,6 +182,17 @@ public class ProgressDialog extends JDialog
 		setDeterminate(max);
 	}
 	
+	/** Creates a determinate, cancellable {@code ProgressDialog}
+	 * @param max  Value representing 100% completion
+	 * @param token  Checked by the function between files.
+	 * @see ProgressDialog#ProgressDialog(CancellationToken)
+	 */
+	public ProgressDialog(int max, CancellationToken token)
+	{
+		this(token);
+		setDeterminate(max);
+	}
+	
 	/** Creates an indeterminate progress bar
 	 * with the supplied text.
 	 * @param message  Text to place on the dialog.
@@ -106,7 +201,7 @@ public class ProgressDialog extends JDialog
 	public ProgressDialog(String message)
 	{
 		this();
-		lblMsg.setText(message);
+		this.message = message;
 	}
 	
 	/** Creates a determinate progress bar
@@ -121,68 +216,124 @@ public class ProgressDialog extends JDialog
 		setDeterminate(max);
 	}
 	
+	/** @param message  Text to place on the dialog, while no phase is running */
+	public void setMessage(String message)
+	{
+		this.message = message;
+	}
+	
 	/** Changes the current {@code ProgressDialog} instance
 	 * to determinate.
 	 * @param max  Value representing 100% completion.
 	 */
+	@Override
 	public void setDeterminate(int max)
 	{
-		progress.setIndeterminate(false);
-		progress.setMinimum(0);
-		progress.setMaximum(max);
+		channel.setTotal(max);
 	}
 	
-	/** Updates the progress' value and repaints
-	 * the progress bar.
+	/** Sets the number of items done, for functions
+	 * that process items one after another.
+	 * Shown when the dialog next samples its channel.
 	 * @param value  New value of progress bar.
 	 */
+	@Override
 	public void update(int value)
 	{
-		progress.setValue(value);
+		channel.set(value);
+	}
+	
+	/** Counts an item as done. Can be called by
+	 * several worker threads at once.
+	 */
+	@Override
+	public void step()
+	{
+		channel.step();
+	}
+	
+	/** @return  Channel the function reports its progress
+	 * and phases to.
+	 */
+	@Override
+	public ProgressChannel getChannel()
+	{
+		return channel;
+	}
+	
+	/** Shows the channel's progress, on the event dispatch thread */
+	private void refresh()
+	{
+		long total = channel.getTotal();
+		if(total == ProgressChannel.UNKNOWN)
+		{
+			progress.setIndeterminate(true);
+		}
+		else
+		{
+			progress.setIndeterminate(false);
+			progress.setMinimum(0);
+			progress.setMaximum((int) Math.min(total, Integer.MAX_VALUE));
+			progress.setValue((int) Math.min(channel.getDone(), total));
+		}
+		
+		String name = channel.getName();
+		if(token != null && token.isCancelled())
+		{
+			lblMsg.setText("Cancelling...");
+		}
+		else
+		{
+			lblMsg.setText(name != null ? name : message);
+		}
+		lblStats.setText(channel.getStats());
 	}
 	
 	/** Sets progress bar to finished.
 	 * The bar is filled and {@link GUI#frame}
 	 * is unlocked. 
 	 */
+	@Override
 	public void finish()
 	{
-		lblMsg.setText("Finished!");
-		btnCancel.setText("Close");
-		progress.setIndeterminate(false);
-		progress.setMaximum(100);
-		progress.setValue(100);
-		
-		GUI.unlock();
+		isFinished = true;
+		SwingUtilities.invokeLater(() ->
+		{
+			timer.stop();
+			refresh();
+			lblMsg.setText(token != null && token.isCancelled() ? "Cancelled" : "Finished!");
+			btnCancel.setText("Close");
+			btnCancel.setEnabled(true);
+			progress.setIndeterminate(false);
+			progress.setMaximum(100);
+			progress.setValue(100);
+			
+			GUI.unlock();
+		});
 	}
 	
 	/** Calls {@link #finish()} and immediately
 	 * closes the {@code ProgressDialog}
 	 */
+	@Override
 	public void finishAndClose()
 	{
 		finish();
-		this.setVisible(false); // TODO ?
+		SwingUtilities.invokeLater(() -> this.setVisible(false)); // TODO ?
 	}
 	
-	/** Force stops the currently running function
-	 * that is utilizing this instance of
-	 * {@code ProgressDialog} and unlocks
-	 * the GUI.
-	 * @deprecated
+	/** Asks the function that's using this dialog to stop,
+	 * see {@link CancellationToken}. The function stops once
+	 * the files it's processing are done, then calls {@link #finish()},
+	 * which unlocks the GUI.
 	 */
-	public static void cancel()
+	public void cancel()
 	{
-		Set<Thread> threadSet = Thread.getAllStackTraces().keySet();
-		Thread[] threadArray = threadSet.toArray(new Thread[threadSet.size()]);
-		for(Thread thread : threadArray)
+		if(token != null && !isFinished)
 		{
-			if(thread.getName().equals("Function Process"))
-			{
-				thread.stop();	// TODO
-			}
+			token.cancel();
+			refresh();
+			btnCancel.setEnabled(false);
 		}
-		
-		GUI.unlock();
 	}
 }
@@ -1,14 +1,20 @@
 package id3.gui.functionpanel;
 
+import id3.functions.Pipeline;
 import id3.gui.dialogs.ProgressDialog;
+import id3.gui.functionpanel.TrackResults.Failure;
 import id3.main.GUI;
 import id3.main.Program;
+import id3.main.Settings;
+import id3.objects.ChangeSet;
 import id3.objects.Library;
-import id3.utils.Utils;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
+import id3.utils.TagCache;
+import id3.utils.TagWriter;
 
 import javax.swing.*;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,17 +24,17 @@ import java.util.logging.Logger;
  * to outline how a panel in iD3 should work.
  * <p>
  * The idea is that beginning an operation from the GUI
- * will be forced to call {@link #initFunction(Library)},
+ * will be forced to call {@link #initFunction(Library, CancellationToken)},
  * which lays down some basic run logic to be passed into
  * the corresponding method in {@link id3.functions.Functions}.
  * In most cases, the corresponding method will be pointed
- * to in {@link #runFunction(Entry)}.
+ * to in {@link #runFunction(TrackStore, int)}.
  * <p>
  * Ideally, each method in function will iterate over
- * an {@code Entry<String, Map>} object representing
- * each track in an iTunes Library, but some functions
+ * the rows of a {@link TrackStore}, each row representing
+ * a track in an iTunes Library, but some functions
  * don't follow this procedure and should override
- * {@link #initFunction(Library)} and provide custom
+ * {@link #initFunction(Library, CancellationToken)} and provide custom
  * logic.
  * <p>
  * In a nutshell: maintains panel state and contains
@@ -40,6 +46,9 @@ public abstract class FunctionPanel extends JPanel
 {
 	protected static final Logger LOG = Program.LOG;
 	
+	/** Failed tracks listed by {@link #showFailures(TrackResults)} */
+	private static final int MAX_FAILURES_SHOWN = 10;
+	
 	/** Flag determines if an iTunes file is needed for the function. */
 	protected boolean isRequiresItunesLibraryFile = true;
 	
@@ -50,6 +59,19 @@ public abstract class FunctionPanel extends JPanel
 	 */
 	protected boolean isRequiresArtistAlbumObjects = false;
 	
+	/** Flag determines if {@link #runFunction(TrackStore, int)} can be
+	 * called for several tracks at once, i.e. it only edits the track's
+	 * own file, through a {@link id3.utils.TagSession}.
+	 * @see Settings#executionMode
+	 */
+	protected boolean isThreadSafe = false;
+	
+	/** Flag determines if the panel can be queued into a {@link Pipeline}
+	 * with other panels, i.e. its function is {@link #runFunction(TrackStore, int)}
+	 * and only edits the track's tag, through a {@link id3.utils.TagSession}.
+	 */
+	protected boolean isPipelineStage = false;
+	
 	public FunctionPanel()
 	{
 		this.setLayout(null);
@@ -61,30 +83,33 @@ public abstract class FunctionPanel extends JPanel
 	 * a progress dialog and iterate over each entry
 	 * in the library object.
 	 * <p>
+	 * If {@link Settings#isChangedTracksOnly} is set and the library
+	 * was updated, only tracks in the library's {@link ChangeSet}
+	 * are iterated.
+	 * <p>
+	 * Tracks of thread-safe panels can run concurrently, see
+	 * {@link TrackExecutor#runLibrary}. Tracks that failed are reported
+	 * once every track has run.
+	 * <p>
+	 * If the token is cancelled, tracks that haven't started
+	 * are skipped and their pending tag writes are dropped.
+	 * <p>
+	 * The function runs as a {@link Pipeline} of a single stage,
+	 * so each track's file is written once, however many of
+	 * its fields the panel edits.
+	 * <p>
 	 * This will need to be overriden if the function
 	 * needs library specific objects or the entire
 	 * library object itself.
 	 * @param lib  {@link Library} object to use
+	 * @param token  Cancelled by the user, checked between files.
 	 */
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		if(!checkForErrors())
 		{
 			LOG.log(Level.FINE, "Initializing function");
-			ProgressDialog progress = new ProgressDialog(lib.getTrackMapEntries().size());
-			
-			int progressCounter = 0;		
-			for(Entry<String, Map> entry : lib.getTrackMapEntries())
-			{
-				String fileLocation = Utils.getFilePathFromTrackEntry(entry);
-				LOG.log(Level.FINER, "PROCESSING: " + fileLocation);
-						
-				runFunction(entry);
-				
-				progress.update(progressCounter++);
-			}
-					
-			progress.finish();
+			initPipeline(lib, new Pipeline().add(getName(), this::runFunction, isThreadSafe), token);
 		}
 		else
 		{
@@ -92,6 +117,49 @@ public abstract class FunctionPanel extends JPanel
 		}
 	}
 	
+	/** Runs a pipeline over each entry in the library object,
+	 * as {@link #initFunction(Library, CancellationToken)} runs
+	 * a single panel's function.
+	 * @param lib  {@link Library} object to use
+	 * @param pipeline  Functions of the queued panels, see {@link #isPipelineStage()}
+	 * @param token  Cancelled by the user, checked between files.
+	 */
+	public static void initPipeline(Library lib, Pipeline pipeline, CancellationToken token)
+	{
+		TrackStore tracks = lib.getTracks();
+		ProgressDialog progress = ProgressDialog.open(() -> new ProgressDialog(token));
+		
+		TrackResults results = TrackExecutor.runLibrary(lib, row -> pipeline.run(tracks, row),
+				pipeline.isThreadSafe(), progress, token);
+		progress.finish();
+		LOG.log(Level.FINE, "Tag cache: " + TagCache.getStats());
+		LOG.log(Level.FINE, "Tag writes: " + TagWriter.getStats());
+		showFailures(results);
+	}
+	
+	/** Lists the tracks whose function threw, if any.
+	 * @param results  Outcome of a function's tracks.
+	 */
+	protected static void showFailures(TrackResults results)
+	{
+		List<Failure> failures = results.getFailures();
+		if(failures.isEmpty())
+		{
+			return;
+		}
+		
+		StringBuilder sb = new StringBuilder(failures.size() + " tracks failed, see the log for details:");
+		for(int i = 0; i < Math.min(failures.size(), MAX_FAILURES_SHOWN); i++)
+		{
+			sb.append("\r\n" + failures.get(i).path + " (" + failures.get(i).error + ")");
+		}
+		if(failures.size() > MAX_FAILURES_SHOWN)
+		{
+			sb.append("\r\n...");
+		}
+		JOptionPane.showMessageDialog(GUI.frame, sb.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
 	public boolean isRequiresItunesLibraryFile()
 	{
 		return isRequiresItunesLibraryFile;
@@ -102,6 +170,16 @@ public abstract class FunctionPanel extends JPanel
 		return isRequiresArtistAlbumObjects;
 	}
 	
+	public boolean isThreadSafe()
+	{
+		return isThreadSafe;
+	}
+	
+	public boolean isPipelineStage()
+	{
+		return isPipelineStage;
+	}
+	
 	/** Panel specific, makes sure the panel state
 	 * will pass valid values to the panel's
 	 * function method in {@link id3.functions.Functions}.
@@ -109,12 +187,13 @@ public abstract class FunctionPanel extends JPanel
 	 */
 	public abstract boolean checkForErrors();
 	
-	/** Called by {@link #initFunction(Library)} for every track
+	/** Called by {@link #initFunction(Library, CancellationToken)} for every track
 	 * entry in a {@link Library}. If the panel's function
 	 * doesn't require iteration over every track, it's
-	 * recommended to implement logic in {@link #initFunction(Library)}
+	 * recommended to implement logic in {@link #initFunction(Library, CancellationToken)}
 	 * and override this method to do nothing.
-	 * @param entry  Library file's equivalent to a track in iTunes
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track in tracks
 	 */
-	public abstract void runFunction(Entry<String, Map> entry);
+	public abstract void runFunction(TrackStore tracks, int row);
 }
@@ -7,11 +7,13 @@ import id3.objects.Library;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.AbstractID3Model;
+import id3.utils.CancellationToken;
+import id3.utils.TagJournal;
+import id3.utils.TagWriter;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.logging.Level;
 
 /** A subclass of {@link FunctionPanel} that
@@ -89,10 +91,10 @@ public abstract class TableFunctionPanel extends FunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		tableEntries.clear();
-		super.initFunction(lib);
+		super.initFunction(lib, token);
 	}
 	
 	/** Lays down basic logic as to how
@@ -100,10 +102,14 @@ public abstract class TableFunctionPanel extends FunctionPanel
 	 * in an {@link ID3Table} when changes are committed.
 	 * <p>
 	 * This work's very similarly to
-	 *  {@link FunctionPanel#initFunction(Library)},
+	 *  {@link FunctionPanel#initFunction(Library, CancellationToken)},
 	 *  where the logic is laid out that iterates over
 	 *  a list and another method is called to manipulate
 	 *  said list. In this case, {@link #runCommit(TableEntry)}.
+	 *  Entries can be committed concurrently, see
+	 *  {@link TrackExecutor}. If the commit is cancelled,
+	 *  the entries are kept in the table, so that it
+	 *  can be committed again.
 	 *  @see FunctionPanel
 	 * 
 	 */
@@ -118,16 +124,29 @@ public abstract class TableFunctionPanel extends FunctionPanel
 		
 		Thread thread = new Thread(() ->
 		{
-            ProgressDialog progress = new ProgressDialog();
+            CancellationToken token = new CancellationToken();
+            ProgressDialog progress = ProgressDialog.open(() -> new ProgressDialog(entries.size(), token));
             LOG.log(Level.FINE, "Commiting changes");
+            TagJournal.begin(getName() + " (Commit)");
 
-            for(TableEntry entry : entries)
+            TrackResults results;
+            try
             {
-                runCommit(entry);
+                results = TrackExecutor.run(entries.size(), i -> entries.get(i).FilePath,
+                        i -> runCommit(entries.get(i)), true, progress, token);
+                if(!token.isCancelled())
+                {
+                    table.getModel().getTableEntries().clear();
+                    table.getModel().fireTableRowsDeleted(0, entries.size());
+                }
             }
-            table.getModel().getTableEntries().clear();
-            table.getModel().fireTableRowsDeleted(0, entries.size());
-            progress.finish();
+            finally
+            {
+                TagJournal.end();
+                progress.finish();
+            }
+            LOG.log(Level.FINE, "Tag writes: " + TagWriter.getStats());
+            showFailures(results);
         });
 		thread.setName("Commmit Process");
 		thread.start();
@@ -137,8 +156,10 @@ public abstract class TableFunctionPanel extends FunctionPanel
 	 * {@link TableEntry} in an {@link ID3Table}.
 	 * <p>
 	 * The design is similar to
-	 * {@link FunctionPanel#runFunction(Map.Entry)},
-	 * but will always need to be overriden.
+	 * {@link FunctionPanel#runFunction(id3.objects.TrackStore, int)},
+	 * but will always need to be overriden. Only the entry's
+	 * own file may be changed, as entries can be committed
+	 * concurrently.
 	 * @param entry
 	 */
 	protected abstract void runCommit(TableEntry entry);
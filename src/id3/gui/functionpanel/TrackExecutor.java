@@ -0,0 +1,331 @@
+package id3.gui.functionpanel;
+
+import id3.main.Program;
+import id3.main.Settings;
+import id3.objects.ChangeSet;
+import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
+import id3.utils.Progress;
+import id3.utils.TagSession;
+import id3.utils.TagWriteExecutor;
+import id3.utils.Utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Runs a function's per-track work, see {@link FunctionPanel#initFunction(id3.objects.Library, CancellationToken)}
+ * and {@link TableFunctionPanel#initCommit()}.
+ * <p>
+ * Tracks of thread-safe panels are run as set by {@link Settings#executionMode},
+ * other panels' tracks are always run one after another:
+ * <li> {@link Mode#Serial}: one after another, on the calling thread
+ * <li> {@link Mode#FixedPool}: on a pool of {@link Settings#trackThreads} threads
+ * <li> {@link Mode#ForkJoin}: split into ranges of tracks on a fork-join pool
+ * of {@link Settings#trackThreads} threads
+ * <li> {@link Mode#VirtualThreads}: every track on its own virtual thread, so that
+ * thousands of slow file reads on network mounts overlap
+ * <p>
+ * In every concurrent mode, the number of tracks open at once on each
+ * mount is limited to {@link Settings#opensPerMount}, so that every
+ * disk is kept busy without thrashing any of them.
+ * <p>
+ * Each track's outcome, and the error it threw or its tag write failed
+ * with, if any, is collected in {@link TrackResults}. A track that
+ * fails doesn't stop the others.
+ * <p>
+ * Once the function is cancelled, tracks that haven't started are
+ * skipped, on every thread, so the function stops as soon as the
+ * tracks being processed are done.
+ * <p>
+ * Virtual threads need JDK 21, and are created through reflection since
+ * older JVMs are still supported. Without them, {@link Mode#VirtualThreads}
+ * runs tracks on a fixed pool of {@link #FALLBACK_THREADS} threads, and
+ * the mode can't be picked from the menu, see {@link #isVirtualThreadsAvailable()}.
+ */
+public final class TrackExecutor
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** How tracks are run */
+	public enum Mode
+	{
+		Serial,
+		FixedPool,
+		ForkJoin,
+		VirtualThreads
+	}
+
+	/** Size of the thread pool used when virtual threads aren't available */
+	static final int FALLBACK_THREADS 	= 32;
+
+	/** Tracks below which a fork-join range is run rather than split */
+	private static final int FORK_THRESHOLD 	= 8;
+
+	/** Permits to open files, by mount */
+	private static final ConcurrentHashMap<String, Semaphore> MOUNT_PERMITS = new ConcurrentHashMap<>();
+
+	private TrackExecutor() {}
+
+	/** Runs a task for every track of a library, then waits for
+	 * the tracks' tag writes. This is the work of
+	 * {@link FunctionPanel#initFunction(Library, CancellationToken)},
+	 * without the panel, so it can also be run headless.
+	 * <p>
+	 * If {@link Settings#isChangedTracksOnly} is set and the library
+	 * was updated, only tracks in the library's {@link ChangeSet}
+	 * are run.
+	 * @param lib  Library whose tracks are run.
+	 * @param task  Runs a track, by row.
+	 * @param isThreadSafe  True if tracks can run concurrently.
+	 * @param progress  Made determinate, and stepped as each track is done.
+	 * @param token  Checked before each track.
+	 * @return  Every track's outcome.
+	 */
+	public static TrackResults runLibrary(Library lib, IntConsumer task, boolean isThreadSafe, Progress progress,
+			CancellationToken token)
+	{
+		TrackStore tracks = lib.getTracks();
+		ChangeSet changes = lib.getChangeSet();
+		int[] rows = Settings.isChangedTracksOnly && changes != null ? changes.getChangedRows() : null;
+		int count = rows != null ? rows.length : tracks.size();
+		progress.setDeterminate(count);
+		
+		IntUnaryOperator toRow = i -> rows != null ? rows[i] : i;
+		return run(count, i -> Utils.getFilePathFromTrackEntry(tracks, toRow.applyAsInt(i)), i ->
+		{
+			int row = toRow.applyAsInt(i);
+			LOG.log(Level.FINER, "PROCESSING: " + Utils.getFilePathFromTrackEntry(tracks, row));
+			
+			task.accept(row);
+		}, isThreadSafe, progress, token);
+	}
+
+	/** Runs a task for every track, then waits for the tracks' tag writes.
+	 * Each track's file is written once, see {@link TagSession#batch(Runnable)},
+	 * and the track only counts as succeeded once its file is written. If
+	 * the token is cancelled, the tracks' pending tag writes are dropped, see
+	 * {@link TagWriteExecutor#bind(CancellationToken)}.
+	 * @param count  Number of tracks.
+	 * @param paths  File path of each track, by index.
+	 * @param task  Runs a track, by index.
+	 * @param isThreadSafe  True if tracks can run concurrently.
+	 * @param progress  Stepped as each track is done.
+	 * @param token  Checked before each track.
+	 * @return  Every track's outcome.
+	 */
+	public static TrackResults run(int count, IntFunction<String> paths, IntConsumer task, boolean isThreadSafe,
+			Progress progress, CancellationToken token)
+	{
+		Mode mode = isThreadSafe && count > 1 ? Settings.executionMode : Mode.Serial;
+		TrackResults results = new TrackResults();
+		ConcurrentLinkedQueue<CompletableFuture<Void>> outcomes = new ConcurrentLinkedQueue<>();
+		IntConsumer track = index ->
+		{
+			if(token.isCancelled())
+			{
+				results.cancelled();
+				return;
+			}
+			CompletableFuture<Void> outcome = runTrack(index, paths, task, mode != Mode.Serial, token, results);
+			if(outcome != null)
+			{
+				outcomes.add(outcome);
+			}
+			progress.step();
+		};
+
+		switch(mode)
+		{
+			case Serial :
+				for(int i = 0; i < count; i++)
+				{
+					track.accept(i);
+				}
+				break;
+			case ForkJoin :
+				ForkJoinPool forkJoinPool = new ForkJoinPool(Math.max(1, Settings.trackThreads));
+				forkJoinPool.invoke(new TrackRange(0, count, track));
+				forkJoinPool.shutdown();
+				break;
+			default :
+				ExecutorService executor = mode == Mode.VirtualThreads ? newVirtualThreadExecutor()
+						: newThreadPool(Math.max(1, Settings.trackThreads));
+				for(int i = 0; i < count; i++)
+				{
+					int index = i;
+					executor.execute(() -> track.accept(index));
+				}
+				awaitTermination(executor);
+				break;
+		}
+
+		// Waits for the tracks' outcomes to be recorded, not only for their writes
+		CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0])).join();
+		results.finish();
+		LOG.log(Level.FINE, "Tracks (" + mode + "): " + results.getStats());
+		return results;
+	}
+
+	/** Runs a track, and records its outcome once its file is written.
+	 * @return  Completes once the track's outcome is recorded, or null
+	 * if it was recorded already.
+	 */
+	private static CompletableFuture<Void> runTrack(int index, IntFunction<String> paths, IntConsumer task,
+			boolean isConcurrent, CancellationToken token, TrackResults results)
+	{
+		String path = paths.apply(index);
+		Semaphore permits = isConcurrent && path != null ? getMountPermits(path) : null;
+		if(permits != null)
+		{
+			permits.acquireUninterruptibly();
+		}
+		CancellationToken previous = TagWriteExecutor.bind(token);
+		try
+		{
+			if(token.isCancelled())	// Cancelled while waiting for the mount
+			{
+				results.cancelled();
+				return null;
+			}
+			return TagSession.batch(() -> task.accept(index)).handle((written, e) ->
+			{
+				Throwable error = e instanceof CompletionException ? e.getCause() : e;
+				if(error == null)
+				{
+					results.succeeded();
+				}
+				else if(error instanceof CancellationException)
+				{
+					results.cancelled();
+				}
+				else
+				{
+					results.failed(index, path, error);
+				}
+				return null;
+			});
+		}
+		catch (RuntimeException e)
+		{
+			LOG.log(Level.SEVERE, "Track failed: " + path, e);
+			results.failed(index, path, e);
+			return null;
+		}
+		finally
+		{
+			TagWriteExecutor.bind(previous);
+			if(permits != null)
+			{
+				permits.release();
+			}
+		}
+	}
+
+	/** Splits a range of tracks in halves, down to {@link #FORK_THRESHOLD} tracks */
+	private static class TrackRange extends RecursiveAction
+	{
+		private final int 			from;
+		private final int 			to;
+		private final IntConsumer 	track;
+
+		private TrackRange(int from, int to, IntConsumer track)
+		{
+			this.from = from;
+			this.to = to;
+			this.track = track;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(to - from <= FORK_THRESHOLD)
+			{
+				for(int i = from; i < to; i++)
+				{
+					track.accept(i);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new TrackRange(from, middle, track), new TrackRange(middle, to, track));
+		}
+	}
+
+	/** @return  True if the JVM has virtual threads (JDK 21+) */
+	public static boolean isVirtualThreadsAvailable()
+	{
+		try
+		{
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	/** @return  An executor that starts a virtual thread per task, or
+	 * a fixed thread pool if the JVM doesn't have virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			LOG.log(Level.WARNING, "Virtual threads need JDK 21, running on " + FALLBACK_THREADS
+					+ " platform threads instead (Java " + System.getProperty("java.version") + ")");
+		}
+		return newThreadPool(FALLBACK_THREADS);
+	}
+
+	private static ExecutorService newThreadPool(int threads)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, task ->
+		{
+			Thread thread = new Thread(task, "Track Worker " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static void awaitTermination(ExecutorService executor)
+	{
+		executor.shutdown();
+		try
+		{
+			while(!executor.awaitTermination(1, TimeUnit.SECONDS));
+		}
+		catch (InterruptedException e)
+		{
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static Semaphore getMountPermits(String path)
+	{
+		return MOUNT_PERMITS.computeIfAbsent(Utils.getDevice(path),
+				mount -> new Semaphore(Math.max(1, Settings.opensPerMount)));
+	}
+}
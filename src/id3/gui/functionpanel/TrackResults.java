@@ -0,0 +1,80 @@
+package id3.gui.functionpanel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Outcome of every track of a function run, collected from
+ * whichever threads ran them, see {@link TrackExecutor}.
+ */
+public class TrackResults
+{
+	/** A track whose function threw, or whose file couldn't be written */
+	public static class Failure
+	{
+		public final int 		index;
+		public final String 	path;
+		public final Throwable 	error;
+
+		private Failure(int index, String path, Throwable error)
+		{
+			this.index = index;
+			this.path = path;
+			this.error = error;
+		}
+	}
+
+	private final LongAdder 						succeeded 	= new LongAdder();
+	private final LongAdder 						cancelled 	= new LongAdder();
+	private final ConcurrentLinkedQueue<Failure> 	failures 	= new ConcurrentLinkedQueue<>();
+	private final long 								start 		= System.nanoTime();
+	private volatile long 							elapsed;
+
+	void succeeded()
+	{
+		succeeded.increment();
+	}
+
+	void failed(int index, String path, Throwable error)
+	{
+		failures.add(new Failure(index, path, error));
+	}
+
+	void cancelled()
+	{
+		cancelled.increment();
+	}
+	
+	void finish()
+	{
+		elapsed = System.nanoTime() - start;
+	}
+
+	/** @return  Number of tracks that ran without throwing, and whose file was written if it changed */
+	public long getSucceeded()
+	{
+		return succeeded.sum();
+	}
+
+	/** @return  Number of tracks that weren't run or written, since the function was cancelled */
+	public long getCancelled()
+	{
+		return cancelled.sum();
+	}
+	
+	/** @return  Tracks whose function threw or whose file couldn't be written, in no particular order */
+	public List<Failure> getFailures()
+	{
+		return new ArrayList<>(failures);
+	}
+
+	/** @return  Tracks that succeeded, failed and were cancelled, and tracks per second */
+	public String getStats()
+	{
+		long count = succeeded.sum() + failures.size();
+		long perSecond = elapsed == 0 ? 0 : count * 1000000000L / elapsed;
+		return succeeded.sum() + " tracks, " + failures.size() + " failed, " + cancelled.sum() + " cancelled, "
+				+ perSecond + " tracks/s";
+	}
+}
@@ -2,15 +2,15 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.customui.InfoTextArea;
+import id3.gui.customui.NumbersOnlyFilter;
 import id3.gui.functionpanel.FunctionPanel;
+import id3.objects.TrackStore;
 import id3.utils.Utils;
 import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import javax.swing.text.PlainDocument;
 import java.awt.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class AppendPrependPanel extends FunctionPanel 
 {
@@ -44,6 +44,9 @@ public class AppendPrependPanel extends FunctionPanel
 	 */
 	public AppendPrependPanel()
 	{
+		super.isThreadSafe = true;
+		super.isPipelineStage = true;
+		
 		FIELDS = Utils.getFieldDisplay();
 		
 		chckAppPre = new JCheckBox("Append / Prepend");
@@ -66,7 +69,7 @@ public class AppendPrependPanel extends FunctionPanel
 		this.add(lblField);
 		
 		PlainDocument doc = new PlainDocument();
-		Utils.setDocFormatNumbersOnly(doc);
+		doc.setDocumentFilter(new NumbersOnlyFilter());
 		
 		comboEditField = new JComboBox(FIELDS);
 		comboEditField.addActionListener(e ->
@@ -197,18 +200,18 @@ public class AppendPrependPanel extends FunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		switch(getTextTypeEnum())
 		{
 			case Field :
 			{
-				Functions.appendOrPrependField(entry, getTextFunctionEnum(), getEditField(), getCopyField());
+				Functions.appendOrPrependField(tracks, row, getTextFunctionEnum(), getEditField(), getCopyField());
 				break;
 			}
 			case UserText :
 			{
-				Functions.appendOrPrependText(entry, getTextFunctionEnum(), getEditField(), getUserText());
+				Functions.appendOrPrependText(tracks, row, getTextFunctionEnum(), getEditField(), getUserText());
 				break;
 			}
 		}
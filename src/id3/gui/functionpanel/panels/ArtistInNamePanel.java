@@ -2,16 +2,16 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.TableFunctionPanel;
+import id3.objects.TrackStore;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.models.ArtistInNameModel;
-import id3.utils.Utils;
+import id3.utils.TagSession;
+import id3.utils.TagWriteExecutor;
 import org.jaudiotagger.tag.FieldKey;
 import org.jaudiotagger.tag.Tag;
 import org.jaudiotagger.tag.TagException;
 
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 
 public class ArtistInNamePanel extends TableFunctionPanel
@@ -30,9 +30,9 @@ public class ArtistInNamePanel extends TableFunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		TableEntry tableEntry = Functions.getTitlesWithArtistNameIncluded(entry);
+		TableEntry tableEntry = Functions.getTitlesWithArtistNameIncluded(tracks, row);
 		if(tableEntry != null)
 		{
 			tableEntries.add(tableEntry);
@@ -45,10 +45,11 @@ public class ArtistInNamePanel extends TableFunctionPanel
 	{
 		try
 		{
-			Tag tag = Utils.getTagFromAudioFile(entry.FilePath);
+			TagSession session = TagSession.open(entry.FilePath);
+			Tag tag = session.getTag();
 			tag.setField(FieldKey.TITLE, entry.NewTitle);
 			
-			Utils.saveTagToFile(entry.FilePath, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINE, "Successfully removed artist name from: " + tag.toString());
 		}
 		catch (TagException e) 
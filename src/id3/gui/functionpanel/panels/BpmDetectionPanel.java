@@ -2,9 +2,7 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.SimpleFunctionPanel;
-
-import java.util.Map;
-import java.util.Map.Entry;
+import id3.objects.TrackStore;
 
 public class BpmDetectionPanel extends SimpleFunctionPanel
 {
@@ -21,9 +19,9 @@ public class BpmDetectionPanel extends SimpleFunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		Functions.detectBPM(entry);
+		Functions.detectBPM(tracks, row);
 	}
 	
 }
@@ -5,12 +5,12 @@ import id3.gui.customui.FileBrowserPanel;
 import id3.gui.customui.InfoTextArea;
 import id3.gui.functionpanel.FunctionPanel;
 import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class BuildXmlPanel extends FunctionPanel
 {
@@ -51,16 +51,16 @@ public class BuildXmlPanel extends FunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		if(!checkForErrors())
 		{
-			Functions.buildLibraryFile(new File(getSelectedDirectory()));
+			Functions.buildLibraryFile(new File(getSelectedDirectory()), token);
 		}
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		// Do Nothing
 	}
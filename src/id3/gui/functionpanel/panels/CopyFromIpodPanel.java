@@ -5,13 +5,13 @@ import id3.gui.customui.FileBrowserPanel;
 import id3.gui.customui.InfoTextArea;
 import id3.gui.functionpanel.FunctionPanel;
 import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileSystemView;
 import java.awt.*;
 import java.io.File;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class CopyFromIpodPanel extends FunctionPanel
 {
@@ -103,13 +103,13 @@ public class CopyFromIpodPanel extends FunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
-		Functions.copyFromIpod(getIpodDriveLetter(), getSelectedDirectory(), isAlsoBuildLibraryXml());
+		Functions.copyFromIpod(getIpodDriveLetter(), getSelectedDirectory(), isAlsoBuildLibraryXml(), token);
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		// Do Notinh
 	}
@@ -6,13 +6,13 @@ import id3.gui.dialogs.ArtistRatingDialog;
 import id3.gui.functionpanel.FunctionPanel;
 import id3.main.Settings;
 import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
 import id3.utils.Utils;
 import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class CustomFieldsPanel extends FunctionPanel
 {
@@ -140,23 +140,23 @@ public class CustomFieldsPanel extends FunctionPanel
 	}
 
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		if(!checkForErrors())
 		{
 			if(isCalculateArtistRating())
 			{
-				Functions.calculateArtistRating(lib, getArtistRatingField(), Settings.useCustomRatings);
+				Functions.calculateArtistRating(lib, getArtistRatingField(), Settings.useCustomRatings, token);
 			}
 			if(isCalculateAlbumRating())
 			{
-				Functions.calculateAlbumRating(lib, getAlbumRatingField(), getMinimumPercentSongsRated());
+				Functions.calculateAlbumRating(lib, getAlbumRatingField(), getMinimumPercentSongsRated(), token);
 			}
 		}
 	}
 	
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		//Do Nothing
 	}
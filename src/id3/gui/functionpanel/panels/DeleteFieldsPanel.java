@@ -2,12 +2,11 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.SimpleFunctionPanel;
+import id3.objects.TrackStore;
 import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class DeleteFieldsPanel extends SimpleFunctionPanel 
 {
@@ -26,6 +25,8 @@ public class DeleteFieldsPanel extends SimpleFunctionPanel
 	public DeleteFieldsPanel()
 	{
 		super(TEXT_INFO);
+		super.isThreadSafe = true;
+		super.isPipelineStage = true;
 		
 		chckDelArt = new JCheckBox("Delete Artwork");
 		chckDelArt.setFont(new Font("Verdana", Font.PLAIN, 12));
@@ -44,19 +45,19 @@ public class DeleteFieldsPanel extends SimpleFunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		if(chckDelArt.isSelected())
 		{
-			Functions.deleteField(entry, FieldKey.MEDIA); // Flag to delete artwork NOT media
+			Functions.deleteField(tracks, row, FieldKey.MEDIA); // Flag to delete artwork NOT media
 		}
 		if(chckDelLyrics.isSelected())
 		{
-			Functions.deleteField(entry, FieldKey.LYRICS);
+			Functions.deleteField(tracks, row, FieldKey.LYRICS);
 		}
 		if(chckDelRatings.isSelected())
 		{
-			Functions.deleteField(entry, FieldKey.RATING);
+			Functions.deleteField(tracks, row, FieldKey.RATING);
 		}
 	}
 	
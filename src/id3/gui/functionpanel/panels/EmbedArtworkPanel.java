@@ -2,9 +2,7 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.SimpleFunctionPanel;
-
-import java.util.Map;
-import java.util.Map.Entry;
+import id3.objects.TrackStore;
 
 public class EmbedArtworkPanel extends SimpleFunctionPanel
 {
@@ -20,12 +18,14 @@ public class EmbedArtworkPanel extends SimpleFunctionPanel
 	public EmbedArtworkPanel()
 	{
 		super(INFO_TEXT);
+		super.isThreadSafe = true;
+		super.isPipelineStage = true;
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		Functions.embedArtwork(entry);
+		Functions.embedArtwork(tracks, row);
 	}
 
 }
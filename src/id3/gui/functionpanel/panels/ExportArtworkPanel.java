@@ -4,12 +4,11 @@ import id3.functions.Functions;
 import id3.gui.customui.FileBrowserPanel;
 import id3.gui.customui.InfoTextArea;
 import id3.gui.functionpanel.FunctionPanel;
+import id3.objects.TrackStore;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class ExportArtworkPanel extends FunctionPanel
 {
@@ -61,9 +60,9 @@ public class ExportArtworkPanel extends FunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		Functions.exportArtwork(entry, getExportDirectory(), isSplitByArtist());
+		Functions.exportArtwork(tracks, row, getExportDirectory(), isSplitByArtist());
 	}
 
 	@Override
@@ -3,9 +3,13 @@ package id3.gui.functionpanel.panels;
 import id3.functions.Functions;
 import id3.gui.functionpanel.TableFunctionPanel;
 import id3.objects.Library;
+import id3.objects.TrackStore;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.models.FindAndReplaceModel;
+import id3.utils.CancellationToken;
+import id3.utils.TagSession;
+import id3.utils.TagWriteExecutor;
 import id3.utils.Utils;
 import org.jaudiotagger.tag.FieldDataInvalidException;
 import org.jaudiotagger.tag.FieldKey;
@@ -15,8 +19,6 @@ import org.jaudiotagger.tag.Tag;
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 
 public class FindAndReplacePanel extends TableFunctionPanel
@@ -77,18 +79,18 @@ public class FindAndReplacePanel extends TableFunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		ArrayList<TableEntry> tableEntries = new ArrayList<TableEntry>();
 		if(!checkForErrors())
 		{
-			tableEntries = Functions.findMatchingTextInTagFields(lib, getFindText(), getReplaceText());
+			tableEntries = Functions.findMatchingTextInTagFields(lib, getFindText(), getReplaceText(), token);
 		}
 		table.getModel().setTableEntries(tableEntries);
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		// Do Nothing
 		
@@ -97,13 +99,14 @@ public class FindAndReplacePanel extends TableFunctionPanel
 	@Override
 	protected void runCommit(TableEntry entry)
 	{
-		Tag tag = Utils.getTagFromAudioFile(entry.FilePath);
+		TagSession session = TagSession.open(entry.FilePath);
+		Tag tag = session.getTag();
 		FieldKey field = Utils.getFieldKeyFromString(entry.Status);
 		
 		try
 		{
 			tag.setField(field, entry.NewTitle);
-			Utils.saveTagToFile(entry.FilePath, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINER, "Successfully replaced text: " + tag.toString());
 		}
 		catch (KeyNotFoundException | FieldDataInvalidException e)
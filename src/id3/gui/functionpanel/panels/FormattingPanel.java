@@ -2,15 +2,15 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.customui.InfoTextArea;
+import id3.gui.customui.NumbersOnlyFilter;
 import id3.gui.functionpanel.FunctionPanel;
+import id3.objects.TrackStore;
 import id3.utils.Utils;
 import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import javax.swing.text.PlainDocument;
 import java.awt.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class FormattingPanel extends FunctionPanel
 {
@@ -44,6 +44,9 @@ public class FormattingPanel extends FunctionPanel
 	 */
 	public FormattingPanel()
 	{
+		super.isThreadSafe = true;
+		super.isPipelineStage = true;
+		
 		chckCapitalizeFields = new JCheckBox("Capitalize Fields");
 		chckCapitalizeFields.setToolTipText("Will capitalize the first letter of EVERY word for all string-type fields" +
 				" (excluding grouping, comments, and composer)");
@@ -104,7 +107,7 @@ public class FormattingPanel extends FunctionPanel
 		this.add(lblChars);
 		
 		PlainDocument doc = new PlainDocument();
-		Utils.setDocFormatNumbersOnly(doc);
+		doc.setDocumentFilter(new NumbersOnlyFilter());
 		
 		txtChars = new JTextField();
 		txtChars.setDocument(doc);
@@ -211,20 +214,20 @@ public class FormattingPanel extends FunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		if(isCapitalizeFields())
 		{
-			Functions.formatFields(entry, isUseProperCapitalization(), isIncludeCommentsField(),
+			Functions.formatFields(tracks, row, isUseProperCapitalization(), isIncludeCommentsField(),
 					isIncludeComposerField(), isIncludeGroupingField());
 		}
 		if(isRemoveLeadingTrailingWhiteSpace())
 		{
-			Functions.removeLeadingTrailingSpaces(entry);
+			Functions.removeLeadingTrailingSpaces(tracks, row);
 		}
 		if(isRemoveNSpaces())
 		{
-			Functions.removeLeadingTrailingChars(entry, getEditField(), getTextRemovalType(), getNCharCount());
+			Functions.removeLeadingTrailingChars(tracks, row, getEditField(), getTextRemovalType(), getNCharCount());
 		}
 	}
 
@@ -2,9 +2,8 @@ package id3.gui.functionpanel.panels;
 
 import id3.gui.functionpanel.SimpleFunctionPanel;
 import id3.objects.Library;
-
-import java.util.Map;
-import java.util.Map.Entry;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
 
 public class GetArtworkPanel extends SimpleFunctionPanel // TODO
 {
@@ -21,13 +20,13 @@ public class GetArtworkPanel extends SimpleFunctionPanel // TODO
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		// Open FindArt
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		// Do Nothing
 	}
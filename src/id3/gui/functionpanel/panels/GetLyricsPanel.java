@@ -2,13 +2,12 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.TableFunctionPanel;
+import id3.objects.TrackStore;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.models.GetLyricsModel;
 
 import javax.swing.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class GetLyricsPanel extends TableFunctionPanel // TODO
 {
@@ -53,9 +52,9 @@ public class GetLyricsPanel extends TableFunctionPanel // TODO
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		TableEntry tableEntry = Functions.getSongsByMinimumRating(entry, getMinimumRating());
+		TableEntry tableEntry = Functions.getSongsByMinimumRating(tracks, row, getMinimumRating());
 		if(tableEntry != null)
 		{
 			tableEntries.add(tableEntry);
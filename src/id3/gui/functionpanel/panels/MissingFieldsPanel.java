@@ -8,13 +8,14 @@ import id3.main.GUI;
 import id3.objects.Album;
 import id3.objects.Artist;
 import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
+import id3.utils.TagWriteExecutor;
 import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class MissingFieldsPanel extends FunctionPanel
 {
@@ -221,29 +222,46 @@ public class MissingFieldsPanel extends FunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		if(!checkForErrors())
 		{
-			ProgressDialog progress = new ProgressDialog(lib.getLibraryArtists().size());
+			if(isFixMissing() && isFixMissingArtwork())
+			{
+				lib.locateArtwork();
+			}
+			ProgressDialog progress = ProgressDialog.open(() -> new ProgressDialog(lib.getLibraryArtists().size(), token));
 					
-			int progressCounter = 0;
-			for(Artist artist : lib.getLibraryArtists())
+			CancellationToken previous = TagWriteExecutor.bind(token);
+			try
 			{
-				for(Album album : artist.getAlbums())
+				int progressCounter = 0;
+				for(Artist artist : lib.getLibraryArtists())
 				{
-					if(isFixMissing())
-					{
-						Functions.fixMissing(album, getFixMissingFieldKeys());
-					}
-					if(isCalculateTrackCount())
+					for(Album album : artist.getAlbums())
 					{
-						Functions.calculateTrackCount(album, isIncludeNonEmptyTrackCounts());
-					}
+						if(token.isCancelled())
+						{
+							break;
+						}
+						if(isFixMissing())
+						{
+							Functions.fixMissing(lib.getTracks(), album, getFixMissingFieldKeys());
+						}
+						if(isCalculateTrackCount())
+						{
+							Functions.calculateTrackCount(lib.getTracks(), album, isIncludeNonEmptyTrackCounts());
+						}
 							
+					}
+					progress.update(progressCounter++);
 				}
-				progress.update(progressCounter++);
 			}
+			finally
+			{
+				TagWriteExecutor.bind(previous);
+			}
+			TagWriteExecutor.awaitAll();
 			progress.finish();
 		}
 		else
@@ -253,7 +271,7 @@ public class MissingFieldsPanel extends FunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		//Do Nothing
 	}
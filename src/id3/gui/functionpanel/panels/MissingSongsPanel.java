@@ -3,11 +3,11 @@ package id3.gui.functionpanel.panels;
 import id3.functions.Functions;
 import id3.gui.functionpanel.SimpleFunctionPanel;
 import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class MissingSongsPanel extends SimpleFunctionPanel
 {
@@ -37,17 +37,17 @@ public class MissingSongsPanel extends SimpleFunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
 		if(!checkForErrors())
 		{
-			Functions.findMissingSongs(lib, isAttemptDiscovery());
+			Functions.findMissingSongs(lib, isAttemptDiscovery(), token);
 		}
 	}
 	
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		// Do Nothing
 	}
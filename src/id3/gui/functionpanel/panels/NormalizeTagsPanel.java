@@ -0,0 +1,141 @@
+package id3.gui.functionpanel.panels;
+
+import id3.functions.Functions;
+import id3.gui.customui.InfoTextArea;
+import id3.gui.customui.NumbersOnlyFilter;
+import id3.gui.dialogs.ProgressDialog;
+import id3.gui.functionpanel.FunctionPanel;
+import id3.gui.functionpanel.TrackExecutor;
+import id3.gui.functionpanel.TrackResults;
+import id3.main.GUI;
+import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.utils.CancellationToken;
+
+import javax.swing.*;
+import javax.swing.text.PlainDocument;
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class NormalizeTagsPanel extends FunctionPanel
+{
+	private static final String INFO_TEXT = "One-time pass that rewrites every mp3's tag\r\n"
+			+ "as an ID3v2.3 or ID3v2.4 tag, with padding\r\nreserved after it.\r\n\r\n"
+			+ "Later edits that fit in the padding are\r\nwritten in place, without rewriting the\r\nwhole file.\r\n\r\n"
+			+ "Files that already have the version and\r\nenough padding are skipped.";
+
+	private static final int DEFAULT_PADDING_KB = 4;
+
+	private JRadioButton rdbtnV23;
+	private JRadioButton rdbtnV24;
+	private JTextField txtPadding;
+
+	/** Creates a new {@code NormalizeTagsPanel}
+	 * @see FunctionPanel
+	 */
+	public NormalizeTagsPanel()
+	{
+		JLabel lblVersion = new JLabel("Tag Version:");
+		lblVersion.setBounds(16, 21, 96, 14);
+		this.add(lblVersion);
+
+		rdbtnV23 = new JRadioButton("ID3v2.3");
+		rdbtnV23.setToolTipText("Most compatible format");
+		rdbtnV23.setSelected(true);
+		rdbtnV23.setBounds(26, 41, 90, 23);
+		this.add(rdbtnV23);
+
+		rdbtnV24 = new JRadioButton("ID3v2.4");
+		rdbtnV24.setBounds(118, 41, 90, 23);
+		this.add(rdbtnV24);
+
+		ButtonGroup bg = new ButtonGroup();
+		bg.add(rdbtnV23);
+		bg.add(rdbtnV24);
+
+		JLabel lblPadding = new JLabel("Padding (KB):");
+		lblPadding.setBounds(16, 77, 96, 14);
+		this.add(lblPadding);
+
+		PlainDocument doc = new PlainDocument();
+		doc.setDocumentFilter(new NumbersOnlyFilter());
+
+		txtPadding = new JTextField();
+		txtPadding.setDocument(doc);
+		txtPadding.setText(String.valueOf(DEFAULT_PADDING_KB));
+		txtPadding.setToolTipText("Space reserved after each tag for later edits");
+		txtPadding.setBounds(118, 74, 37, 20);
+		this.add(txtPadding);
+		txtPadding.setColumns(10);
+
+		InfoTextArea infoTextArea = new InfoTextArea(INFO_TEXT, new Rectangle(230, 18, 225, 265));
+		this.add(infoTextArea);
+	}
+
+	/** @return  ID3v2 major version to normalize tags to, 3 or 4 */
+	public int getVersion()
+	{
+		return rdbtnV24.isSelected() ? 4 : 3;
+	}
+
+	/** @return  Padding to reserve after each tag, in bytes */
+	public int getPadding()
+	{
+		return Integer.parseInt(txtPadding.getText()) * 1024;
+	}
+
+	/** Normalizes every track's tag, as set by the execution mode
+	 * (see {@link TrackExecutor}), then reports how many files were
+	 * rewritten, skipped or failed, and the in place edit headroom
+	 * that was created. Once cancelled, tracks that haven't started
+	 * are skipped.
+	 */
+	@Override
+	public void initFunction(Library lib, CancellationToken token)
+	{
+		if(!checkForErrors())
+		{
+			TrackStore tracks = lib.getTracks();
+			int version = getVersion();
+			int padding = getPadding();
+			ProgressDialog progress = ProgressDialog.open(() -> new ProgressDialog(tracks.size(), token));
+
+			AtomicInteger normalized = new AtomicInteger();
+			LongAdder headroom = new LongAdder();
+			TrackResults results = TrackExecutor.run(tracks.size(), tracks::getFilePath, row ->
+			{
+				int added = Functions.normalizeTag(tracks.getFilePath(row), version, padding);
+				if(added >= 0)
+				{
+					normalized.incrementAndGet();
+					headroom.add(added);
+				}
+			}, true, progress, token);
+			progress.finish();
+
+			int failed = results.getFailures().size();
+			JOptionPane.showMessageDialog(GUI.frame, normalized.get() + " tags normalized, "
+					+ (results.getSucceeded() - normalized.get()) + " skipped, " + failed + " failed\r\n"
+					+ headroom.sum() / 1024 + " KB of in place edit headroom created",
+					"Normalize Tags", JOptionPane.INFORMATION_MESSAGE);
+			showFailures(results);
+		}
+		else
+		{
+			JOptionPane.showMessageDialog(GUI.frame, "Padding must be a number of KB", "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	@Override
+	public void runFunction(TrackStore tracks, int row)
+	{
+		//Do Nothing
+	}
+
+	@Override
+	public boolean checkForErrors()
+	{
+		return txtPadding.getText().isEmpty() || txtPadding.getText().length() > 4;
+	}
+}
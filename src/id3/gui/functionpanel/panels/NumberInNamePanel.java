@@ -2,22 +2,16 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.TableFunctionPanel;
+import id3.objects.TrackStore;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.models.NumberInNameModel;
-import id3.utils.Utils;
-import org.jaudiotagger.audio.AudioFileIO;
-import org.jaudiotagger.audio.exceptions.CannotReadException;
-import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
-import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
+import id3.utils.TagSession;
+import id3.utils.TagWriteExecutor;
 import org.jaudiotagger.tag.FieldKey;
 import org.jaudiotagger.tag.Tag;
 import org.jaudiotagger.tag.TagException;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 
 public class NumberInNamePanel extends TableFunctionPanel
@@ -35,9 +29,9 @@ public class NumberInNamePanel extends TableFunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		TableEntry tableEntry = Functions.removeTrackNumberFromTitles(entry);
+		TableEntry tableEntry = Functions.removeTrackNumberFromTitles(tracks, row);
 		if(tableEntry != null)
 		{
 			tableEntries.add(tableEntry);
@@ -50,15 +44,15 @@ public class NumberInNamePanel extends TableFunctionPanel
 	{
 		try
 		{
-			Tag tag = AudioFileIO.read(new File(entry.FilePath)).getTag();
+			TagSession session = TagSession.open(entry.FilePath);
+			Tag tag = session.getTag();
 			tag.setField(FieldKey.TITLE, entry.NewTitle);
 			tag.setField(FieldKey.TRACK, entry.TrackNumber);
 			
-			Utils.saveTagToFile(entry.FilePath, tag);
+			TagWriteExecutor.submit(session);
 			LOG.log(Level.FINE, "Track number removed from name: " + tag.toString());
 		}
-		catch (CannotReadException | IOException | TagException
-				| ReadOnlyFileException| InvalidAudioFrameException e)
+		catch (TagException e)
 		{
 			LOG.log(Level.WARNING, "Failed to write title w/o track num to tag: " + entry.FilePath);
 		}
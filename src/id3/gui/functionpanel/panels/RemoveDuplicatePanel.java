@@ -2,13 +2,12 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.TableFunctionPanel;
+import id3.objects.TrackStore;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.models.FileOpModel;
 
 import java.io.File;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 
 public class RemoveDuplicatePanel extends TableFunctionPanel
@@ -28,10 +27,10 @@ public class RemoveDuplicatePanel extends TableFunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		TableEntry tableEntry;
-		tableEntry = Functions.deleteDuplicateFiles(entry);
+		tableEntry = Functions.deleteDuplicateFiles(tracks, row);
 		if(tableEntry != null)
 		{
 			tableEntries.add(tableEntry);
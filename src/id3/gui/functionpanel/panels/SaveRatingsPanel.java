@@ -2,9 +2,7 @@ package id3.gui.functionpanel.panels;
 
 import id3.functions.Functions;
 import id3.gui.functionpanel.SimpleFunctionPanel;
-
-import java.util.Map;
-import java.util.Map.Entry;
+import id3.objects.TrackStore;
 
 public class SaveRatingsPanel extends SimpleFunctionPanel
 {
@@ -18,12 +16,14 @@ public class SaveRatingsPanel extends SimpleFunctionPanel
 	public SaveRatingsPanel()
 	{
 		super(INFO_TEXT);
+		super.isThreadSafe = true;
+		super.isPipelineStage = true;
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
-		Functions.saveRatings(entry);
+		Functions.saveRatings(tracks, row);
 	}
 
 }
@@ -3,13 +3,12 @@ package id3.gui.functionpanel.panels;
 import id3.functions.Functions;
 import id3.gui.customui.InfoTextArea;
 import id3.gui.functionpanel.FunctionPanel;
+import id3.objects.TrackStore;
 import id3.utils.Utils;
 import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class SwapFieldsPanel extends FunctionPanel
 {
@@ -30,6 +29,9 @@ public class SwapFieldsPanel extends FunctionPanel
 	 */
 	public SwapFieldsPanel()
 	{
+		super.isThreadSafe = true;
+		super.isPipelineStage = true;
+		
 		String[] FIELDS = Utils.getFieldDisplay();
 		
 		JLabel lblFieldOne = new JLabel("Field One");
@@ -185,15 +187,15 @@ public class SwapFieldsPanel extends FunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		if(isCopyFields())
 		{
-			Functions.copyTags(entry, getCopyField(), getReplacementField());
+			Functions.copyTags(tracks, row, getCopyField(), getReplacementField());
 		}
 		else if(isSwapFields())
 		{
-			Functions.swapTags(entry, getFieldOneField(), getFieldTwoField());
+			Functions.swapTags(tracks, row, getFieldOneField(), getFieldTwoField());
 		}
 	}
 
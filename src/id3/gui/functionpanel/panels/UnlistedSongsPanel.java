@@ -4,16 +4,16 @@ import id3.functions.Functions;
 import id3.gui.functionpanel.TableFunctionPanel;
 import id3.main.Settings;
 import id3.objects.Library;
+import id3.objects.TrackStore;
 import id3.tables.ID3Table;
 import id3.tables.TableEntry;
 import id3.tables.abstractid3model.models.FileOpModel;
+import id3.utils.CancellationToken;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 
 public class UnlistedSongsPanel extends TableFunctionPanel
@@ -47,9 +47,9 @@ public class UnlistedSongsPanel extends TableFunctionPanel
 	}
 	
 	@Override
-	public void initFunction(Library lib)
+	public void initFunction(Library lib, CancellationToken token)
 	{
-		ArrayList<TableEntry> tableEntries = Functions.findUnlistedSongs(lib, isIgnoreImageFiles());
+		ArrayList<TableEntry> tableEntries = Functions.findUnlistedSongs(lib, isIgnoreImageFiles(), token);
 		table.getModel().setTableEntries(tableEntries);
 	}
 
@@ -71,7 +71,7 @@ public class UnlistedSongsPanel extends TableFunctionPanel
 	}
 
 	@Override
-	public void runFunction(Entry<String, Map> entry)
+	public void runFunction(TrackStore tracks, int row)
 	{
 		// Do Nothing
 	}
@@ -1,17 +1,29 @@
 package id3.main;
 
+import id3.functions.Functions;
+import id3.functions.Pipeline;
 import id3.gui.dialogs.ArtistRatingDialog;
 import id3.gui.dialogs.HalfStarsDialog;
 import id3.gui.dialogs.HelpDialog;
 import id3.gui.dialogs.LicenseDialog;
 import id3.gui.functionpanel.FunctionPanel;
+import id3.gui.functionpanel.TrackExecutor;
 import id3.gui.functionpanel.panels.*;
 import id3.objects.Library;
+import id3.utils.CancellationToken;
+import id3.utils.TagJournal;
+import id3.utils.TagJournal.Operation;
 
 import javax.swing.*;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.io.File;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.logging.Logger;
 
 /** Handles all non-panel specific UI logic,
@@ -32,6 +44,9 @@ public class GUI
 	/** {@link FunctionPanel} on currently selected Tab */
 	private FunctionPanel selectedPanel;
 	
+	/** Panels queued into a {@link Pipeline}, in order */
+	private final ArrayList<FunctionPanel> pipelinePanels = new ArrayList<>();
+	
 	private Library lib;
 	
 	public GUI()
@@ -70,17 +85,22 @@ public class GUI
 					{
                         if(selectedPanel.isRequiresItunesLibraryFile())
                         {
-                            if(isNewLibraryFile())
-                            {
-                                lib = new Library(fileLibrary);
-                            }
+                            loadLibrary(fileLibrary);
 
                             if(selectedPanel.isRequiresArtistAlbumObjects())
                             {
                                 lib.createArtistObjects();
                             }
                         }
-                        selectedPanel.initFunction(lib);
+                        TagJournal.begin(selectedPanel.getName());
+                        try
+                        {
+                            selectedPanel.initFunction(lib, new CancellationToken());
+                        }
+                        finally
+                        {
+                            TagJournal.end();
+                        }
                     });
                     thread.setName("Function Process");
                     thread.start();
@@ -97,6 +117,11 @@ public class GUI
 		JMenu menuFile = new JMenu("File");
 		menuBar.add(menuFile);
 		
+		JMenuItem menuitemUndo = new JMenuItem("Undo Last Operation");
+		menuitemUndo.setToolTipText("Restore the tag fields changed by the last operation");
+		menuitemUndo.addActionListener(e -> undoLastOperation());
+		menuFile.add(menuitemUndo);
+		
 		JMenuItem menuitemExit = new JMenuItem("Exit");
 		menuitemExit.addActionListener(e -> System.exit(0));
 		menuFile.add(menuitemExit);
@@ -112,6 +137,104 @@ public class GUI
 		mnitmHalfStars.addActionListener(e -> new HalfStarsDialog());
 		menuSettings.add(mnitmHalfStars);
 		
+		JCheckBoxMenuItem mnitmChangedTracksOnly = new JCheckBoxMenuItem("Process Changed Tracks Only");
+		mnitmChangedTracksOnly.setToolTipText("Only process tracks added or modified since the library file was last read");
+		mnitmChangedTracksOnly.addActionListener(e ->
+		{
+			Settings.isChangedTracksOnly = mnitmChangedTracksOnly.isSelected();
+			Settings.save();
+		});
+		
+		JCheckBoxMenuItem mnitmReconcileTags = new JCheckBoxMenuItem("Reconcile Tags With Library");
+		mnitmReconcileTags.setToolTipText("Copy the library's fields to every tag that's edited");
+		mnitmReconcileTags.addActionListener(e ->
+		{
+			Settings.isReconcileTags = mnitmReconcileTags.isSelected();
+			Settings.save();
+		});
+		JMenu menuExecutionMode = new JMenu("Execution Mode");
+		menuExecutionMode.setToolTipText("How the tracks of functions that support it are run");
+		ButtonGroup bgExecutionMode = new ButtonGroup();
+		EnumMap<TrackExecutor.Mode, JRadioButtonMenuItem> modeItems = new EnumMap<>(TrackExecutor.Mode.class);
+		for(TrackExecutor.Mode mode : TrackExecutor.Mode.values())
+		{
+			JRadioButtonMenuItem mnitmMode = new JRadioButtonMenuItem(mode.toString());
+			if(mode == TrackExecutor.Mode.VirtualThreads)
+			{
+				mnitmMode.setText(mode + " (JDK 21+)");
+				mnitmMode.setToolTipText("Runs every track on its own virtual thread, needs Java 21 or later");
+				mnitmMode.setEnabled(TrackExecutor.isVirtualThreadsAvailable());
+			}
+			mnitmMode.addActionListener(e ->
+			{
+				Settings.executionMode = mode;
+				Settings.save();
+			});
+			bgExecutionMode.add(mnitmMode);
+			menuExecutionMode.add(mnitmMode);
+			modeItems.put(mode, mnitmMode);
+		}
+		
+		menuSettings.addMenuListener(new MenuListener()
+		{
+			@Override
+			public void menuSelected(MenuEvent e)
+			{
+				mnitmChangedTracksOnly.setSelected(Settings.isChangedTracksOnly);
+				mnitmReconcileTags.setSelected(Settings.isReconcileTags);
+				modeItems.get(Settings.executionMode).setSelected(true);
+			}
+			
+			@Override
+			public void menuDeselected(MenuEvent e) {}
+			
+			@Override
+			public void menuCanceled(MenuEvent e) {}
+		});
+		menuSettings.add(mnitmChangedTracksOnly);
+		menuSettings.add(mnitmReconcileTags);
+		menuSettings.add(menuExecutionMode);
+		
+		JMenu menuPipeline = new JMenu("Pipeline");
+		menuPipeline.setToolTipText("Run several panels in a single pass, writing each file once");
+		menuBar.add(menuPipeline);
+		
+		JMenuItem mnitmQueued = new JMenuItem();
+		mnitmQueued.setEnabled(false);
+		
+		JMenuItem mnitmAddPanel = new JMenuItem("Add Current Panel");
+		mnitmAddPanel.setToolTipText("Queue the current panel, with its current options, after the queued panels");
+		mnitmAddPanel.addActionListener(e -> addToPipeline(selectedPanel));
+		
+		JMenuItem mnitmRunPipeline = new JMenuItem("Run Pipeline");
+		mnitmRunPipeline.addActionListener(e -> runPipeline());
+		
+		JMenuItem mnitmClearPipeline = new JMenuItem("Clear Pipeline");
+		mnitmClearPipeline.addActionListener(e -> pipelinePanels.clear());
+		
+		menuPipeline.addMenuListener(new MenuListener()
+		{
+			@Override
+			public void menuSelected(MenuEvent e)
+			{
+				mnitmQueued.setText(pipelinePanels.isEmpty() ? "No panels queued" : "Queued: " + getPipeline().getName());
+				mnitmAddPanel.setEnabled(selectedPanel != null && selectedPanel.isPipelineStage());
+				mnitmRunPipeline.setEnabled(!pipelinePanels.isEmpty());
+				mnitmClearPipeline.setEnabled(!pipelinePanels.isEmpty());
+			}
+			
+			@Override
+			public void menuDeselected(MenuEvent e) {}
+			
+			@Override
+			public void menuCanceled(MenuEvent e) {}
+		});
+		menuPipeline.add(mnitmQueued);
+		menuPipeline.addSeparator();
+		menuPipeline.add(mnitmAddPanel);
+		menuPipeline.add(mnitmRunPipeline);
+		menuPipeline.add(mnitmClearPipeline);
+		
 		JMenu menuAbout = new JMenu("About");
 		menuBar.add(menuAbout);
 		
@@ -158,6 +281,7 @@ public class GUI
 		tabs.addTab("Track# In Name", new NumberInNamePanel());
 		tabs.addTab("Artist In Name", new ArtistInNamePanel());
 		tabs.addTab("Save Ratings", new SaveRatingsPanel());
+		tabs.addTab("Normalize Tags", new NormalizeTagsPanel());
 		tabs.addTab("Build Library Xml", new BuildXmlPanel());
 		tabs.addTab("Copy From iPod", new CopyFromIpodPanel());
 		tabs.addTab("Export Artwork", new ExportArtworkPanel());
@@ -165,6 +289,10 @@ public class GUI
 		tabs.addTab("Remove Duplicates", new RemoveDuplicatePanel());
 		tabs.addTab("Missing Songs", new MissingSongsPanel());
 		tabs.addTab("Unlisted Files", new UnlistedSongsPanel());
+		for(int i = 0; i < tabs.getTabCount(); i++)
+		{
+			tabs.getComponentAt(i).setName(tabs.getTitleAt(i));	// Names journal operations
+		}
 		
 		tabs.addChangeListener(e ->
 		{
@@ -199,6 +327,143 @@ public class GUI
 		frame.getContentPane().add(tabs);
 	}
 	
+	/** Offers to roll back, or complete, an operation that was interrupted
+	 * the last time iD3 ran, see {@link TagJournal}.
+	 */
+	public static void recoverInterruptedOperation()
+	{
+		Operation op = TagJournal.getInterruptedOperation();
+		if(op == null)
+		{
+			return;
+		}
+		
+		String[] options = {"Roll Back", "Complete", "Keep As Is"};
+		int choice = JOptionPane.showOptionDialog(frame, "\"" + op.getName() + "\" was interrupted on "
+				+ DateFormat.getDateTimeInstance().format(new Date(op.getTime())) + ", after editing "
+				+ op.getEdits().size() + " fields.\r\nRoll back its changes, or complete its remaining edits?",
+				"Interrupted Operation", JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+		if(choice == 2)
+		{
+			TagJournal.markFinished(op);
+		}
+		else if(choice != JOptionPane.CLOSED_OPTION)
+		{
+			runRestore(op, choice == 0);
+		}
+	}
+	
+	/** Asks to undo the last journaled operation, see {@link TagJournal} */
+	private void undoLastOperation()
+	{
+		Operation op = TagJournal.getLastOperation();
+		if(op == null)
+		{
+			JOptionPane.showMessageDialog(frame, "Nothing to undo", "Undo", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		
+		int choice = JOptionPane.showConfirmDialog(frame, "Undo \"" + op.getName() + "\" from "
+				+ DateFormat.getDateTimeInstance().format(new Date(op.getTime())) + "?\r\n"
+				+ op.getEdits().size() + " fields will be restored.", "Undo", JOptionPane.YES_NO_OPTION);
+		if(choice == JOptionPane.YES_OPTION)
+		{
+			runRestore(op, true);
+		}
+	}
+	
+	/** Queues a panel into the pipeline, see {@link FunctionPanel#isPipelineStage()}.
+	 * The panel's options are read when the pipeline runs.
+	 * @param panel  Panel to run after the queued panels.
+	 */
+	private void addToPipeline(FunctionPanel panel)
+	{
+		if(pipelinePanels.contains(panel))
+		{
+			JOptionPane.showMessageDialog(frame, panel.getName() + " is already queued", "Error", JOptionPane.ERROR_MESSAGE);
+		}
+		else if(panel.checkForErrors())
+		{
+			JOptionPane.showMessageDialog(GUI.frame, "Panel has errors", "Error", JOptionPane.ERROR_MESSAGE);
+		}
+		else
+		{
+			pipelinePanels.add(panel);
+		}
+	}
+	
+	/** @return  The queued panels' functions, in order */
+	private Pipeline getPipeline()
+	{
+		Pipeline pipeline = new Pipeline();
+		for(FunctionPanel panel : pipelinePanels)
+		{
+			pipeline.add(panel.getName(), panel::runFunction, panel.isThreadSafe());
+		}
+		return pipeline;
+	}
+	
+	/** Runs the queued panels in a single pass over the library,
+	 * see {@link FunctionPanel#initPipeline}.
+	 */
+	private void runPipeline()
+	{
+		String fileLibrary = getLibraryFile();
+		if(fileLibrary == null)
+		{
+			JOptionPane.showMessageDialog(GUI.frame, "Library file doesn't exist", "Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		for(FunctionPanel panel : pipelinePanels)
+		{
+			if(panel.checkForErrors())
+			{
+				JOptionPane.showMessageDialog(GUI.frame, panel.getName() + " has errors", "Error", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+		}
+		
+		Pipeline pipeline = getPipeline();
+		Thread thread = new Thread(() ->
+		{
+			loadLibrary(fileLibrary);
+			TagJournal.begin("Pipeline: " + pipeline.getName());
+			try
+			{
+				FunctionPanel.initPipeline(lib, pipeline, new CancellationToken());
+			}
+			finally
+			{
+				TagJournal.end();
+			}
+		});
+		thread.setName("Function Process");
+		thread.start();
+	}
+	
+	/** Reads the library file, or updates the library
+	 * if the file changed since it was read.
+	 * @param fileLibrary  iTunes library file
+	 */
+	private void loadLibrary(String fileLibrary)
+	{
+		if(isNewLibraryFile())
+		{
+			lib = new Library(fileLibrary);
+		}
+		else if(lib.isLibraryFileChanged())
+		{
+			lib.update();
+		}
+	}
+	
+	private static void runRestore(Operation op, boolean isRollback)
+	{
+		Thread thread = new Thread(() -> Functions.restoreOperation(op, isRollback, new CancellationToken()));
+		thread.setName("Function Process");
+		thread.start();
+	}
+	
 	/** Locks the {@literal GUI}, preventing any additional input. */
 	public static void lock()
 	{
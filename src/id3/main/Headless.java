@@ -0,0 +1,764 @@
+package id3.main;
+
+import id3.functions.Functions;
+import id3.functions.Pipeline;
+import id3.functions.Pipeline.Stage;
+import id3.gui.functionpanel.TrackExecutor;
+import id3.gui.functionpanel.TrackResults;
+import id3.gui.functionpanel.TrackResults.Failure;
+import id3.objects.Library;
+import id3.objects.TrackStore;
+import id3.tables.TableEntry;
+import id3.utils.CancellationToken;
+import id3.utils.ChannelProgress;
+import id3.utils.Frontend;
+import id3.utils.Progress;
+import id3.utils.ProgressChannel;
+import id3.utils.TagJournal;
+import id3.utils.TagJournal.Operation;
+import id3.utils.TagWriter;
+import id3.utils.Utils;
+import org.jaudiotagger.tag.FieldKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Headless entry point, runs a function, or a pipeline of functions,
+ * without the GUI, e.g. nightly on a server.
+ * <pre>
+ * java -cp "iD3.jar:lib/*" id3.main.Headless &lt;command&gt; [--library &lt;Library.xml&gt;] [options]
+ * java -cp "iD3.jar:lib/*" id3.main.Headless pipeline --library &lt;Library.xml&gt;
+ *         --stages "format --capitalize --trim; save-ratings; delete-fields --lyrics"
+ * </pre>
+ * Functions run through the same {@link Functions} code as the GUI's
+ * panels, see {@link Command} for the commands and their options.
+ * The stages of a pipeline write each file once, see {@link Pipeline}.
+ * Tag edits are journaled, so {@code undo} or the GUI can undo them.
+ * <p>
+ * Progress, errors, failed tracks and a summary are printed to standard
+ * output as JSON lines, one object per line, with an {@code "event"} key:
+ * <pre>
+ * {"event":"progress","phase":"Format","done":1200,"total":5000,"itemsPerSecond":850,...}
+ * {"event":"failure","path":"...","error":"..."}
+ * {"event":"summary","command":"format","succeeded":4998,"failed":2,...}
+ * </pre>
+ * Logging goes to standard error. The exit code is 0 on success, 1 if
+ * any track failed or an error was reported, and 2 on bad arguments.
+ * Interrupting the process cancels the function: the files being written
+ * are finished, see {@link CancellationToken}.
+ * <p>
+ * No AWT component is created and no Swing class is loaded, so this runs
+ * on machines without a display.
+ */
+public final class Headless
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** How often progress is printed */
+	private static final long PROGRESS_MILLIS 	= 1000;
+
+	/** How long an interrupted run has to finish the files being written */
+	private static final long SHUTDOWN_MILLIS 	= 60000;
+
+	/** Commands, by name on the command line */
+	enum Command
+	{
+		/** {@code [--capitalize [--proper-caps] [--comments] [--composer] [--grouping]] [--trim]} */
+		Format("format"),
+		/** Saves iTunes ratings to the tags */
+		SaveRatings("save-ratings"),
+		/** {@code [--artwork] [--lyrics] [--ratings]} */
+		DeleteFields("delete-fields"),
+		/** Embeds the album's artwork file */
+		EmbedArtwork("embed-artwork"),
+		/** {@code --dir <directory> [--split-by-artist]} */
+		ExportArtwork("export-artwork"),
+		/** {@code --fields <field>,<field>} */
+		SwapFields("swap-fields"),
+		/** {@code --from <field> --to <field>} */
+		CopyFields("copy-fields"),
+		/** {@code [--version 3|4] [--padding-kb <kb>]} */
+		Normalize("normalize"),
+		/** {@code --field <field>} */
+		ArtistRating("artist-rating"),
+		/** {@code --field <field> [--min-percent <percent>]} */
+		AlbumRating("album-rating"),
+		/** {@code [--discovery]}, writes Missing Tracks.csv */
+		MissingSongs("missing-songs"),
+		/** {@code [--ignore-images]}, prints an {@code "unlisted"} event per file */
+		UnlistedFiles("unlisted-files"),
+		/** {@code --dir <directory>}, writes a new library xml file. Doesn't need a library */
+		BuildXml("build-xml"),
+		/** Undoes the last journaled operation. Doesn't need a library */
+		Undo("undo"),
+		/** {@code --stages "<stage>; <stage>..."} or {@code --file <file>}, one stage per line.
+		 * Each stage is a command and its options, see {@link Command#isPipelineStage()}.
+		 */
+		Pipeline("pipeline");
+
+		private final String name;
+
+		Command(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/** @return  True if the command runs for every track, see {@link TrackExecutor#runLibrary} */
+		public boolean isPerTrack()
+		{
+			switch(this)
+			{
+				case Format :
+				case SaveRatings :
+				case DeleteFields :
+				case EmbedArtwork :
+				case ExportArtwork :
+				case SwapFields :
+				case CopyFields :
+				case Normalize :
+					return true;
+				default :
+					return false;
+			}
+		}
+
+		/** @return  True if the command can be a stage of a {@link id3.functions.Pipeline}, i.e.
+		 * it only edits the track's own tag. {@code normalize} rewrites the whole tag and
+		 * {@code export-artwork} reads the tag from the file, so they run on their own.
+		 */
+		public boolean isPipelineStage()
+		{
+			return isPerTrack() && this != Normalize && this != ExportArtwork;
+		}
+
+		static Command forName(String name)
+		{
+			for(Command command : values())
+			{
+				if(command.name.equals(name))
+				{
+					return command;
+				}
+			}
+			throw new IllegalArgumentException("Unknown command: " + name);
+		}
+	}
+
+	/** Prints progress and messages as JSON lines */
+	private static class ConsoleFrontend extends Frontend
+	{
+		private final CopyOnWriteArrayList<ChannelProgress> 	open = new CopyOnWriteArrayList<>();
+		private volatile int 									errors;
+
+		private ConsoleFrontend()
+		{
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(task ->
+			{
+				Thread thread = new Thread(task, "Progress Printer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sampler.scheduleAtFixedRate(this::printProgress, PROGRESS_MILLIS, PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public Progress openProgress(String message, CancellationToken token)
+		{
+			ChannelProgress progress = new ChannelProgress(message);
+			open.add(progress);
+			return progress;
+		}
+
+		/** Prints every open progress, and a last time once it's finished */
+		private void printProgress()
+		{
+			for(ChannelProgress progress : open)
+			{
+				if(progress.isFinished())
+				{
+					open.remove(progress);
+				}
+				ProgressChannel channel = progress.getChannel();
+				String phase = channel.getName() != null ? channel.getName() : progress.getMessage();
+				print(json("event", "progress", "phase", phase, "done", channel.getDone(), "total", channel.getTotal(),
+						"itemsPerSecond", channel.getItemsPerSecond(), "bytesPerSecond", channel.getBytesPerSecond(),
+						"etaMillis", channel.getEtaMillis(), "finished", progress.isFinished()));
+			}
+		}
+
+		@Override
+		public void showError(String message)
+		{
+			errors++;
+			print(json("event", "error", "message", message));
+		}
+
+		@Override
+		public void showMessage(String title, String message)
+		{
+			print(json("event", "message", "title", title, "message", message));
+		}
+	}
+
+	private Headless() {}
+
+	public static void main(String[] args)
+	{
+		LOG.setLevel(Level.WARNING);
+
+		Command command;
+		HashMap<String, String> options;
+		try
+		{
+			if(args.length == 0)
+			{
+				throw new IllegalArgumentException("No command");
+			}
+			command = Command.forName(args[0]);
+			options = parseOptions(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			printUsage(e.getMessage());
+			System.exit(2);
+			return;
+		}
+
+		ConsoleFrontend frontend = new ConsoleFrontend();
+		Frontend.set(frontend);
+		Settings.load();
+		TagJournal.compact();
+
+		Operation interrupted = TagJournal.getInterruptedOperation();
+		if(interrupted != null)
+		{
+			print(json("event", "warning", "message", "\"" + interrupted.getName()
+					+ "\" was interrupted, open the GUI to roll it back or complete it"));
+		}
+
+		CancellationToken token = new CancellationToken();
+		CountDownLatch finished = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() ->
+		{
+			if(finished.getCount() > 0)
+			{
+				token.cancel();
+				try
+				{
+					finished.await(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "Headless Shutdown"));
+
+		int exitCode;
+		try
+		{
+			exitCode = run(command, options, frontend, token);
+		}
+		catch (IllegalArgumentException e)
+		{
+			printUsage(e.getMessage());
+			exitCode = 2;
+		}
+		catch (RuntimeException e)
+		{
+			LOG.log(Level.SEVERE, "Failed to run " + command.getName(), e);
+			print(json("event", "error", "message", String.valueOf(e)));
+			exitCode = 1;
+		}
+		finally
+		{
+			finished.countDown();
+		}
+		System.exit(exitCode == 0 && frontend.errors > 0 ? 1 : exitCode);
+	}
+
+	/** Runs a command, then prints its summary.
+	 * @return  Exit code.
+	 */
+	private static int run(Command command, HashMap<String, String> options, ConsoleFrontend frontend,
+			CancellationToken token)
+	{
+		long start = System.nanoTime();
+		Pipeline pipeline = null;
+		if(command == Command.Pipeline)
+		{
+			pipeline = parsePipeline(options);
+		}
+		else if(command.isPerTrack())
+		{
+			pipeline = new Pipeline().add(command.getName(), createStage(command, options), isThreadSafe(command));
+		}
+		
+		Library lib = null;
+		if(command != Command.BuildXml && command != Command.Undo)
+		{
+			lib = loadLibrary(getOption(options, "library"));
+			if(lib == null)
+			{
+				return 1;
+			}
+		}
+
+		TrackResults results = null;
+		boolean isJournaled = command != Command.Undo;	// Rollbacks aren't journaled, see TagJournal
+		if(isJournaled)
+		{
+			TagJournal.begin(command.getName() + (command == Command.Pipeline ? ": " + pipeline.getName() : "")
+					+ " (Headless)");
+		}
+		try
+		{
+			if(pipeline != null)
+			{
+				TrackStore tracks = lib.getTracks();
+				Pipeline stages = pipeline;
+				Progress progress = Frontend.get().openProgress(pipeline.getName(), token);
+				results = TrackExecutor.runLibrary(lib, row -> stages.run(tracks, row), pipeline.isThreadSafe(),
+						progress, token);
+				progress.finish();
+			}
+			else
+			{
+				runLibraryCommand(command, options, lib, token);
+			}
+		}
+		finally
+		{
+			if(isJournaled)
+			{
+				TagJournal.end();
+			}
+		}
+		frontend.printProgress();
+
+		List<Failure> failures = results != null ? results.getFailures() : new ArrayList<>();
+		for(Failure failure : failures)
+		{
+			print(json("event", "failure", "path", failure.path, "error", String.valueOf(failure.error)));
+		}
+		print(json("event", "summary", "command", command.getName(),
+				"stages", command == Command.Pipeline ? pipeline.getName() : null,
+				"succeeded", results != null ? results.getSucceeded() : null,
+				"failed", results != null ? failures.size() : null,
+				"skipped", results != null ? results.getCancelled() : null,
+				"cancelled", token.isCancelled(),
+				"millis", (System.nanoTime() - start) / 1000000,
+				"inPlaceWrites", TagWriter.getInPlaceWrites(), "rewrites", TagWriter.getRewrites(),
+				"bytesWritten", TagWriter.getBytesWritten()));
+		return failures.isEmpty() ? 0 : 1;
+	}
+
+	/** Creates a pipeline from its definition, one stage per line of
+	 * {@code --file}, or separated by {@code ;} in {@code --stages}.
+	 * Blank lines and lines starting with {@code #} are skipped.
+	 * <pre>
+	 * # Nightly clean up
+	 * format --capitalize --proper-caps --trim
+	 * copy-fields --from ARTIST --to "Album Artist"
+	 * save-ratings
+	 * </pre>
+	 */
+	private static Pipeline parsePipeline(HashMap<String, String> options)
+	{
+		String definition;
+		if(options.containsKey("file"))
+		{
+			try
+			{
+				definition = String.join("\n", Files.readAllLines(Paths.get(options.get("file"))));
+			}
+			catch (IOException e)
+			{
+				throw new IllegalArgumentException("Failed to read pipeline file: " + options.get("file"));
+			}
+		}
+		else
+		{
+			definition = getOption(options, "stages");
+		}
+		
+		Pipeline pipeline = new Pipeline();
+		for(String line : definition.split("[;\n]"))
+		{
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+			{
+				continue;
+			}
+			String[] args = tokenize(line);
+			Command command = Command.forName(args[0]);
+			if(!command.isPipelineStage())
+			{
+				throw new IllegalArgumentException(command.getName() + " can't be a pipeline stage");
+			}
+			pipeline.add(command.getName(), createStage(command, parseOptions(args)), isThreadSafe(command));
+		}
+		if(pipeline.isEmpty())
+		{
+			throw new IllegalArgumentException("Pipeline has no stages");
+		}
+		return pipeline;
+	}
+	
+	/** Splits a stage's definition on spaces, except within double quotes */
+	private static String[] tokenize(String line)
+	{
+		ArrayList<String> tokens = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		boolean isQuoted = false;
+		for(char c : line.toCharArray())
+		{
+			if(c == '"')
+			{
+				isQuoted = !isQuoted;
+			}
+			else if(Character.isWhitespace(c) && !isQuoted)
+			{
+				if(sb.length() > 0)
+				{
+					tokens.add(sb.toString());
+					sb.setLength(0);
+				}
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		if(sb.length() > 0)
+		{
+			tokens.add(sb.toString());
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	/** Creates the per-track function of a command, see {@link Command#isPerTrack()} */
+	private static Stage createStage(Command command, HashMap<String, String> options)
+	{
+		switch(command)
+		{
+			case Format :
+			{
+				boolean isCapitalize = options.containsKey("capitalize");
+				boolean isProperCaps = options.containsKey("proper-caps");
+				boolean isComments = options.containsKey("comments");
+				boolean isComposer = options.containsKey("composer");
+				boolean isGrouping = options.containsKey("grouping");
+				boolean isTrim = options.containsKey("trim");
+				if(!isCapitalize && !isTrim)
+				{
+					throw new IllegalArgumentException("format needs --capitalize or --trim");
+				}
+				return (tracks, row) ->
+				{
+					if(isCapitalize)
+					{
+						Functions.formatFields(tracks, row, isProperCaps, isComments, isComposer, isGrouping);
+					}
+					if(isTrim)
+					{
+						Functions.removeLeadingTrailingSpaces(tracks, row);
+					}
+				};
+			}
+			case SaveRatings :
+				return (tracks, row) -> Functions.saveRatings(tracks, row);
+			case DeleteFields :
+			{
+				ArrayList<FieldKey> fields = new ArrayList<>();
+				if(options.containsKey("artwork"))
+				{
+					fields.add(FieldKey.MEDIA);	// Flag to delete artwork NOT media
+				}
+				if(options.containsKey("lyrics"))
+				{
+					fields.add(FieldKey.LYRICS);
+				}
+				if(options.containsKey("ratings"))
+				{
+					fields.add(FieldKey.RATING);
+				}
+				if(fields.isEmpty())
+				{
+					throw new IllegalArgumentException("delete-fields needs --artwork, --lyrics or --ratings");
+				}
+				return (tracks, row) ->
+				{
+					for(FieldKey field : fields)
+					{
+						Functions.deleteField(tracks, row, field);
+					}
+				};
+			}
+			case EmbedArtwork :
+				return (tracks, row) -> Functions.embedArtwork(tracks, row);
+			case ExportArtwork :
+			{
+				String dir = getDirectory(options);
+				boolean isSplitByArtist = options.containsKey("split-by-artist");
+				return (tracks, row) -> Functions.exportArtwork(tracks, row, dir, isSplitByArtist);
+			}
+			case SwapFields :
+			{
+				String[] fields = getOption(options, "fields").split(",");
+				if(fields.length != 2)
+				{
+					throw new IllegalArgumentException("swap-fields needs --fields <field>,<field>");
+				}
+				FieldKey fieldOne = parseField(fields[0]);
+				FieldKey fieldTwo = parseField(fields[1]);
+				return (tracks, row) -> Functions.swapTags(tracks, row, fieldOne, fieldTwo);
+			}
+			case CopyFields :
+			{
+				FieldKey from = parseField(getOption(options, "from"));
+				FieldKey to = parseField(getOption(options, "to"));
+				return (tracks, row) -> Functions.copyTags(tracks, row, from, to);
+			}
+			case Normalize :
+			{
+				int version = Integer.parseInt(options.getOrDefault("version", "3"));
+				int padding = Integer.parseInt(options.getOrDefault("padding-kb", "4")) * 1024;
+				if(version != 3 && version != 4)
+				{
+					throw new IllegalArgumentException("--version must be 3 or 4");
+				}
+				return (tracks, row) -> Functions.normalizeTag(tracks.getFilePath(row), version, padding);
+			}
+			default :
+				throw new IllegalArgumentException(command.getName() + " doesn't run per track");
+		}
+	}
+
+	/** @return  True if the command's tracks can run concurrently, as for its panel */
+	private static boolean isThreadSafe(Command command)
+	{
+		return command != Command.ExportArtwork;
+	}
+
+	/** Runs a command that isn't per track */
+	private static void runLibraryCommand(Command command, HashMap<String, String> options, Library lib,
+			CancellationToken token)
+	{
+		switch(command)
+		{
+			case ArtistRating :
+				lib.createArtistObjects();
+				Functions.calculateArtistRating(lib, parseField(getOption(options, "field")), Settings.useCustomRatings,
+						token);
+				break;
+			case AlbumRating :
+				lib.createArtistObjects();
+				Functions.calculateAlbumRating(lib, parseField(getOption(options, "field")),
+						Integer.parseInt(options.getOrDefault("min-percent", "50")), token);
+				break;
+			case MissingSongs :
+				Functions.findMissingSongs(lib, options.containsKey("discovery"), token);
+				break;
+			case UnlistedFiles :
+				for(TableEntry entry : Functions.findUnlistedSongs(lib, options.containsKey("ignore-images"), token))
+				{
+					print(json("event", "unlisted", "path", entry.FilePath));
+				}
+				break;
+			case BuildXml :
+				Functions.buildLibraryFile(new File(getDirectory(options)), token);
+				break;
+			case Undo :
+				Operation op = TagJournal.getLastOperation();
+				if(op == null)
+				{
+					Frontend.get().showMessage("Undo", "Nothing to undo");
+					break;
+				}
+				print(json("event", "message", "title", "Undo", "message", "Undoing \"" + op.getName() + "\", "
+						+ op.getEdits().size() + " fields"));
+				Functions.restoreOperation(op, true, token);
+				break;
+			default :
+				throw new IllegalArgumentException(command.getName() + " runs per track");
+		}
+	}
+
+	/** @return  The library, or null if it couldn't be read */
+	private static Library loadLibrary(String path)
+	{
+		if(!new File(path).isFile())
+		{
+			Frontend.get().showError("Library file doesn't exist: " + path);
+			return null;
+		}
+		Library lib = new Library(path);
+		return lib.getTracks() != null ? lib : null;
+	}
+
+	/** Parses {@code --key value} and {@code --flag} arguments, after the command */
+	private static HashMap<String, String> parseOptions(String[] args)
+	{
+		HashMap<String, String> options = new HashMap<>();
+		for(int i = 1; i < args.length; i++)
+		{
+			if(!args[i].startsWith("--"))
+			{
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			}
+			String key = args[i].substring(2);
+			if(i + 1 < args.length && !args[i + 1].startsWith("--"))
+			{
+				options.put(key, args[++i]);
+			}
+			else
+			{
+				options.put(key, "true");
+			}
+		}
+		return options;
+	}
+
+	private static String getOption(HashMap<String, String> options, String key)
+	{
+		String value = options.get(key);
+		if(value == null)
+		{
+			throw new IllegalArgumentException("Missing --" + key);
+		}
+		return value;
+	}
+
+	private static String getDirectory(HashMap<String, String> options)
+	{
+		String dir = getOption(options, "dir");
+		if(!new File(dir).isDirectory())
+		{
+			throw new IllegalArgumentException("Not a directory: " + dir);
+		}
+		return dir;
+	}
+
+	/** @param name  A {@link FieldKey} name, e.g. {@code ALBUM_ARTIST},
+	 * or a field as named in the GUI, e.g. {@code "Album Artist"}.
+	 */
+	private static FieldKey parseField(String name)
+	{
+		try
+		{
+			return FieldKey.valueOf(name.trim().toUpperCase().replace('-', '_').replace(' ', '_'));
+		}
+		catch (IllegalArgumentException e)
+		{
+			FieldKey field = Utils.getFieldKeyFromString(name.trim());
+			if(field == null)
+			{
+				throw new IllegalArgumentException("Unknown field: " + name);
+			}
+			return field;
+		}
+	}
+
+	private static void printUsage(String error)
+	{
+		print(json("event", "error", "message", error));
+		StringBuilder sb = new StringBuilder("Usage: id3.main.Headless <command> [--library <Library.xml>] [options]\nCommands:");
+		for(Command command : Command.values())
+		{
+			sb.append(' ').append(command.getName());
+		}
+		System.err.println(sb);
+	}
+
+	private static void print(String line)
+	{
+		System.out.println(line);
+	}
+
+	/** @param keyValues  Keys, each followed by its value. Null values are left out.
+	 * @return  A JSON object, on one line.
+	 */
+	static String json(Object... keyValues)
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for(int i = 0; i < keyValues.length; i += 2)
+		{
+			Object value = keyValues[i + 1];
+			if(value == null)
+			{
+				continue;
+			}
+			if(sb.length() > 1)
+			{
+				sb.append(',');
+			}
+			appendString(sb, keyValues[i].toString());
+			sb.append(':');
+			if(value instanceof Number || value instanceof Boolean)
+			{
+				sb.append(value);
+			}
+			else
+			{
+				appendString(sb, value.toString());
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	private static void appendString(StringBuilder sb, String value)
+	{
+		sb.append('"');
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			switch(c)
+			{
+				case '"' :
+					sb.append("\\\"");
+					break;
+				case '\\' :
+					sb.append("\\\\");
+					break;
+				case '\n' :
+					sb.append("\\n");
+					break;
+				case '\r' :
+					sb.append("\\r");
+					break;
+				case '\t' :
+					sb.append("\\t");
+					break;
+				default :
+					if(c < 0x20)
+					{
+						sb.append(String.format("\\u%04x", (int) c));
+					}
+					else
+					{
+						sb.append(c);
+					}
+					break;
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -25,6 +25,10 @@
 
 package id3.main;
 
+import id3.gui.dialogs.DialogFrontend;
+import id3.utils.Frontend;
+import id3.utils.TagJournal;
+
 import java.awt.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +41,7 @@ import java.util.logging.Logger;
  * <li>{@link id3.main.GUI}
  * <p>
  * See the ReadMe.txt for more information.
+ * {@link Headless} runs functions without the GUI.
  */
 public final class Program
 {
@@ -49,9 +54,12 @@ public final class Program
 	{
 		LOG.setLevel(Level.OFF); // See also: Settings.isDebugMode
 		
+		Frontend.set(new DialogFrontend());
 		init();
 		
 		Settings.load();
+		TagJournal.compact();
+		EventQueue.invokeLater(GUI::recoverInterruptedOperation);
 	}
 	
 	public static void init()
@@ -1,5 +1,7 @@
 package id3.main;
 
+import id3.gui.functionpanel.TrackExecutor;
+
 import java.io.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -13,6 +15,13 @@ public final class Settings
 	private static final Logger LOG = Program.LOG;
 	
 	public static final File UNLISTED_DIR =  new File("(UNLISTED MEDIA)");
+	public static final File SETTINGS_FILE = new File("Settings.ini");
+	
+	/** Parsed library cache, see {@link id3.objects.LibrarySnapshot} */
+	public static final File SNAPSHOT_FILE = new File("Library.snapshot");
+	
+	/** Tag edit journal, see {@link id3.utils.TagJournal} */
+	public static final File JOURNAL_FILE = new File("Tags.journal");
 	public static final String PROGRAM_DIR = System.getProperty("user.dir");
 	public static final String BPM_CMD =
 			"java -jar \"" + PROGRAM_DIR + "\\bin\\lib\\trackanalyzer\\TrackAnalyzer.jar\" \"";
@@ -29,6 +38,38 @@ public final class Settings
 	public static String itunesDir;
 	public static boolean isHalfStarsEnabled;
 	
+	/** Only run functions on tracks that changed in the last library update.
+	 * See {@link id3.objects.Library#update()}
+	 */
+	public static boolean isChangedTracksOnly;
+	
+	/** Keep the library's track table outside of the Java heap.
+	 * See {@link id3.objects.TrackStore#TrackStore(boolean, id3.objects.StringPool)}
+	 */
+	public static boolean isOffHeapTrackStore;
+	
+	/** Copy the library's fields to every tag that's edited, rather than only
+	 * writing what a function changed. See {@link id3.utils.TagSession}
+	 */
+	public static boolean isReconcileTags;
+	
+	/** Number of threads writing tags, see {@link id3.utils.TagWriteExecutor} */
+	public static int tagWriteThreads = 4;
+	
+	/** Number of tags written at once to each storage device */
+	public static int tagWritesPerDevice = 1;
+	
+	/** How the tracks of thread-safe functions are run, see {@link TrackExecutor}
+	 * and {@link id3.gui.functionpanel.FunctionPanel#isThreadSafe}
+	 */
+	public static TrackExecutor.Mode executionMode = TrackExecutor.Mode.Serial;
+	
+	/** Number of threads running tracks in the fixed pool and fork-join modes */
+	public static int trackThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	
+	/** Number of files opened at once on each mount, when tracks run concurrently */
+	public static int opensPerMount = 16;
+	
 	public static boolean isDebugMode = false;	//Prevents writing ID3 tags
 	
 	private Settings() {}
@@ -43,7 +84,7 @@ public final class Settings
 				UNLISTED_DIR.mkdir();
 			}
 			
-			br = new BufferedReader(new FileReader(new File("Settings.ini")));
+			br = new BufferedReader(new FileReader(SETTINGS_FILE));
 			String line;
 			while((line = br.readLine()) != null)
 			{
@@ -81,6 +122,30 @@ public final class Settings
 					case("isHalfStarsEnabled") :
 						isHalfStarsEnabled = Boolean.parseBoolean(value);
 						break;
+					case("isChangedTracksOnly") :
+						isChangedTracksOnly = Boolean.parseBoolean(value);
+						break;
+					case("isOffHeapTrackStore") :
+						isOffHeapTrackStore = Boolean.parseBoolean(value);
+						break;
+					case("isReconcileTags") :
+						isReconcileTags = Boolean.parseBoolean(value);
+						break;
+					case("TagWriteThreads") :
+						tagWriteThreads = Integer.parseInt(value);
+						break;
+					case("TagWritesPerDevice") :
+						tagWritesPerDevice = Integer.parseInt(value);
+						break;
+					case("ExecutionMode") :
+						executionMode = TrackExecutor.Mode.valueOf(value);
+						break;
+					case("TrackThreads") :
+						trackThreads = Integer.parseInt(value);
+						break;
+					case("OpensPerMount") :
+						opensPerMount = Integer.parseInt(value);
+						break;
 				}
 			}
 		}
@@ -92,7 +157,10 @@ public final class Settings
 		{
 			try
 			{
-				br.close();
+				if(br != null)
+				{
+					br.close();
+				}
 			}
 			catch (IOException e)
 			{
@@ -113,11 +181,19 @@ public final class Settings
 		sb.append("\r\nTotalSongsMin = " + totalSongsMin);
 		sb.append("\r\niTunesDir = " + itunesDir);
 		sb.append("\r\nisHalfStarsEnabled = " + isHalfStarsEnabled);
+		sb.append("\r\nisChangedTracksOnly = " + isChangedTracksOnly);
+		sb.append("\r\nisOffHeapTrackStore = " + isOffHeapTrackStore);
+		sb.append("\r\nisReconcileTags = " + isReconcileTags);
+		sb.append("\r\nTagWriteThreads = " + tagWriteThreads);
+		sb.append("\r\nTagWritesPerDevice = " + tagWritesPerDevice);
+		sb.append("\r\nExecutionMode = " + executionMode);
+		sb.append("\r\nTrackThreads = " + trackThreads);
+		sb.append("\r\nOpensPerMount = " + opensPerMount);
 		
 		BufferedWriter bw = null;
 		try
 		{
-			bw = new BufferedWriter(new FileWriter(new File("Settings.ini")));
+			bw = new BufferedWriter(new FileWriter(SETTINGS_FILE));
 			bw.write(sb.toString());
 		}
 		catch (IOException e)
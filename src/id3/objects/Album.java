@@ -3,7 +3,7 @@ package id3.objects;
 import org.jaudiotagger.tag.FieldKey;
 import org.jaudiotagger.tag.images.Artwork;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 /** Album objects store album specific fields found on song's sharing
  * the same album AND artist. Albums cannot be accessed without an Artist object.
@@ -16,8 +16,10 @@ public class Album
 	/** The Artist object this album belongs to */
 	private Artist 				artist;
 	
-	/** A map containing this album's tracks' Library key IDs and file paths */
-	private HashMap<String, String> 	tracks 				= new HashMap<>();
+	/** This album's tracks' {@link TrackStore} rows, in ascending order.
+	 * File paths are only resolved from the store when a file is accessed. */
+	private int[] 				tracks 				= new int[4];
+	private int 				trackCount;
 	
 	private String 				genre;
 	private String				composer;
@@ -27,7 +29,13 @@ public class Album
 	private int 				trackcount  		= -1;
 	private int 				year				= -1;
 	private int 				rating				= -1;
-	private Artwork 			artwork 			= null;
+	
+	/** Reference to the first artwork found on this album's tracks.
+	 * Tracks are only searched once the artwork is needed.
+	 * @see #getArtworkRef(TrackStore)
+	 */
+	private ArtworkRef 			artworkRef 			= null;
+	private boolean 			isArtworkSearched 	= false;
 	
 	/** Creates a new Album object.
 	 * <p>
@@ -47,12 +55,11 @@ public class Album
 	 * @param composer  Literal composer or used as a custom field.
 	 * @param grouping  Literal grouping or used as a custom field.
 	 * @param comments  Literal comments or used as a custom field.
-	 * @param artwork  {@link Artwork} for this album.
 	 * @see Library#createArtistObjects()
 	 * @see id3.functions.Functions#calculateAlbumRating(Library, FieldKey, int)
 	 */
 	public Album(String name, Artist artist, String genre, int disccount, int trackcount,
-			int year, String composer, String grouping, String comments, Artwork artwork)
+			int year, String composer, String grouping, String comments)
 	{
 		this.name = name;
 		this.artist = artist;
@@ -63,7 +70,6 @@ public class Album
 		this.composer = composer;
 		this.grouping = grouping;
 		this.comments = comments;
-		this.artwork = artwork;
 	}
 	
 	public Artist getArtist()
@@ -96,9 +102,9 @@ public class Album
 		this.disccount = disccount;
 	}
 	
-	public int getCalculatedTrackCount()
+	public synchronized int getCalculatedTrackCount()
 	{
-		return tracks.size();
+		return trackCount;
 	}
 
 	public int getTrackCount()
@@ -131,9 +137,27 @@ public class Album
 		this.rating = rating;
 	}
 
-	public void addTrack(String id, String filePath)
+	/** @param row  {@link TrackStore} row of the track to add */
+	public synchronized void addTrack(int row)
 	{
-		tracks.put(id, filePath);
+		int index = Arrays.binarySearch(tracks, 0, trackCount, row);
+		if(index >= 0)
+		{
+			return;
+		}
+		index = -index - 1;
+		if(trackCount == tracks.length)
+		{
+			tracks = Arrays.copyOf(tracks, trackCount * 2);
+		}
+		System.arraycopy(tracks, index, tracks, index + 1, trackCount - index);
+		tracks[index] = row;
+		trackCount++;
+		
+		if(artworkRef == null)
+		{	// New track may have artwork
+			isArtworkSearched = false;
+		}
 	}
 
 	public String getName()
@@ -146,19 +170,88 @@ public class Album
 		this.name = name;
 	}
 	
-	public HashMap<String, String>getTracks()
+	/** @return  {@link TrackStore} rows of the album's tracks, in ascending order */
+	public synchronized int[] getTracks()
+	{
+		return Arrays.copyOf(tracks, trackCount);
+	}
+	
+	/** Moves the album's tracks to their new rows after a library update.
+	 * @param movedRows  New row of each previous row, or -1 to drop the track.
+	 * @return  True if any track was dropped.
+	 */
+	synchronized boolean moveTracks(int[] movedRows)
 	{
-		return tracks;
+		int moved = 0;
+		for(int i = 0; i < trackCount; i++)
+		{
+			int row = movedRows[tracks[i]];
+			if(row != -1)
+			{
+				tracks[moved++] = row;
+			}
+		}
+		boolean isDropped = moved != trackCount;
+		trackCount = moved;
+		Arrays.sort(tracks, 0, trackCount);
+		return isDropped;
 	}
 	
-	public Artwork getArtwork()
+	/** Gets the album's artwork, reading it if necessary.
+	 * This is the only album field that costs file I/O.
+	 * @param store  Library's track entries, used to find the tracks' files.
+	 * @return  The artwork, or null if none of the tracks have any.
+	 * @see ArtworkRef#load()
+	 */
+	public Artwork getArtwork(TrackStore store)
 	{
-		return artwork;
+		ArtworkRef ref = getArtworkRef(store);
+		return ref == null ? null : ref.load();
 	}
 	
-	public void setArtwork(Artwork artwork)
+	/** Gets a reference to the album's artwork. On first use, the
+	 * album's tracks are searched in order until one has artwork.
+	 * @param store  Library's track entries, used to find the tracks' files.
+	 * @return  Reference to the artwork, or null if none of the tracks have any.
+	 */
+	public synchronized ArtworkRef getArtworkRef(TrackStore store)
+	{
+		if(!isArtworkSearched)
+		{
+			for(int i = 0; i < trackCount; i++)
+			{
+				artworkRef = ArtworkRef.locate(store.getFilePath(tracks[i]));
+				if(artworkRef != null)
+				{
+					break;
+				}
+			}
+			isArtworkSearched = true;
+		}
+		return artworkRef;
+	}
+	
+	/** @return  The artwork reference if the tracks were searched already,
+	 * without searching them.
+	 */
+	synchronized ArtworkRef peekArtworkRef()
+	{
+		return artworkRef;
+	}
+	
+	synchronized boolean isArtworkSearched()
+	{
+		return isArtworkSearched;
+	}
+	
+	/** Sets the artwork reference, i.e. when restored from a {@link LibrarySnapshot}.
+	 * @param artworkRef  Artwork reference, or null.
+	 * @param isArtworkSearched  False if the tracks should be searched again when needed.
+	 */
+	synchronized void setArtworkRef(ArtworkRef artworkRef, boolean isArtworkSearched)
 	{
-		this.artwork = artwork;
+		this.artworkRef = artworkRef;
+		this.isArtworkSearched = isArtworkSearched;
 	}
 	
 	public String getComposer()
@@ -0,0 +1,117 @@
+package id3.objects;
+
+import org.jaudiotagger.tag.images.Artwork;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/** Shared, size bounded cache of album artwork, keyed by the
+ * SHA-1 of the image data.
+ * <p>
+ * Albums very often share the same image (every disc of a release,
+ * compilations, artist pictures, etc.). Since images are keyed by their
+ * content, each distinct image is held in memory only once, no matter
+ * how many {@link ArtworkRef}s point to it.
+ * <p>
+ * The cache holds at most {@link #MAX_BYTES} of image data. The least
+ * recently used images are dropped first, and are simply read from their
+ * file again when they're needed.
+ */
+public final class ArtworkCache
+{
+	/** Maximum total size of cached image data */
+	public static final long MAX_BYTES 	= 64L * 1024 * 1024;
+
+	private static final LinkedHashMap<String, Artwork> IMAGES = new LinkedHashMap<>(64, 0.75f, true);
+
+	private static long bytes;
+	private static long hits;
+	private static long misses;
+
+	private ArtworkCache() {}
+
+	/** @param sha1  Image hash, see {@link #hash(byte[])}.
+	 * @return  Cached artwork, or null if it isn't cached.
+	 */
+	public static synchronized Artwork get(String sha1)
+	{
+		Artwork artwork = IMAGES.get(sha1);
+		if(artwork != null)
+		{
+			hits++;
+		}
+		else
+		{
+			misses++;
+		}
+		return artwork;
+	}
+
+	/** Caches artwork, unless the same image is cached already.
+	 * @param sha1  Image hash, see {@link #hash(byte[])}.
+	 * @param artwork  Artwork read from a file.
+	 * @return  The cached instance for the image, which should
+	 * be used instead of the supplied one.
+	 */
+	public static synchronized Artwork put(String sha1, Artwork artwork)
+	{
+		Artwork cached = IMAGES.get(sha1);
+		if(cached != null)
+		{
+			return cached;
+		}
+
+		long size = artwork.getBinaryData().length;
+		if(size > MAX_BYTES)
+		{
+			return artwork;
+		}
+
+		IMAGES.put(sha1, artwork);
+		bytes += size;
+		for(Iterator<Entry<String, Artwork>> it = IMAGES.entrySet().iterator(); bytes > MAX_BYTES && it.hasNext(); )
+		{
+			bytes -= it.next().getValue().getBinaryData().length;
+			it.remove();
+		}
+		return artwork;
+	}
+
+	/** Drops every cached image */
+	public static synchronized void clear()
+	{
+		IMAGES.clear();
+		bytes = 0;
+	}
+
+	/** @return  Hits, misses, and the number and size of cached images */
+	public static synchronized String getStats()
+	{
+		return hits + " hits, " + misses + " misses, " + IMAGES.size() + " images, " + bytes / 1024 + " KB";
+	}
+
+	/** @param data  Image data.
+	 * @return  Hex encoded SHA-1 of the data.
+	 */
+	public static String hash(byte[] data)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for(byte b : digest)
+			{
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{	// Every Java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+}
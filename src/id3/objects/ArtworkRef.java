@@ -0,0 +1,301 @@
+package id3.objects;
+
+import id3.main.Program;
+import id3.utils.ID3v2Reader;
+import id3.utils.ID3v2Reader.Frame;
+import id3.utils.Utils;
+import org.jaudiotagger.tag.images.Artwork;
+import org.jaudiotagger.tag.images.ArtworkFactory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Lightweight reference to a track's embedded artwork.
+ * <p>
+ * Holds where the picture is stored (file path, frame offset and size)
+ * rather than the picture itself. The image is read when {@link #load()}
+ * is called, and shared through the {@link ArtworkCache} by its SHA-1,
+ * which is remembered once known.
+ * <p>
+ * The file's length and modification time are recorded with the reference.
+ * If they changed by the time the artwork is loaded, the picture is looked
+ * for again, since it may have been replaced.
+ * <p>
+ * Pictures in ID3v2 tags are read straight from their APIC (or PIC) frame.
+ * Other files, and tags that can't be read in place, are read with
+ * jaudiotagger, and their reference has no frame offset.
+ * @see Album#getArtworkRef(TrackStore)
+ */
+public final class ArtworkRef
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** Frame offset of references that are read with jaudiotagger */
+	private static final long 	NO_FRAME 	= -1;
+
+	private final String 	path;
+	private int 			version;
+	private long 			offset;
+	private int 			size;
+
+	/** Length and modification time of the file when the artwork was located */
+	private long 			length;
+	private long 			modified;
+
+	/** Hex encoded SHA-1 of the image, null until it's first loaded */
+	private String 			sha1;
+
+	private ArtworkRef(String path, int version, long offset, int size, long length, long modified, String sha1)
+	{
+		this.path = path;
+		this.version = version;
+		this.offset = offset;
+		this.size = size;
+		this.length = length;
+		this.modified = modified;
+		this.sha1 = sha1;
+	}
+
+	/** Looks for artwork in an audio file. For ID3v2 tags, only the
+	 * tag's frame headers are read.
+	 * @param path  Audio file path.
+	 * @return  Reference to the file's artwork, or null if it has none.
+	 */
+	public static ArtworkRef locate(String path)
+	{
+		File file = new File(path);
+		if(!file.exists())
+		{
+			return null;
+		}
+		long length = file.length();
+		long modified = file.lastModified();
+
+		if(path.toLowerCase().endsWith(".mp3"))
+		{
+			try
+			{
+				Frame frame = ID3v2Reader.findFrame(path, "APIC", "PIC");
+				return frame == null ? null
+						: new ArtworkRef(path, frame.version, frame.offset, frame.size, length, modified, null);
+			}
+			catch (IOException e)
+			{
+				LOG.log(Level.FINER, "Can't read artwork in place, using jaudiotagger: " + path);
+			}
+		}
+
+		Artwork artwork = Utils.getArtworkFromID3(path);
+		if(artwork == null)
+		{
+			return null;
+		}
+		ArtworkRef ref = new ArtworkRef(path, 0, NO_FRAME, artwork.getBinaryData().length, length, modified, null);
+		ref.cache(artwork);
+		return ref;
+	}
+
+	/** Gets the referenced artwork, from the {@link ArtworkCache}
+	 * if possible, else from its file. If the file changed since
+	 * the artwork was located, it's located again first.
+	 * @return  The artwork, or null if it can no longer be read.
+	 */
+	public synchronized Artwork load()
+	{
+		File file = new File(path);
+		if(file.length() != length || file.lastModified() != modified)
+		{	// Artwork may have been replaced
+			if(!relocate())
+			{
+				return null;
+			}
+		}
+		
+		if(sha1 != null)
+		{
+			Artwork cached = ArtworkCache.get(sha1);
+			if(cached != null)
+			{
+				return cached;
+			}
+		}
+
+		Artwork artwork = readFromFile();
+		if(artwork == null && offset != NO_FRAME)
+		{	// Tag was rewritten since the frame was found
+			if(!relocate())
+			{
+				return null;
+			}
+			artwork = readFromFile();
+		}
+		return artwork == null ? null : cache(artwork);
+	}
+
+	/** Locates the file's artwork again, see {@link #locate(String)}.
+	 * @return  False if the file no longer has artwork.
+	 */
+	private boolean relocate()
+	{
+		ArtworkRef moved = locate(path);
+		if(moved == null)
+		{
+			return false;
+		}
+		version = moved.version;
+		offset = moved.offset;
+		size = moved.size;
+		length = moved.length;
+		modified = moved.modified;
+		sha1 = moved.sha1;
+		return true;
+	}
+
+	private Artwork cache(Artwork artwork)
+	{
+		sha1 = ArtworkCache.hash(artwork.getBinaryData());
+		return ArtworkCache.put(sha1, artwork);
+	}
+
+	/** Reads the artwork from its file.
+	 * @return  The artwork, or null if the frame isn't where it was found.
+	 */
+	private Artwork readFromFile()
+	{
+		if(offset == NO_FRAME)
+		{
+			return Utils.getArtworkFromID3(path);
+		}
+
+		try
+		{
+			byte[] data = ID3v2Reader.readFrameData(path, new Frame(version == 2 ? "PIC" : "APIC", version, offset, size));
+			return data == null ? null : parsePicture(data, version);
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "Failed to read artwork from file: " + path);
+			return null;
+		}
+	}
+
+	/** Parses the content of an APIC frame, or a PIC frame for ID3v2.2:
+	 * text encoding, MIME type (v2.2: image format), picture type,
+	 * description, image data.
+	 * @return  Parsed artwork, or null if the frame is malformed.
+	 */
+	private static Artwork parsePicture(byte[] data, int version)
+	{
+		if(data.length < 5)
+		{
+			return null;
+		}
+		int encoding = data[0];
+		Charset charset = ID3v2Reader.getCharset(encoding);
+		boolean isWide = encoding == 1 || encoding == 2;
+
+		int position;
+		String mimeType;
+		if(version == 2)
+		{
+			String format = new String(data, 1, 3, StandardCharsets.ISO_8859_1);
+			mimeType = format.equalsIgnoreCase("PNG") ? "image/png" : "image/jpeg";
+			position = 4;
+		}
+		else
+		{
+			int end = indexOfTerminator(data, 1, false);
+			if(end == -1)
+			{
+				return null;
+			}
+			mimeType = new String(data, 1, end - 1, StandardCharsets.ISO_8859_1);
+			position = end + 1;
+		}
+		if(position >= data.length)
+		{
+			return null;
+		}
+		int pictureType = data[position++] & 0xff;
+
+		int end = indexOfTerminator(data, position, isWide);
+		if(end == -1)
+		{
+			return null;
+		}
+		String description = new String(data, position, end - position, charset);
+		position = end + (isWide ? 2 : 1);
+
+		Artwork artwork = ArtworkFactory.getNew();
+		artwork.setBinaryData(Arrays.copyOfRange(data, position, data.length));
+		artwork.setMimeType(mimeType);
+		artwork.setPictureType(pictureType);
+		artwork.setDescription(description);
+		return artwork;
+	}
+
+	/** @return  Index of the string terminator (one zero byte, or two
+	 * aligned zero bytes for UTF-16) at or after start, or -1.
+	 */
+	private static int indexOfTerminator(byte[] data, int start, boolean isWide)
+	{
+		for(int i = start; i < data.length - (isWide ? 1 : 0); i += isWide ? 2 : 1)
+		{
+			if(data[i] == 0 && (!isWide || data[i + 1] == 0))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	/** @return  File offset of the picture's frame, or -1
+	 * if the picture is read with jaudiotagger.
+	 */
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	public int getSize()
+	{
+		return size;
+	}
+
+	/** @return  Hex encoded SHA-1 of the image, or null if it wasn't loaded yet */
+	public String getSha1()
+	{
+		return sha1;
+	}
+
+	/** Writes the reference to a snapshot, see {@link LibrarySnapshot} */
+	void write(DataOutputStream out) throws IOException
+	{
+		LibrarySnapshot.writeString(out, path);
+		out.writeInt(version);
+		out.writeLong(offset);
+		out.writeInt(size);
+		out.writeLong(length);
+		out.writeLong(modified);
+		LibrarySnapshot.writeString(out, sha1);
+	}
+
+	/** Reads a reference written by {@link #write(DataOutputStream)} */
+	static ArtworkRef read(ByteBuffer in)
+	{
+		return new ArtworkRef(LibrarySnapshot.readString(in), in.getInt(), in.getLong(), in.getInt(), in.getLong(),
+				in.getLong(), LibrarySnapshot.readString(in));
+	}
+}
@@ -0,0 +1,87 @@
+package id3.objects;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/** Tracks that changed between two versions of a library file.
+ * <p>
+ * Added and modified tracks are referenced by their row in the
+ * library's current {@link TrackStore}. Removed tracks no longer have
+ * a row, so they're referenced by their identity
+ * ({@link TrackStore#getIdentity(int)}).
+ * @see Library#update()
+ */
+public class ChangeSet
+{
+	/** Rows of tracks that weren't in the previous version */
+	private final BitSet 			added 		= new BitSet();
+
+	/** Rows of tracks whose entry in the library file changed */
+	private final BitSet 			modified 	= new BitSet();
+
+	/** Identities of tracks that are no longer in the library */
+	private final List<String> 		removed 	= new ArrayList<>();
+
+	void addAdded(int row)
+	{
+		added.set(row);
+	}
+
+	void addModified(int row)
+	{
+		modified.set(row);
+	}
+
+	void addRemoved(String identity)
+	{
+		removed.add(identity);
+	}
+
+	/** @return  Rows of added tracks, in ascending order */
+	public int[] getAdded()
+	{
+		return added.stream().toArray();
+	}
+
+	/** @return  Rows of modified tracks, in ascending order */
+	public int[] getModified()
+	{
+		return modified.stream().toArray();
+	}
+
+	/** @return  Identities of removed tracks */
+	public List<String> getRemoved()
+	{
+		return removed;
+	}
+
+	/** @return  Rows of every added or modified track, in ascending order */
+	public int[] getChangedRows()
+	{
+		BitSet changed = (BitSet) added.clone();
+		changed.or(modified);
+		return changed.stream().toArray();
+	}
+
+	/** @param row  Track row.
+	 * @return  True if the track was added or modified.
+	 */
+	public boolean isChanged(int row)
+	{
+		return added.get(row) || modified.get(row);
+	}
+
+	/** @return  True if no track was added, modified or removed */
+	public boolean isEmpty()
+	{
+		return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+	}
+
+	@Override
+	public String toString()
+	{
+		return added.cardinality() + " added, " + modified.cardinality() + " modified, "
+				+ removed.size() + " removed";
+	}
+}
@@ -0,0 +1,344 @@
+package id3.objects;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Column storage used by {@link TrackStore}.
+ * <p>
+ * Every column type is available on the Java heap, backed by plain arrays,
+ * or off-heap, backed by direct {@code ByteBuffer}s. Off-heap columns are
+ * never scanned or copied by the garbage collector, which keeps GC pauses
+ * short on very large libraries, at the cost of slower access.
+ * <p>
+ * Off-heap integer columns are fixed-width (4 or 8 bytes per row). Off-heap
+ * text columns store the UTF-8 bytes of their values in a string arena,
+ * and each row only keeps its value's offset and length. Values that are
+ * replaced stay in the arena until the store is discarded.
+ */
+final class Columns
+{
+	/** Length stored for rows without a value in an off-heap text column */
+	private static final int NULL_LENGTH = -1;
+
+	private Columns() {}
+
+	static Ints newInts(int capacity, boolean isOffHeap)
+	{
+		return isOffHeap ? new DirectInts(capacity) : new HeapInts(capacity);
+	}
+
+	static Longs newLongs(int capacity, boolean isOffHeap)
+	{
+		return isOffHeap ? new DirectLongs(capacity) : new HeapLongs(capacity);
+	}
+
+	static Texts newTexts(int capacity, boolean isOffHeap)
+	{
+		return isOffHeap ? new DirectTexts(capacity) : new HeapTexts(capacity);
+	}
+
+	private static ByteBuffer allocate(long bytes)
+	{
+		if(bytes > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Off-heap column exceeds 2 GB");
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/** Copies the first {@code bytes} bytes of a buffer into a new, larger one */
+	private static ByteBuffer grow(ByteBuffer buffer, long capacity, int bytes)
+	{
+		ByteBuffer grown = allocate(capacity);
+		ByteBuffer source = buffer.duplicate();
+		source.position(0);
+		source.limit(bytes);
+		grown.put(source);
+		grown.clear();
+		return grown;
+	}
+
+	/** Column of {@code int} values */
+	abstract static class Ints
+	{
+		abstract int get(int row);
+
+		abstract void set(int row, int value);
+
+		/** Increases the capacity, keeping the first {@code size} rows */
+		abstract void resize(int capacity, int size);
+
+		/** Fills the first {@code count} rows from big endian values, advancing the buffer */
+		abstract void read(ByteBuffer in, int count);
+	}
+
+	/** Column of {@code long} values */
+	abstract static class Longs
+	{
+		abstract long get(int row);
+
+		abstract void set(int row, long value);
+
+		abstract void resize(int capacity, int size);
+
+		abstract void read(ByteBuffer in, int count);
+	}
+
+	/** Column of String values, which may be null */
+	abstract static class Texts
+	{
+		abstract String get(int row);
+
+		abstract void set(int row, String value);
+
+		abstract void resize(int capacity, int size);
+	}
+
+	private static class HeapInts extends Ints
+	{
+		private int[] values;
+
+		private HeapInts(int capacity)
+		{
+			values = new int[capacity];
+		}
+
+		@Override
+		int get(int row)
+		{
+			return values[row];
+		}
+
+		@Override
+		void set(int row, int value)
+		{
+			values[row] = value;
+		}
+
+		@Override
+		void resize(int capacity, int size)
+		{
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void read(ByteBuffer in, int count)
+		{
+			in.asIntBuffer().get(values, 0, count);
+			in.position(in.position() + count * Integer.BYTES);
+		}
+	}
+
+	private static class DirectInts extends Ints
+	{
+		private ByteBuffer buffer;
+
+		private DirectInts(int capacity)
+		{
+			buffer = allocate((long) capacity * Integer.BYTES);
+		}
+
+		@Override
+		int get(int row)
+		{
+			return buffer.getInt(row * Integer.BYTES);
+		}
+
+		@Override
+		void set(int row, int value)
+		{
+			buffer.putInt(row * Integer.BYTES, value);
+		}
+
+		@Override
+		void resize(int capacity, int size)
+		{
+			buffer = grow(buffer, (long) capacity * Integer.BYTES, size * Integer.BYTES);
+		}
+
+		@Override
+		void read(ByteBuffer in, int count)
+		{
+			IntBuffer source = in.asIntBuffer();
+			source.limit(count);
+			buffer.asIntBuffer().put(source);
+			in.position(in.position() + count * Integer.BYTES);
+		}
+	}
+
+	private static class HeapLongs extends Longs
+	{
+		private long[] values;
+
+		private HeapLongs(int capacity)
+		{
+			values = new long[capacity];
+		}
+
+		@Override
+		long get(int row)
+		{
+			return values[row];
+		}
+
+		@Override
+		void set(int row, long value)
+		{
+			values[row] = value;
+		}
+
+		@Override
+		void resize(int capacity, int size)
+		{
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void read(ByteBuffer in, int count)
+		{
+			in.asLongBuffer().get(values, 0, count);
+			in.position(in.position() + count * Long.BYTES);
+		}
+	}
+
+	private static class DirectLongs extends Longs
+	{
+		private ByteBuffer buffer;
+
+		private DirectLongs(int capacity)
+		{
+			buffer = allocate((long) capacity * Long.BYTES);
+		}
+
+		@Override
+		long get(int row)
+		{
+			return buffer.getLong(row * Long.BYTES);
+		}
+
+		@Override
+		void set(int row, long value)
+		{
+			buffer.putLong(row * Long.BYTES, value);
+		}
+
+		@Override
+		void resize(int capacity, int size)
+		{
+			buffer = grow(buffer, (long) capacity * Long.BYTES, size * Long.BYTES);
+		}
+
+		@Override
+		void read(ByteBuffer in, int count)
+		{
+			LongBuffer source = in.asLongBuffer();
+			source.limit(count);
+			buffer.asLongBuffer().put(source);
+			in.position(in.position() + count * Long.BYTES);
+		}
+	}
+
+	private static class HeapTexts extends Texts
+	{
+		private String[] values;
+
+		private HeapTexts(int capacity)
+		{
+			values = new String[capacity];
+		}
+
+		@Override
+		String get(int row)
+		{
+			return values[row];
+		}
+
+		@Override
+		void set(int row, String value)
+		{
+			values[row] = value;
+		}
+
+		@Override
+		void resize(int capacity, int size)
+		{
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	private static class DirectTexts extends Texts
+	{
+		private final DirectInts 	offsets;
+		private final DirectInts 	lengths;
+
+		/** UTF-8 bytes of every value, back to back */
+		private ByteBuffer 			arena;
+		private int 				arenaSize;
+
+		private DirectTexts(int capacity)
+		{
+			offsets = new DirectInts(capacity);
+			lengths = new DirectInts(capacity);
+			arena = allocate(capacity * 32L);
+			for(int row = 0; row < capacity; row++)
+			{
+				lengths.set(row, NULL_LENGTH);
+			}
+		}
+
+		/** Synchronized with {@link #set}, which can replace the arena and a row's offset */
+		@Override
+		synchronized String get(int row)
+		{
+			int length = lengths.get(row);
+			if(length == NULL_LENGTH)
+			{
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			ByteBuffer source = arena.duplicate();
+			source.position(offsets.get(row));
+			source.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		synchronized void set(int row, String value)
+		{
+			if(value == null)
+			{
+				lengths.set(row, NULL_LENGTH);
+				return;
+			}
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if(arenaSize + bytes.length > arena.capacity())
+			{
+				long capacity = Math.max(arena.capacity() * 2L, (long) arenaSize + bytes.length);
+				arena = grow(arena, Math.min(capacity, Integer.MAX_VALUE), arenaSize);
+			}
+			ByteBuffer target = arena.duplicate();
+			target.position(arenaSize);
+			target.put(bytes);
+
+			offsets.set(row, arenaSize);
+			lengths.set(row, bytes.length);
+			arenaSize += bytes.length;
+		}
+
+		@Override
+		void resize(int capacity, int size)
+		{
+			offsets.resize(capacity, size);
+			lengths.resize(capacity, size);
+			for(int row = size; row < capacity; row++)
+			{
+				lengths.set(row, NULL_LENGTH);
+			}
+		}
+	}
+}
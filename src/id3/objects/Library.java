@@ -1,61 +1,73 @@
 package id3.objects;
 
-import id3.gui.dialogs.ProgressDialog;
-import id3.main.GUI;
 import id3.main.Program;
-import id3.utils.Utils;
-import org.jaudiotagger.tag.images.Artwork;
-import xmlwise.Plist;
-import xmlwise.XmlParseException;
+import id3.main.Settings;
+import id3.objects.TrackStore.TrackField;
+import id3.utils.Frontend;
+import id3.utils.Progress;
+import id3.utils.ProgressChannel;
 
-import javax.swing.*;
-import java.io.*;
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 /** Stores relevant info from an iTunes
  * Music Library.xml file.
  * <p>
  * The Library xml file is a typical xml schema
  * but with heavy emphasis on element nesting.
- * xmlwise is used to parse the xml file into
- * a nested Map<String, Object>, where the value
- * is often another Map.
+ * {@link LibraryParser} streams the xml file
+ * track by track, so the file itself is never
+ * held in memory.
  * <p>
  * The actual track entries for a given library file
  * are paired with the key "Tracks." Tracks are
- * stored as another nested Map with an arbitrary
+ * stored as another nested dictionary with an arbitrary
  * track ID (int) as the key. The actual fields of
- * the track are also stored as a map, with the field
- * (i.e. song title, rating) being the key and the
- * value being the Map's value.
+ * the track are also stored as a dictionary, with the field
+ * (i.e. song title, rating) being the key.
  * <p>
- * It's worth noting that each field's value also
- * has its type defined in the xml file.
- * Unfortunately, the type is lost when the xml
- * is parsed, so explicit casting is almost always
- * needed to retrieve a field's value.
+ * Parsed tracks are kept in a {@link TrackStore}, which
+ * stores every field as a typed column. Tracks are
+ * addressed by their row in the store.
  */
 public class Library
 {
 	private static final Logger 	LOG 					= Program.LOG;
 	
-	/** Temp file used during xml parsing.
-	 *  @see #prepLibraryFile() 
-	 *  */
-	private static final File 		FILE_TRACKS 			= new File("tracks.txt");
-	
 	/** Naming format used to create unique Artist
 	 * when the artist name is missing from a track.
 	 * @see #createArtistObjects()
 	 */
 	public static final String		UUID_REGEX				= "aa[a-zA-Z0-9]{5}";
+	private static final Pattern 	GENERATED_NAME 			= Pattern.compile(UUID_REGEX);
+	
+	/** Reads album artwork for {@link #locateArtwork()}. Lookups are
+	 * I/O bound, so there are more threads than cores.
+	 */
+	private static final ExecutorService ARTWORK_READERS 	= Executors.newFixedThreadPool(8, r ->
+	{
+		Thread thread = new Thread(r, "Artwork Reader");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	/** iTunes Music Library.xml file to be used for operations */
 	private File 			fileLibrary;
@@ -63,73 +75,323 @@ public class Library
 	/** Music folder as referenced in the library file */
 	private String 			musicFolder;
 	
-	/** Contains all song entries in the library file. This is a nested map,
-	 * where the first key references the track's ID in iTunes and the first
-	 * value returns a map that contains all of that track's information
+	/** Contains all song entries in the library file, one row
+	 * per track, with all of that track's information
 	 * (name, artist, comments, etc.)
 	 */
-	private Map<String, Map> trackEntries;
+	private TrackStore tracks;
 	
-	/** Artist objects, created from trackEntries if necessary.
+	/** Pool shared by every {@link TrackStore} of this library,
+	 * so that updates reuse the String instances of the previous parse.
+	 */
+	private final StringPool strings 	= new StringPool();
+	
+	/** Artist objects, created from tracks if necessary.
 	 * @see #createArtistObjects()
 	 */
 	private ArrayList<Artist> artists = new ArrayList<>();
 	
+	/** Lookup indexes for {@link #artists}, keyed by case folded names.
+	 * See {@link #foldCase(String)}.
+	 */
+	private HashMap<String, Artist> artistIndex 		= new HashMap<>();
+	
+	/** Albums keyed by artist and album name */
+	private HashMap<String, Album> 	albumIndex 			= new HashMap<>();
+	
+	/** First artist (in {@link #artists} order) with an album of a given name, keyed by album name */
+	private HashMap<String, Artist> albumArtistIndex 	= new HashMap<>();
+	
+	/** Position of each artist in {@link #artists} */
+	private IdentityHashMap<Artist, Integer> artistPositions = new IdentityHashMap<>();
+	
+	/** Changes applied by the last {@link #update()} */
+	private ChangeSet 		changeSet;
+	
+	/** Size, last modified time and header hash of the library file
+	 * when it was last read, null if it wasn't read yet
+	 */
+	private LibrarySnapshot.FileKey fileKey;
+	
 	/** Create a new library from the supplied
 	 * file path. All track entries will be read
-	 * from the file and saved to {@link #trackEntries}.
+	 * from the file and saved to {@link #tracks}.
+	 * <p>
+	 * If a {@link LibrarySnapshot} exists for the file, the library
+	 * is restored from it instead. When the file changed since the
+	 * snapshot was saved, only the changes are applied,
+	 * see {@link #update()}. Otherwise the file is parsed and
+	 * a new snapshot is saved in the background.
+	 * <p>
+	 * A stale snapshot is updated before the constructor returns, only
+	 * saving the new snapshot runs in the background. Functions run as
+	 * soon as the library is created, so a library still holding the old
+	 * tracks would write outdated fields to the tags, and would have
+	 * no {@link ChangeSet} for {@link Settings#isChangedTracksOnly}.
 	 * @param libraryPath  iTunes Music Library.xml file path
 	 */
 	public Library(String libraryPath)
 	{
-		ProgressDialog progress = new ProgressDialog("Parsing Library");
-		
 		this.fileLibrary = new File(libraryPath);
-		this.readXml();
-		
-		progress.finishAndClose();
+		switch(LibrarySnapshot.load(this))
+		{
+			case Current :
+				break;
+			case Stale :
+				this.update();
+				break;
+			case Missing :
+				Progress progress = Frontend.get().openProgress("Parsing Library", null);
+				this.readXml();
+				if(tracks != null)
+				{
+					LibrarySnapshot.saveInBackground(this);
+				}
+				progress.finishAndClose();
+				break;
+		}
 	}
 	
-	/** Custom version of java.util.Map's getOrDefault that accommodates
-	 * iTunes Library xml's heavily nested schema.
-	 * @param id  The iTunes "key" int value at the start of each entry in the library file
-	 * @param key  The field being called (i.e. "Artist", "Album", "Genre", etc.)
-	 * @param defaultValue  Value returned if the field referenced by key is
-	 * missing from the library file
-	 * @return  Value {@code Object} if it exists, otherwise defaultValue
+	/** Restores library state read from a {@link LibrarySnapshot}.
+	 * @param musicFolder  Music folder path.
+	 * @param tracks  All track entries.
+	 * @param artists  Artist objects, empty if they weren't created
+	 * when the snapshot was saved.
+	 * @param fileKey  Version of the library file the snapshot was made from.
 	 */
-	public Object getOrDefaultTrackValue(String id, Object key, Object defaultValue)
+	void restore(String musicFolder, TrackStore tracks, ArrayList<Artist> artists, LibrarySnapshot.FileKey fileKey)
 	{
-		return trackEntries.get(id).getOrDefault(key, defaultValue);
+		this.musicFolder = musicFolder;
+		this.tracks = tracks;
+		this.artists = artists;
+		this.fileKey = fileKey;
+		this.indexArtistObjects();
 	}
 	
 	/** Parses the Library xml file, storing all track entries
-	 * on {@link #trackEntries} and saving the music directory
+	 * on {@link #tracks} and saving the music directory
 	 * (if applicable - library must be consolidated)
 	 * to {@link #musicFolder}.
+	 * @see LibraryParser
 	 */
 	public void readXml()
+	{
+		TrackStore store = parseXml();
+		if(store != null)
+		{
+			tracks = store;
+			changeSet = null;
+		}
+	}
+	
+	/** Parses the Library xml file into a new {@link TrackStore}.
+	 * The file is split into chunks that are parsed in parallel,
+	 * see {@link LibraryParser#parseInChunks}.
+	 * @return  Parsed track entries, or null if the file couldn't be parsed.
+	 */
+	private TrackStore parseXml()
 	{
 		try
 		{
-			prepLibraryFile();
-			
-			Map<String, Object> plist = Plist.load(FILE_TRACKS);
+			// Read before parsing, the file may be exported again while it's parsed
+			LibrarySnapshot.FileKey key = LibrarySnapshot.FileKey.of(fileLibrary);
 			
-			musicFolder = (String) plist.get("Music Folder");
-			musicFolder = URI.create(musicFolder).getPath();
+			LibraryParser parser = new LibraryParser(fileLibrary);
+			TrackStore store = TrackStore.merge(parser.parseInChunks(() -> new TrackStore(Settings.isOffHeapTrackStore, strings)));
 			
-			trackEntries = (Map<String, Map>) plist.get("Tracks");
+			if(parser.getMusicFolder() != null)
+			{
+				musicFolder = URI.create(parser.getMusicFolder()).getPath();
+			}
+			fileKey = key;
 			
 			LOG.log(Level.FINE, "Library xml parsed successfully");
+			return store;
 		}
-		catch (XmlParseException | IOException e)
+		catch (XMLStreamException | IOException e)
 		{
-			JOptionPane.showMessageDialog(GUI.frame, "Error parsing library file", "Error", JOptionPane.ERROR_MESSAGE);
+			Frontend.get().showError("Error parsing library file");
+			return null;
 		}
 	}
 	
-	/** Reads {@link #trackEntries} and creates unique 
+	/** @return  True if the library file was modified since it was last read */
+	public boolean isLibraryFileChanged()
+	{
+		return fileKey == null || fileLibrary.length() != fileKey.length
+				|| fileLibrary.lastModified() != fileKey.lastModified;
+	}
+	
+	/** @return  Version of the library file the tracks were read from,
+	 * see {@link LibrarySnapshot}.
+	 */
+	LibrarySnapshot.FileKey getFileKey()
+	{
+		return fileKey;
+	}
+	
+	/** Re-parses the library file and applies only the tracks that
+	 * changed since it was last read.
+	 * <p>
+	 * Tracks are matched between both versions by their identity
+	 * ({@link TrackStore#getIdentity(int)}) and compared by their
+	 * content hash ({@link TrackStore#getHash(int)}). Added, modified
+	 * and removed tracks are recorded in a {@link ChangeSet}, available
+	 * from {@link #getChangeSet()}.
+	 * <p>
+	 * If Artist objects were created, only the {@link Album}s that
+	 * gained or lost tracks are updated. Unchanged tracks keep their
+	 * album, and keep any names generated for them by
+	 * {@link #createArtistObjects()}.
+	 * <p>
+	 * Like {@link #createArtistObjects()}, this locks the library,
+	 * so it never runs while a {@link LibrarySnapshot} is being saved.
+	 */
+	public synchronized void update()
+	{
+		if(tracks == null)
+		{
+			this.readXml();
+			return;
+		}
+		
+		Progress progress = Frontend.get().openProgress("Updating Library", null);
+		TrackStore previous = tracks;
+		TrackStore store = parseXml();
+		if(store == null)
+		{
+			progress.finishAndClose();
+			return;
+		}
+		
+		HashMap<String, Integer> previousRows = new HashMap<>(previous.size() * 4 / 3 + 1);
+		for(int row = 0; row < previous.size(); row++)
+		{
+			previousRows.put(previous.getIdentity(row), row);
+		}
+		
+		// Row of each unchanged track in the new store, -1 if the track was modified or removed
+		int[] movedRows = new int[previous.size()];
+		Arrays.fill(movedRows, -1);
+		
+		ChangeSet changes = new ChangeSet();
+		for(int row = 0; row < store.size(); row++)
+		{
+			Integer previousRow = previousRows.remove(store.getIdentity(row));
+			if(previousRow == null)
+			{
+				changes.addAdded(row);
+			}
+			else if(previous.getHash(previousRow) != store.getHash(row))
+			{
+				changes.addModified(row);
+			}
+			else
+			{
+				movedRows[previousRow] = row;
+				copyGeneratedName(previous, previousRow, store, row, TrackField.Artist);
+				copyGeneratedName(previous, previousRow, store, row, TrackField.Album);
+			}
+		}
+		for(String identity : previousRows.keySet())
+		{
+			changes.addRemoved(identity);
+		}
+		
+		tracks = store;
+		changeSet = changes;
+		if(!artists.isEmpty())
+		{
+			updateArtistObjects(movedRows, changes);
+		}
+		
+		LibrarySnapshot.saveInBackground(this);
+		progress.finishAndClose();
+		LOG.log(Level.FINE, "Library updated: " + changes);
+	}
+	
+	/** Copies a name generated by {@link #createArtistObjects()} to the new version
+	 * of an unchanged track, since generated names aren't in the library file.
+	 */
+	private static void copyGeneratedName(TrackStore previous, int previousRow, TrackStore store, int row,
+			TrackField field)
+	{
+		String name = previous.getString(previousRow, field, null);
+		if(name != null && !store.has(row, field) && isGeneratedName(name))
+		{
+			store.setString(row, field, name);
+		}
+	}
+	
+	/** Moves unchanged tracks to their new rows, drops modified and removed
+	 * tracks from their albums, then adds every added and modified track
+	 * as {@link #createArtistObjects()} would. Albums that gained or lost tracks
+	 * have their fields filled again, so they end up as if they were created
+	 * from scratch. Albums and Artists left without tracks are removed.
+	 * @param movedRows  New row of each previous row, or -1 if the track changed.
+	 * @param changes  Tracks that changed.
+	 */
+	private void updateArtistObjects(int[] movedRows, ChangeSet changes)
+	{
+		Set<Album> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+		for(Iterator<Artist> artistIterator = artists.iterator(); artistIterator.hasNext(); )
+		{
+			Artist artist = artistIterator.next();
+			for(Iterator<Album> albumIterator = artist.getAlbums().iterator(); albumIterator.hasNext(); )
+			{
+				Album album = albumIterator.next();
+				if(album.moveTracks(movedRows))
+				{
+					affected.add(album);
+				}
+				
+				if(album.getCalculatedTrackCount() == 0)
+				{
+					albumIterator.remove();
+				}
+			}
+			if(artist.getAlbums().isEmpty())
+			{
+				artistIterator.remove();
+			}
+		}
+		this.indexArtistObjects();
+		
+		for(int row : changes.getChangedRows())
+		{
+			affected.add(addTrackToArtistObjects(row));
+		}
+		for(Album album : affected)
+		{
+			if(album.getCalculatedTrackCount() != 0)
+			{
+				refillAlbumFields(album);
+			}
+		}
+	}
+	
+	/** Clears an album's fields and fills them again from its remaining
+	 * tracks. Its artwork is searched for again when it's next needed.
+	 */
+	private void refillAlbumFields(Album album)
+	{
+		album.setGenre(null);
+		album.setComposer(null);
+		album.setGrouping(null);
+		album.setComments(null);
+		album.setDiscCount(-1);
+		album.setTrackCount(-1);
+		album.setYear(-1);
+		album.setRating(-1);
+		album.setArtworkRef(null, false);
+		
+		for(int row : album.getTracks())
+		{
+			fillAlbumFields(album, row);
+		}
+	}
+	
+	/** Reads {@link #tracks} and creates unique 
 	 * {@link Artist} and {@link Album} objects based on the
 	 * available tracks. Creation is done by checking literal
 	 * artist and album names to determine if a matching object
@@ -146,204 +408,378 @@ public class Library
 	 * to see if the missing variable can be filled from that track's
 	 * field.
 	 * <p>
-	 * This is a very expensive process. Very few functions
-	 * actually need Artist/Album objects.
+	 * Tracks are first assigned to their artist in track order, comparing
+	 * case folded names only. Each artist and its albums are then built from
+	 * that artist's tracks in parallel, and artists are merged in the order
+	 * their first track appears, so the result is the same as adding one
+	 * track at a time. No files are read: album artwork is only looked up
+	 * when it's needed, see {@link Album#getArtworkRef(TrackStore)}.
+	 * <p>
+	 * The library is locked while Artist objects are created,
+	 * so it never runs while a {@link LibrarySnapshot} is being saved.
+	 * <p>
 	 * {@link id3.gui.functionpanel.FunctionPanel#isRequiresArtistAlbumObjects} must
 	 * be set to true for this method to be called.
 	 * @see id3.gui.functionpanel.panels.CustomFieldsPanel
 	 * @see id3.gui.functionpanel.panels.MissingFieldsPanel
 	 * @see {@literal The functions referenced in above panels}
 	 */
-	public void createArtistObjects()
+	public synchronized void createArtistObjects()
 	{
 		if(!artists.isEmpty())
 		{
 			return;
 		}
 		
-		ProgressDialog progress = new ProgressDialog("Scanning Artists...", getTrackMapEntries().size());
+		Progress progress = Frontend.get().openProgress("Scanning Artists...", null);
+		ProgressChannel channel = progress.getChannel();
+		int size = tracks.size();
 		
-		int progressCounter = 0;
-		for(Entry<String, Map> entry : getTrackMapEntries())
+		channel.beginPhase("Reading Names", size);
+		// Read every track's names, in parallel. Missing names are generated here
+		String[] artistNames = new String[size];
+		String[] albumNames = new String[size];
+		boolean[] isArtistGenerated = new boolean[size];
+		boolean[] isAlbumGenerated = new boolean[size];
+		IntStream.range(0, size).parallel().forEach(row ->
 		{
-			String filelocation = Utils.getFilePathFromTrackEntry(entry);
-			
-			// Artist/Album lookup by name. If either of these are unavailable, a unique string is assigned to them for
-			// identification purposes
-			String artistname = (String) entry.getValue().getOrDefault
-					("Artist", "aa" + UUID.randomUUID().toString().substring(0, 5));
-			String albumname = (String) entry.getValue().getOrDefault
-					("Album", "aa" + UUID.randomUUID().toString().substring(0, 5));
+			String artistname = tracks.getString(row, TrackField.Artist, null);
+			isArtistGenerated[row] = artistname == null || isGeneratedName(artistname);
+			artistNames[row] = artistname != null ? artistname : generateName();
 			
-			if(artistname.matches(UUID_REGEX))
-			{	//If a unique string was used, update track entry
-				entry.getValue().put("Artist", artistname);
-			}
-			if(albumname.matches(UUID_REGEX))
-			{
-				entry.getValue().put("Album", albumname);
-			}
-
-			//If album exists, find missing artist field
-			if(artistname.matches(UUID_REGEX) && !albumname.matches(UUID_REGEX))
+			String albumname = tracks.getString(row, TrackField.Album, null);
+			isAlbumGenerated[row] = albumname == null || isGeneratedName(albumname);
+			albumNames[row] = albumname != null ? albumname : generateName();
+			channel.step();
+		});
+		channel.endPhase();
+		
+		// Assign every track to an artist in track order, since a track missing its artist takes
+		// the artist of the first album with the same name. Only names are compared here
+		HashMap<String, Integer> artistPartitions = new HashMap<>();
+		ArrayList<String> partitionNames = new ArrayList<>();
+		HashSet<String> albumKeys = new HashSet<>();
+		HashMap<String, Integer> albumArtists = new HashMap<>();
+		int[] partitions = new int[size];
+		channel.beginPhase("Grouping Tracks", size);
+		for(int row = 0; row < size; row++)
+		{
+			channel.set(row);
+			String albumKey = foldCase(albumNames[row]);
+			if(isArtistGenerated[row] && !isAlbumGenerated[row])
 			{
-				artistLoop :
-				for(Artist artist : artists)
+				Integer albumArtist = albumArtists.get(albumKey);
+				if(albumArtist != null)
 				{
-					for(Album album : artist.getAlbums())
-					{
-						if(album.getName().equalsIgnoreCase(albumname))
-						{
-							artistname = album.getArtist().getName();
-							entry.getValue().replace("Artist", artistname);
-							break artistLoop;
-						}
-					}
+					artistNames[row] = partitionNames.get(albumArtist);
 				}
 			}
-			
-			Artist artist = null;
-			for(Artist art : artists)
-			{
-				if(art.getName().equalsIgnoreCase(artistname))
-				{
-					artist = art;
-					break;
-				}
+			if(isArtistGenerated[row])
+			{	//If a unique string was used, update track entry
+				tracks.setString(row, TrackField.Artist, artistNames[row]);
 			}
-			if(artist == null)	//Create New Artist from current track entry because none exists
+			if(isAlbumGenerated[row])
 			{
-				artist = new Artist(artistname);
-				artists.add(artist);
+				tracks.setString(row, TrackField.Album, albumNames[row]);
 			}
 			
-			Album album = artist.getAlbum(albumname);
-			if(album == null)	//Create New Album from current track entry
+			String artistKey = foldCase(artistNames[row]);
+			Integer partition = artistPartitions.get(artistKey);
+			if(partition == null)
 			{
-				String genre = (String) entry.getValue().getOrDefault("Genre", null);
-				int disccount = (int) entry.getValue().getOrDefault("Disc Count", -1);
-				int trackcount = (int) entry.getValue().getOrDefault("Track Count", -1);
-				int year = (int) entry.getValue().getOrDefault("Year", -1);
-				String composer = (String) entry.getValue().getOrDefault("Composer", null);
-				String grouping = (String) entry.getValue().getOrDefault("Grouping", null);
-				String comments = (String) entry.getValue().getOrDefault("Comments", null);
-				
-				Artwork artwork = Utils.getArtworkFromID3(filelocation);
-				album = new Album(albumname, artist,
-						genre, disccount, trackcount, year, 
-						composer, grouping, comments, artwork);
-				
-				artist.addAlbum(album);
+				partition = partitionNames.size();
+				artistPartitions.put(artistKey, partition);
+				partitionNames.add(artistNames[row]);
 			}
-			album.addTrack(entry.getKey(), filelocation);
+			partitions[row] = partition;
 			
-			//Attempt to fill empty fields from new entry
-			if(album.getComposer() == null)
-			{
-				album.setComposer((String) entry.getValue().getOrDefault("Composer", null));
-			}
-			if(album.getGrouping() == null)
-			{
-				album.setGrouping((String) entry.getValue().getOrDefault("Grouping", null));
-			}
-			if(album.getComments() == null) 
-			{
-				album.setComments((String) entry.getValue().getOrDefault("Comments", null));
-			}
-			if(album.getGenre() == null)
-			{
-				album.setGenre((String) entry.getValue().getOrDefault("Genre", null));
-			}
-			if(album.getDiscCount() == -1)
+			if(albumKeys.add(artistKey + '\0' + albumKey))
 			{
-				album.setDiscCount((int) entry.getValue().getOrDefault("Disc Count", -1));
+				albumArtists.merge(albumKey, partition, Math::min);
 			}
-			if(album.getTrackCount() == -1)
-			{
-				album.setTrackCount((int) entry.getValue().getOrDefault("Track Count", -1));
-			}
-			if(album.getYear() == -1)
-			{
-				album.setYear((int) entry.getValue().getOrDefault("Year", -1));
-			}
-			if(album.getRating() == -1)
-			{
-				album.setRating((int) entry.getValue().getOrDefault("Rating", -1));
-			}
-			if(album.getArtwork() == null)
+		}
+		channel.endPhase();
+		
+		// Build each artist and its albums from the artist's tracks, in parallel
+		int[][] partitionRows = groupRows(partitions, partitionNames.size());
+		Artist[] built = new Artist[partitionRows.length];
+		channel.beginPhase("Building Artists", partitionRows.length);
+		IntStream.range(0, partitionRows.length).parallel().forEach(partition ->
+		{
+			Artist artist = new Artist(partitionNames.get(partition));
+			HashMap<String, Album> albums = new HashMap<>();
+			for(int row : partitionRows[partition])
 			{
-				Artwork artwork = Utils.getArtworkFromID3(filelocation);
-				album.setArtwork(artwork);
+				Album album = albums.computeIfAbsent(foldCase(albumNames[row]),
+						key -> createAlbum(albumNames[row], artist, row));
+				album.addTrack(row);
+				fillAlbumFields(album, row);
 			}
-			
-			progress.update(progressCounter++);
-		}
+			built[partition] = artist;
+			channel.step();
+		});
+		channel.endPhase();
+		
+		// Artists are merged in the order their first track appears, as if built one track at a time
+		artists.addAll(Arrays.asList(built));
+		this.indexArtistObjects();
 		
+		LibrarySnapshot.saveInBackground(this);
 		progress.finishAndClose();
 		LOG.log(Level.FINE, "Artist objects were created successfully");
 	}
 	
-	/** Splits an iTunes library file into a seperate file that only contains the track data.
-	 * Not only is this for performance (faster xml parsing), but large library files
-	 * (especially those with many playlists) will often fail to read properly otherwise.
+	/** Groups row indexes by partition.
+	 * @param partitions  Partition of each row.
+	 * @param count  Number of partitions.
+	 * @return  Rows of each partition, in ascending order.
 	 */
-	private void prepLibraryFile()
+	private static int[][] groupRows(int[] partitions, int count)
 	{
-		String playlistKey = "	<key>Playlists</key>";
-		StringBuilder sb = new StringBuilder();
-		String line;
-		FileInputStream fis = null;
-		InputStreamReader isr = null;
-		FileOutputStream fos = null;
-		OutputStreamWriter osw = null;
-		BufferedWriter bw = null;
-		BufferedReader br = null;
-		
-		try
+		int[] sizes = new int[count];
+		for(int partition : partitions)
 		{
-			fis = new FileInputStream(fileLibrary);
-			isr = new InputStreamReader(fis, "UTF-8");
-			fos = new FileOutputStream(FILE_TRACKS);
-			osw = new OutputStreamWriter(fos, "UTF-8");
-			br = new BufferedReader(isr);
-			bw = new BufferedWriter(osw);
-			
-			while((line = br.readLine()) != null)
+			sizes[partition]++;
+		}
+		int[][] rows = new int[count][];
+		for(int i = 0; i < count; i++)
+		{
+			rows[i] = new int[sizes[i]];
+			sizes[i] = 0;
+		}
+		for(int row = 0; row < partitions.length; row++)
+		{
+			int partition = partitions[row];
+			rows[partition][sizes[partition]++] = row;
+		}
+		return rows;
+	}
+	
+	/** Looks up the artwork of every album, see {@link Album#getArtworkRef(TrackStore)}.
+	 * Lookups run on a separate I/O executor, so the reads
+	 * of different files overlap.
+	 */
+	public void locateArtwork()
+	{
+		ArrayList<Callable<ArtworkRef>> lookups = new ArrayList<>();
+		for(Artist artist : artists)
+		{
+			for(Album album : artist.getAlbums())
 			{
-				sb.append(line + "\n");
+				lookups.add(() -> album.getArtworkRef(tracks));
 			}
-			
-			String tracks = sb.substring(0, sb.indexOf(playlistKey));
-			tracks = tracks.concat("</dict>	</plist>");	//Needed for proper format, otherwise xml parsing fails
-			
-			bw.write(tracks);
-			bw.flush();
-			
-			LOG.log(Level.FINE, "Tracks file created successfully");
 		}
-		catch (IOException e)
+		
+		try
 		{
-			JOptionPane.showMessageDialog(GUI.frame, "Error while creating Tracks file", "Error", JOptionPane.ERROR_MESSAGE);
-			LOG.log(Level.SEVERE, "Error while creating Tracks file");
-			
+			ARTWORK_READERS.invokeAll(lookups);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/** Adds a single track to its Artist and Album, creating them if
+	 * necessary. See {@link #createArtistObjects()}.
+	 * @param row  Track row.
+	 * @return  The track's album.
+	 */
+	private Album addTrackToArtistObjects(int row)
+	{
+		// Artist/Album lookup by name. If either of these are unavailable, a unique string is assigned to them for
+		// identification purposes
+		String artistname = tracks.getString(row, TrackField.Artist, null);
+		boolean isArtistGenerated = artistname == null || isGeneratedName(artistname);
+		if(artistname == null)
+		{	//If a unique string was used, update track entry
+			artistname = generateName();
+			tracks.setString(row, TrackField.Artist, artistname);
+		}
+		String albumname = tracks.getString(row, TrackField.Album, null);
+		boolean isAlbumGenerated = albumname == null || isGeneratedName(albumname);
+		if(albumname == null)
+		{
+			albumname = generateName();
+			tracks.setString(row, TrackField.Album, albumname);
 		}
-		finally
+		String albumKey = foldCase(albumname);
+
+		//If album exists, find missing artist field
+		if(isArtistGenerated && !isAlbumGenerated)
 		{
-			try
+			Artist albumArtist = albumArtistIndex.get(albumKey);
+			if(albumArtist != null)
 			{
-				br.close();
-				bw.close();
+				artistname = albumArtist.getName();
+				tracks.setString(row, TrackField.Artist, artistname);
 			}
-			catch (IOException e)
+		}
+		
+		String artistKey = foldCase(artistname);
+		Artist artist = artistIndex.get(artistKey);
+		if(artist == null)	//Create New Artist from current track entry because none exists
+		{
+			artist = new Artist(artistname);
+			artistPositions.put(artist, artists.size());
+			artists.add(artist);
+			artistIndex.put(artistKey, artist);
+		}
+		
+		Album album = albumIndex.get(artistKey + '\0' + albumKey);
+		if(album == null)	//Create New Album from current track entry
+		{
+			album = createAlbum(albumname, artist, row);
+			indexAlbum(album);
+		}
+		album.addTrack(row);
+		
+		//Attempt to fill empty fields from new entry
+		fillAlbumFields(album, row);
+		return album;
+	}
+	
+	/** Adds an album to {@link #albumIndex} and, unless an earlier artist
+	 * has an album with the same name, to {@link #albumArtistIndex}.
+	 */
+	private void indexAlbum(Album album)
+	{
+		String albumKey = foldCase(album.getName());
+		albumIndex.put(foldCase(album.getArtist().getName()) + '\0' + albumKey, album);
+		albumArtistIndex.merge(albumKey, album.getArtist(),
+				(current, artist) -> artistPositions.get(current) <= artistPositions.get(artist) ? current : artist);
+	}
+	
+	/** Rebuilds the lookup indexes from {@link #artists}, after
+	 * Artist objects were restored or removed.
+	 */
+	private void indexArtistObjects()
+	{
+		artistIndex.clear();
+		albumIndex.clear();
+		albumArtistIndex.clear();
+		artistPositions.clear();
+		for(Artist artist : artists)
+		{
+			artistPositions.put(artist, artistPositions.size());
+			artistIndex.putIfAbsent(foldCase(artist.getName()), artist);
+			for(Album album : artist.getAlbums())
 			{
-				LOG.log(Level.WARNING, "I/O Stream failed to close after constructing tracks file");
+				indexAlbum(album);
 			}
 		}
 	}
 	
-	public Set<Entry<String, Map>> getTrackMapEntries()
+	/** Case insensitive lookup key, matching names that
+	 * {@link String#equalsIgnoreCase(String)} considers equal.
+	 * Each char is folded on its own, as equalsIgnoreCase compares
+	 * them, so e.g. "Stra&szlig;e" and "STRASSE" stay apart.
+	 */
+	private static String foldCase(String name)
+	{
+		char[] chars = name.toCharArray();
+		for(int i = 0; i < chars.length; i++)
+		{
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+	
+	/** @return  A unique name in {@link #UUID_REGEX}'s format */
+	private static String generateName()
+	{
+		return "aa" + UUID.randomUUID().toString().substring(0, 5);
+	}
+	
+	/** @param name  Artist or album name.
+	 * @return  True if the name was generated by {@link #createArtistObjects()}
+	 * because the track didn't have one.
+	 */
+	public static boolean isGeneratedName(String name)
+	{
+		return GENERATED_NAME.matcher(name).matches();
+	}
+	
+	/** Creates a new album from a track entry, and adds it to the artist.
+	 * @param albumname  Album name.
+	 * @param artist  Artist the album belongs to.
+	 * @param row  Row of the album's first track.
+	 * @return  The new album.
+	 */
+	private Album createAlbum(String albumname, Artist artist, int row)
+	{
+		String genre = tracks.getString(row, TrackField.Genre, null);
+		int disccount = tracks.getInt(row, TrackField.DiscCount, -1);
+		int trackcount = tracks.getInt(row, TrackField.TrackCount, -1);
+		int year = tracks.getInt(row, TrackField.Year, -1);
+		String composer = tracks.getString(row, TrackField.Composer, null);
+		String grouping = tracks.getString(row, TrackField.Grouping, null);
+		String comments = tracks.getString(row, TrackField.Comments, null);
+		
+		Album album = new Album(albumname, artist,
+				genre, disccount, trackcount, year, 
+				composer, grouping, comments);
+		artist.addAlbum(album);
+		return album;
+	}
+	
+	/** Fills an album's empty fields from one of its tracks.
+	 * @param album  Album to fill.
+	 * @param row  Row of a track on the album.
+	 */
+	private void fillAlbumFields(Album album, int row)
+	{
+		if(album.getComposer() == null)
+		{
+			album.setComposer(tracks.getString(row, TrackField.Composer, null));
+		}
+		if(album.getGrouping() == null)
+		{
+			album.setGrouping(tracks.getString(row, TrackField.Grouping, null));
+		}
+		if(album.getComments() == null) 
+		{
+			album.setComments(tracks.getString(row, TrackField.Comments, null));
+		}
+		if(album.getGenre() == null)
+		{
+			album.setGenre(tracks.getString(row, TrackField.Genre, null));
+		}
+		if(album.getDiscCount() == -1)
+		{
+			album.setDiscCount(tracks.getInt(row, TrackField.DiscCount, -1));
+		}
+		if(album.getTrackCount() == -1)
+		{
+			album.setTrackCount(tracks.getInt(row, TrackField.TrackCount, -1));
+		}
+		if(album.getYear() == -1)
+		{
+			album.setYear(tracks.getInt(row, TrackField.Year, -1));
+		}
+		if(album.getRating() == -1)
+		{
+			album.setRating(tracks.getInt(row, TrackField.Rating, -1));
+		}
+	}
+	
+	public TrackStore getTracks()
+	{
+		return tracks;
+	}
+	
+	/** @return  Pool in which this library's track values are interned */
+	StringPool getStringPool()
+	{
+		return strings;
+	}
+	
+	/** @return  Tracks that changed in the last {@link #update()},
+	 * or null if the library was read in full.
+	 */
+	public ChangeSet getChangeSet()
 	{
-		return trackEntries.entrySet();
+		return changeSet;
 	}
 	
 	public ArrayList<Artist> getLibraryArtists()
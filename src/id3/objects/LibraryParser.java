@@ -0,0 +1,576 @@
+package id3.objects;
+
+import id3.main.Program;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Streaming pull parser for iTunes Music Library.xml files.
+ * <p>
+ * The library file is read directly with StAX, one element
+ * at a time. Track entries are handed to a {@link TrackHandler}
+ * as soon as they're read, so the file is never held in memory
+ * as a whole and no temporary copy of it is written to disk.
+ * <p>
+ * Parsing stops at the "Playlists" key. Playlists aren't used
+ * by any function, and on large libraries they make up a
+ * considerable part of the file.
+ * <p>
+ * Field values keep the types defined in the xml file:
+ * {@code <string>} becomes a String, {@code <integer>} an Integer
+ * (or a Long if it won't fit), {@code <real>} a Double,
+ * {@code <true/>}/{@code <false/>} a Boolean, {@code <date>} a Date
+ * and {@code <data>} a byte[].
+ * <p>
+ * {@link #parseInChunks(Supplier)} parses the tracks on all cores instead.
+ * Every track entry is a self-contained {@code <key>/<dict>} pair, so the
+ * "Tracks" dictionary of the memory-mapped file is split into byte ranges at
+ * track boundaries, and each range is parsed by its own reader on the
+ * common {@link ForkJoinPool}.
+ * @see Library#readXml()
+ */
+public class LibraryParser
+{
+	private static final Logger LOG = Program.LOG;
+	
+	/** Receives track entries from a {@link LibraryParser}
+	 * in the order they appear in the library file.
+	 */
+	public interface TrackHandler
+	{
+		/** Called when a new track entry begins.
+		 * @param key  The track's key in the "Tracks" dictionary (its iTunes track ID)
+		 */
+		void startTrack(String key);
+
+		/** Called for every field of the current track entry.
+		 * @param name  Field name (i.e. "Artist", "Rating", etc.)
+		 * @param value  Typed field value
+		 */
+		void field(String name, Object value);
+
+		/** Called once all fields of the current track entry were read. */
+		void endTrack();
+	}
+
+	private static final String KEY_TRACKS 			= "Tracks";
+	private static final String KEY_PLAYLISTS 		= "Playlists";
+	private static final String KEY_MUSIC_FOLDER 	= "Music Folder";
+	
+	private static final byte[] TAG_TRACKS 			= ascii("<key>" + KEY_TRACKS + "</key>");
+	private static final byte[] TAG_PLAYLISTS 		= ascii("<key>" + KEY_PLAYLISTS + "</key>");
+	private static final byte[] TAG_KEY 			= ascii("<key>");
+	private static final byte[] TAG_DICT 			= ascii("<dict>");
+	private static final byte[] TAG_DICT_END 		= ascii("</dict>");
+	private static final byte[] TAG_TRACK_ID 		= ascii("<key>Track ID</key>");
+	
+	/** Files smaller than this are always parsed by a single reader */
+	private static final int 	MIN_CHUNK_BYTES 	= 1 << 20;
+	
+	/** Number of chunks per core, so cores that finish early can pick up more work */
+	private static final int 	CHUNKS_PER_CORE 	= 4;
+
+	/** Library xml file to parse */
+	private final File 		file;
+
+	/** Music folder as referenced in the library file, as a URI string */
+	private String 			musicFolder;
+
+	/** @param file  iTunes Music Library.xml file to parse */
+	public LibraryParser(File file)
+	{
+		this.file = file;
+	}
+
+	/** Parses the library file, passing every track entry to
+	 * the supplied handler.
+	 * @param handler  Receives the parsed track entries.
+	 * @throws IOException  If the file can't be read.
+	 * @throws XMLStreamException  If the file isn't a valid plist.
+	 */
+	public void parse(TrackHandler handler) throws IOException, XMLStreamException
+	{
+		try(InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16))
+		{
+			XMLStreamReader reader = createReader(in);
+			try
+			{
+				findRootDict(reader);
+				readRootDict(reader, handler);
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+	/** Parses the library file like {@link #parse(TrackHandler)}, but
+	 * splits the track entries into chunks that are parsed in parallel.
+	 * Each chunk is passed to its own handler.
+	 * <p>
+	 * If the file is small, or can't be split safely (it isn't UTF-8, it
+	 * has no "Playlists" key after its tracks, or its track entries don't
+	 * start with a "Track ID"), the whole file is passed to a single handler.
+	 * @param handlers  Creates a handler for each chunk.
+	 * @return  Handlers of every chunk, in file order. Concatenated, they
+	 * received every track entry in the order of the library file.
+	 * @throws IOException  If the file can't be read.
+	 * @throws XMLStreamException  If the file isn't a valid plist.
+	 */
+	public <H extends TrackHandler> List<H> parseInChunks(Supplier<H> handlers) throws IOException, XMLStreamException
+	{
+		int cores = ForkJoinPool.getCommonPoolParallelism();
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if(cores < 2 || channel.size() < 2 * MIN_CHUNK_BYTES || channel.size() > Integer.MAX_VALUE)
+			{
+				return parseSingle(handlers);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		int[] bounds = findChunkBounds(buffer, cores * CHUNKS_PER_CORE);
+		if(bounds == null)
+		{
+			LOG.log(Level.FINE, "Library file can't be split, parsing it with a single reader");
+			return parseSingle(handlers);
+		}
+		
+		try(InputStream in = new BufferInputStream(buffer, 0, bounds[0]))
+		{
+			XMLStreamReader reader = createReader(in);
+			try
+			{	// Header values only, the tracks are left to the chunks
+				findRootDict(reader);
+				readRootDict(reader, null);
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		
+		List<Callable<H>> chunks = new ArrayList<>(bounds.length - 1);
+		for(int i = 0; i < bounds.length - 1; i++)
+		{
+			int start = bounds[i];
+			int end = bounds[i + 1];
+			chunks.add(() -> parseChunk(buffer, start, end, handlers.get()));
+		}
+		
+		List<H> results = new ArrayList<>(chunks.size());
+		for(Future<H> future : ForkJoinPool.commonPool().invokeAll(chunks))
+		{
+			try
+			{
+				results.add(future.get());
+			}
+			catch (ExecutionException e)
+			{
+				if(e.getCause() instanceof XMLStreamException)
+				{
+					throw (XMLStreamException) e.getCause();
+				}
+				throw new IOException("Failed to parse library chunk", e.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Library parsing was interrupted");
+			}
+		}
+		LOG.log(Level.FINE, "Library file parsed in " + results.size() + " chunks");
+		return results;
+	}
+	
+	private <H extends TrackHandler> List<H> parseSingle(Supplier<H> handlers) throws IOException, XMLStreamException
+	{
+		H handler = handlers.get();
+		parse(handler);
+		return Collections.singletonList(handler);
+	}
+	
+	/** Parses the track entries in a byte range of the "Tracks" dictionary.
+	 * The range is wrapped in a synthetic root element, since it's a
+	 * sequence of {@code <key>/<dict>} pairs.
+	 */
+	private static <H extends TrackHandler> H parseChunk(ByteBuffer buffer, int start, int end, H handler)
+			throws IOException, XMLStreamException
+	{
+		try(InputStream in = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+				new ByteArrayInputStream(ascii("<chunk>")),
+				new BufferInputStream(buffer, start, end),
+				new ByteArrayInputStream(ascii("</chunk>"))))))
+		{
+			XMLStreamReader reader = createReader(in);
+			try
+			{
+				reader.nextTag();
+				readTracks(reader, handler);
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		return handler;
+	}
+	
+	/** Splits the "Tracks" dictionary into about {@code count} byte ranges,
+	 * each starting on a track's {@code <key>}.
+	 * @param buffer  Library file.
+	 * @param count  Number of ranges to aim for.
+	 * @return  Range boundaries: the first is the start of the first track
+	 * entry, the last is the end of the "Tracks" dictionary. Null if the file
+	 * can't be split.
+	 */
+	private static int[] findChunkBounds(ByteBuffer buffer, int count)
+	{
+		if(!isUtf8(buffer))
+		{
+			return null;
+		}
+		int tracksKey = indexOf(buffer, TAG_TRACKS, 0, buffer.limit());
+		int tracksDict = tracksKey == -1 ? -1 : indexOf(buffer, TAG_DICT, tracksKey, buffer.limit());
+		int playlistsKey = lastIndexOf(buffer, TAG_PLAYLISTS, buffer.limit());
+		int tracksEnd = playlistsKey == -1 ? -1 : lastIndexOf(buffer, TAG_DICT_END, playlistsKey);
+		if(tracksDict == -1 || tracksEnd <= tracksDict)
+		{
+			return null;
+		}
+		
+		int tracksStart = tracksDict + TAG_DICT.length;
+		int chunkBytes = Math.max(MIN_CHUNK_BYTES, (tracksEnd - tracksStart) / count);
+		
+		List<Integer> bounds = new ArrayList<>();
+		bounds.add(tracksStart);
+		for(int offset = tracksStart + chunkBytes; offset < tracksEnd; offset += chunkBytes)
+		{
+			int trackStart = findTrackStart(buffer, offset, tracksEnd);
+			if(trackStart == -1)
+			{
+				break;
+			}
+			if(trackStart > bounds.get(bounds.size() - 1))
+			{
+				bounds.add(trackStart);
+			}
+		}
+		if(bounds.size() == 1)
+		{
+			return null;
+		}
+		bounds.add(tracksEnd);
+		return bounds.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/** Finds the first track entry that starts at or after offset. A track entry
+	 * is recognized by a {@code <dict>} whose first key is "Track ID", and
+	 * starts at the {@code <key>} right before it.
+	 * @return  Offset of the track's key, or -1 if there is none before end.
+	 */
+	private static int findTrackStart(ByteBuffer buffer, int offset, int end)
+	{
+		int dict = offset;
+		while((dict = indexOf(buffer, TAG_DICT, dict, end)) != -1)
+		{
+			int next = dict + TAG_DICT.length;
+			while(next < end && Character.isWhitespace(buffer.get(next)))
+			{
+				next++;
+			}
+			if(startsWith(buffer, TAG_TRACK_ID, next))
+			{
+				int key = lastIndexOf(buffer, TAG_KEY, dict);
+				if(key >= offset)
+				{
+					return key;
+				}
+			}
+			dict = next;
+		}
+		return -1;
+	}
+	
+	/** @return  True if the xml declaration doesn't name an encoding other than UTF-8 */
+	private static boolean isUtf8(ByteBuffer buffer)
+	{
+		int end = indexOf(buffer, ascii("?>"), 0, Math.min(buffer.limit(), 256));
+		if(!startsWith(buffer, ascii("<?xml"), 0) || end == -1)
+		{
+			return false;
+		}
+		byte[] declaration = new byte[end];
+		buffer.duplicate().get(declaration);
+		String text = new String(declaration, StandardCharsets.US_ASCII).toLowerCase();
+		return !text.contains("encoding") || text.contains("utf-8");
+	}
+	
+	private static boolean startsWith(ByteBuffer buffer, byte[] pattern, int offset)
+	{
+		if(offset + pattern.length > buffer.limit())
+		{
+			return false;
+		}
+		for(int i = 0; i < pattern.length; i++)
+		{
+			if(buffer.get(offset + i) != pattern[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** @return  Offset of the first occurrence of pattern in [from, to), or -1 */
+	private static int indexOf(ByteBuffer buffer, byte[] pattern, int from, int to)
+	{
+		for(int i = from; i <= to - pattern.length; i++)
+		{
+			if(buffer.get(i) == pattern[0] && startsWith(buffer, pattern, i))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** @return  Offset of the last occurrence of pattern that starts before end, or -1 */
+	private static int lastIndexOf(ByteBuffer buffer, byte[] pattern, int end)
+	{
+		for(int i = Math.min(end - 1, buffer.limit() - pattern.length); i >= 0; i--)
+		{
+			if(buffer.get(i) == pattern[0] && startsWith(buffer, pattern, i))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static byte[] ascii(String text)
+	{
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	/** Reads a byte range of a {@code ByteBuffer} without copying it */
+	private static class BufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+		
+		private BufferInputStream(ByteBuffer buffer, int start, int end)
+		{
+			this.buffer = buffer.duplicate();
+			this.buffer.position(start).limit(end);
+		}
+		
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+		{
+			if(!buffer.hasRemaining())
+			{
+				return -1;
+			}
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+	
+	/** Creates a reader that doesn't try to resolve
+	 * the Apple plist DTD referenced by every library file.
+	 * @param in  Stream to read from.
+	 * @return  New {@code XMLStreamReader}.
+	 * @throws XMLStreamException  If the reader can't be created.
+	 */
+	private static XMLStreamReader createReader(InputStream in) throws XMLStreamException
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory.createXMLStreamReader(in);
+	}
+
+	/** Moves the reader to the start tag of the top level dictionary.
+	 * @throws XMLStreamException  If the file has no dictionary.
+	 */
+	private static void findRootDict(XMLStreamReader reader) throws XMLStreamException
+	{
+		while(reader.hasNext())
+		{
+			if(reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("dict"))
+			{
+				return;
+			}
+		}
+		throw new XMLStreamException("Library file has no root dictionary");
+	}
+	
+	/** Reads the top level dictionary of the library file.
+	 * Header values are read as they come, tracks are streamed
+	 * to the handler and parsing stops at the playlists.
+	 * If handler is null, parsing stops at the tracks instead.
+	 */
+	private void readRootDict(XMLStreamReader reader, TrackHandler handler) throws XMLStreamException
+	{
+		while(reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+		{
+			String key = reader.getElementText();
+			reader.nextTag();
+
+			switch(key)
+			{
+				case KEY_TRACKS :
+					if(handler == null)
+					{
+						return;
+					}
+					readTracks(reader, handler);
+					break;
+				case KEY_PLAYLISTS :
+					return;
+				case KEY_MUSIC_FOLDER :
+					musicFolder = (String) readValue(reader);
+					break;
+				default :
+					readValue(reader);
+					break;
+			}
+		}
+	}
+
+	/** Reads every track entry of the "Tracks" dictionary.
+	 * The reader must be positioned on the dictionary's start tag.
+	 */
+	private static void readTracks(XMLStreamReader reader, TrackHandler handler) throws XMLStreamException
+	{
+		while(reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+		{
+			String id = reader.getElementText();
+			reader.nextTag();
+			readTrack(reader, id, handler);
+		}
+	}
+
+	/** Reads a single track entry's dictionary.
+	 * The reader must be positioned on the dictionary's start tag.
+	 */
+	private static void readTrack(XMLStreamReader reader, String id, TrackHandler handler) throws XMLStreamException
+	{
+		handler.startTrack(id);
+		while(reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+		{
+			String name = reader.getElementText();
+			reader.nextTag();
+
+			Object value = readValue(reader);
+			if(value != null)
+			{
+				handler.field(name, value);
+			}
+		}
+		handler.endTrack();
+	}
+
+	/** Reads a single plist value. The reader must be positioned
+	 * on the value's start tag and is left on its end tag.
+	 * @return  Typed value, or null for dictionaries and arrays,
+	 * which are skipped.
+	 */
+	private static Object readValue(XMLStreamReader reader) throws XMLStreamException
+	{
+		try
+		{
+			return readTypedValue(reader);
+		}
+		catch (IllegalArgumentException | DateTimeParseException e)
+		{
+			throw new XMLStreamException("Malformed value: " + e.getMessage(), reader.getLocation(), e);
+		}
+	}
+	
+	private static Object readTypedValue(XMLStreamReader reader) throws XMLStreamException
+	{
+		switch(reader.getLocalName())
+		{
+			case "string" :
+				return reader.getElementText();
+			case "integer" :
+				long value = Long.parseLong(reader.getElementText().trim());
+				if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+				{
+					return (int) value;
+				}
+				return value;
+			case "real" :
+				return Double.parseDouble(reader.getElementText().trim());
+			case "true" :
+				reader.getElementText();
+				return Boolean.TRUE;
+			case "false" :
+				reader.getElementText();
+				return Boolean.FALSE;
+			case "date" :
+				return Date.from(Instant.parse(reader.getElementText().trim()));
+			case "data" :
+				return Base64.getMimeDecoder().decode(reader.getElementText());
+			default :
+				skipElement(reader);
+				return null;
+		}
+	}
+
+	/** Skips the current element and all of its children. */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while(depth > 0)
+		{
+			switch(reader.next())
+			{
+				case XMLStreamConstants.START_ELEMENT :
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT :
+					depth--;
+					break;
+			}
+		}
+	}
+
+	/** @return  Music folder as referenced in the library file,
+	 * as a URI string. Null until {@link #parse(TrackHandler)}
+	 * has been called.
+	 */
+	public String getMusicFolder()
+	{
+		return musicFolder;
+	}
+}
@@ -0,0 +1,355 @@
+package id3.objects;
+
+import id3.main.Program;
+import id3.main.Settings;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/** Binary snapshot of a parsed {@link Library}, saved next to Settings.ini.
+ * <p>
+ * A snapshot holds the library's {@link TrackStore} and, once they've been
+ * created, its {@link Artist} and {@link Album} objects. Loading a snapshot
+ * reads the file in one go and copies each column straight into its array,
+ * which is far cheaper than parsing the library xml again. The file isn't
+ * memory-mapped: a mapping can't be released on demand, and Windows won't
+ * replace a file while it's mapped, see {@link #saveInBackground(Library)}.
+ * <p>
+ * A snapshot belongs to one library file and is current while that file's
+ * size, last modified time and the hash of its first {@link #HEADER_BYTES}
+ * bytes still match. iTunes rewrites the library file's "Date" header on
+ * every export, so the header hash changes even if the size and
+ * time happen to match. A snapshot that isn't current is still used as
+ * the base for an incremental update of the library.
+ * <p>
+ * Format (big endian, strings are UTF-8 prefixed by their length, -1 for null):
+ * <li> magic, format version
+ * <li> library path, size, last modified, header hash
+ * <li> music folder
+ * <li> track store columns, in {@link TrackStore.TrackField} order, then track hashes
+ * <li> artist count, then every artist with its albums and their artwork references
+ * <p>
+ * Snapshots are written on a background thread, holding the library's
+ * lock so it can't change halfway through. A snapshot with a
+ * different {@link #VERSION} is treated as stale.
+ * @see Library#Library(String)
+ */
+public final class LibrarySnapshot
+{
+	private static final Logger LOG = Program.LOG;
+
+	private static final int 	MAGIC 			= 0x69443353; // "iD3S"
+
+	/** Format version. Must be increased whenever the format changes. */
+	private static final int 	VERSION 		= 5;
+
+	/** Number of bytes at the start of the library file that are hashed */
+	private static final int 	HEADER_BYTES 	= 64 * 1024;
+
+	/** Saves snapshots one at a time, off the calling thread */
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r ->
+	{
+		Thread thread = new Thread(r, "Snapshot Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private LibrarySnapshot() {}
+
+	/** Size, last modified time and header hash of a library file,
+	 * recorded before the file is parsed, so a snapshot is never
+	 * keyed to a version of the file it wasn't made from.
+	 */
+	static final class FileKey
+	{
+		final long length;
+		final long lastModified;
+		final long hash;
+
+		private FileKey(long length, long lastModified, long hash)
+		{
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		/** Reads the key of a library file as it is now */
+		static FileKey of(File file) throws IOException
+		{
+			long length = file.length();
+			long lastModified = file.lastModified();
+			return new FileKey(length, lastModified, hashHeader(file));
+		}
+
+		boolean matches(FileKey other)
+		{
+			return length == other.length && lastModified == other.lastModified && hash == other.hash;
+		}
+	}
+
+	/** Result of {@link LibrarySnapshot#load(Library)} */
+	public enum Status
+	{
+		/** Library was restored and matches its library file */
+		Current,
+		/** Library was restored, but its library file changed since the snapshot was saved */
+		Stale,
+		/** No usable snapshot exists for the library file, nothing was restored */
+		Missing
+	}
+	
+	/** Restores a library from its snapshot, if a snapshot
+	 * exists for the library's file.
+	 * <p>
+	 * A snapshot of an older export of the same library file is still
+	 * restored, and reported as {@link Status#Stale}. Only the tracks
+	 * that changed since then have to be applied, see {@link Library#update()}.
+	 * @param lib  Library to restore. Its library file must be set.
+	 * @return  Whether the library was restored, and if so,
+	 * whether it still matches its library file.
+	 */
+	public static Status load(Library lib)
+	{
+		File file = Settings.SNAPSHOT_FILE;
+		if(!file.exists())
+		{
+			return Status.Missing;
+		}
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+			while(in.hasRemaining())
+			{
+				if(channel.read(in) == -1)
+				{
+					throw new EOFException("Library snapshot is truncated");
+				}
+			}
+			in.flip();
+
+			FileKey key = readHeader(in, lib.getLibraryFile());
+			if(key == null)
+			{
+				LOG.log(Level.FINE, "Library snapshot belongs to another library file or version");
+				return Status.Missing;
+			}
+			Status status = key.matches(FileKey.of(lib.getLibraryFile())) ? Status.Current : Status.Stale;
+
+			String musicFolder = readString(in);
+			TrackStore tracks = TrackStore.read(in, Settings.isOffHeapTrackStore, lib.getStringPool());
+			ArrayList<Artist> artists = readArtists(in, tracks);
+
+			lib.restore(musicFolder, tracks, artists, key);
+			LOG.log(Level.FINE, "Library restored from snapshot (" + status + ")");
+			return status;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.log(Level.WARNING, "Failed to read library snapshot, library file will be parsed");
+			return Status.Missing;
+		}
+	}
+
+	/** Writes a snapshot of the library on a background thread.
+	 * Any existing snapshot is replaced once the new one is complete.
+	 * @param lib  Library to save.
+	 */
+	public static void saveInBackground(Library lib)
+	{
+		WRITER.execute(() -> save(lib));
+	}
+
+	private static void save(Library lib)
+	{
+		File file = Settings.SNAPSHOT_FILE;
+		File temp = new File(file.getPath() + ".tmp");
+
+		try
+		{
+			// Library can't be modified while it's being written
+			synchronized(lib)
+			{
+				try(DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)))
+				{
+					FileKey key = lib.getFileKey();
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					writeString(out, lib.getLibraryFile().getAbsolutePath());
+					out.writeLong(key.length);
+					out.writeLong(key.lastModified);
+					out.writeLong(key.hash);
+
+					writeString(out, lib.getMusicFolder());
+					lib.getTracks().write(out);
+					writeArtists(out, lib.getLibraryArtists());
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			LOG.log(Level.FINE, "Library snapshot saved");
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "Failed to save library snapshot");
+			temp.delete();
+		}
+	}
+
+	/** Reads the snapshot's header and checks it belongs to the library file.
+	 * @return  Key of the version of the library file the snapshot was made from,
+	 * or null if the snapshot is of another file or format version.
+	 */
+	private static FileKey readHeader(ByteBuffer in, File libraryFile)
+	{
+		if(in.getInt() != MAGIC || in.getInt() != VERSION)
+		{
+			return null;
+		}
+
+		String path = readString(in);
+		FileKey key = new FileKey(in.getLong(), in.getLong(), in.getLong());
+		if(!path.equalsIgnoreCase(libraryFile.getAbsolutePath()))
+		{
+			return null;
+		}
+		return key;
+	}
+
+	/** @return  CRC32 of the first {@link #HEADER_BYTES} bytes of the file */
+	private static long hashHeader(File file) throws IOException
+	{
+		byte[] header = new byte[HEADER_BYTES];
+		int read = 0;
+		try(InputStream in = new FileInputStream(file))
+		{
+			int n;
+			while(read < header.length && (n = in.read(header, read, header.length - read)) != -1)
+			{
+				read += n;
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(header, 0, read);
+		return crc.getValue();
+	}
+
+	private static void writeArtists(DataOutputStream out, ArrayList<Artist> artists) throws IOException
+	{
+		out.writeInt(artists.size());
+		for(Artist artist : artists)
+		{
+			writeString(out, artist.getName());
+			out.writeInt(artist.getRating());
+			out.writeInt(artist.getAlbums().size());
+			for(Album album : artist.getAlbums())
+			{
+				writeString(out, album.getName());
+				writeString(out, album.getGenre());
+				writeString(out, album.getComposer());
+				writeString(out, album.getGrouping());
+				writeString(out, album.getComments());
+				out.writeInt(album.getDiscCount());
+				out.writeInt(album.getTrackCount());
+				out.writeInt(album.getYear());
+				out.writeInt(album.getRating());
+				
+				ArtworkRef artworkRef = album.peekArtworkRef();
+				out.writeBoolean(album.isArtworkSearched());
+				out.writeBoolean(artworkRef != null);
+				if(artworkRef != null)
+				{
+					artworkRef.write(out);
+				}
+
+				int[] rows = album.getTracks();
+				out.writeInt(rows.length);
+				for(int row : rows)
+				{
+					out.writeInt(row);
+				}
+			}
+		}
+	}
+
+	private static ArrayList<Artist> readArtists(ByteBuffer in, TrackStore tracks)
+	{
+		StringPool pool = tracks.getStringPool();
+		int artistCount = in.getInt();
+		ArrayList<Artist> artists = new ArrayList<>(artistCount);
+		for(int i = 0; i < artistCount; i++)
+		{
+			Artist artist = new Artist(pool.intern(readString(in)));
+			artist.setRating(in.getInt());
+
+			int albumCount = in.getInt();
+			for(int j = 0; j < albumCount; j++)
+			{
+				String name = pool.intern(readString(in));
+				String genre = pool.intern(readString(in));
+				String composer = pool.intern(readString(in));
+				String grouping = pool.intern(readString(in));
+				String comments = readString(in);
+				int disccount = in.getInt();
+				int trackcount = in.getInt();
+				int year = in.getInt();
+				int rating = in.getInt();
+
+				Album album = new Album(name, artist, genre, disccount, trackcount, year,
+						composer, grouping, comments);
+				album.setRating(rating);
+				
+				boolean isArtworkSearched = in.get() != 0;
+				ArtworkRef artworkRef = in.get() != 0 ? ArtworkRef.read(in) : null;
+
+				int trackCount = in.getInt();
+				for(int k = 0; k < trackCount; k++)
+				{
+					album.addTrack(in.getInt());
+				}
+				album.setArtworkRef(artworkRef, isArtworkSearched);
+				artist.addAlbum(album);
+			}
+			artists.add(artist);
+		}
+		return artists;
+	}
+
+	/** Writes a length prefixed UTF-8 string, or -1 if the string is null */
+	static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if(value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** Reads a string written by {@link #writeString(DataOutputStream, String)} */
+	static String readString(ByteBuffer in)
+	{
+		int length = in.getInt();
+		if(length == -1)
+		{
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,38 @@
+package id3.objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Library-scoped pool of canonical String instances.
+ * <p>
+ * Every {@link TrackStore} of a {@link Library} interns its dictionary
+ * values here. Equal values then share one instance, whether they appear
+ * in different columns (i.e. artist and album artist), in different parts
+ * of a chunked parse, or in the stores of successive library updates. The
+ * Artist and Album objects take their names and fields from the store,
+ * so they share the same instances.
+ * <p>
+ * Interning is thread safe, so parsers running in parallel can share a pool.
+ */
+public final class StringPool
+{
+	private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+
+	/** @param value  A String, or null.
+	 * @return  The pooled instance equal to value, or null.
+	 */
+	public String intern(String value)
+	{
+		if(value == null)
+		{
+			return null;
+		}
+		String pooled = strings.putIfAbsent(value, value);
+		return pooled != null ? pooled : value;
+	}
+
+	/** @return  Number of distinct pooled values */
+	public int size()
+	{
+		return strings.size();
+	}
+}
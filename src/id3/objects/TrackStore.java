@@ -0,0 +1,748 @@
+package id3.objects;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Column oriented storage for every track entry in a {@link Library}.
+ * <p>
+ * Tracks are addressed by row index (0 to {@link #size()} - 1), and
+ * each {@link TrackField} is stored in its own column:
+ * <li> Integer fields are stored in plain {@code int} arrays.
+ * <li> Fields that repeat across many tracks (artist, album, genre, etc.)
+ * are dictionary encoded: every distinct value is stored once and each
+ * track only keeps an {@code int} code pointing to it.
+ * <li> Fields that are mostly unique (name, comments)
+ * are stored as a plain String column.
+ * <li> File locations are split into their folder, which is dictionary
+ * encoded, and their file name, which is stored as text. The file system
+ * path is only decoded when it's asked for, see {@link #getFilePath(int)}.
+ * <p>
+ * Dictionary values are interned in a {@link StringPool} that can be
+ * shared by every store of a library.
+ * <p>
+ * Columns are kept on the Java heap by default. For very large libraries
+ * they can be kept off-heap instead ({@link #TrackStore(boolean, StringPool)}), which
+ * takes them out of the garbage collector's way, see {@link Columns}.
+ * The accessors behave the same either way.
+ * <p>
+ * Fields that aren't present on a track entry are stored as {@link #NONE}
+ * (integers), -1 (dictionary codes) or null (text), and are reported as
+ * the supplied default value by the accessors.
+ * <p>
+ * A {@code TrackStore} is filled by a {@link LibraryParser}, since it
+ * implements {@link LibraryParser.TrackHandler}. Any field in the library
+ * file that doesn't have a matching {@link TrackField} is dropped, but
+ * every field of a track entry, stored or not, goes into that track's
+ * content hash. Comparing hashes between two parses of a library file
+ * tells which tracks changed, see {@link Library#update()}.
+ */
+public class TrackStore implements LibraryParser.TrackHandler
+{
+	/** Value stored in an integer column when a track doesn't have the field */
+	public static final int NONE 			= Integer.MIN_VALUE;
+
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	/** FNV-1a parameters used for track content hashes */
+	private static final long FNV_OFFSET 	= 0xcbf29ce484222325L;
+	private static final long FNV_PRIME 	= 0x100000001b3L;
+
+	/** How a {@link TrackField} is stored */
+	public enum FieldType
+	{
+		Int, Dictionary, Text, Path
+	}
+
+	/** Track entry fields kept by a {@link TrackStore}.
+	 * Each field is mapped to its key in the library file.
+	 */
+	public enum TrackField
+	{
+		TrackID("Track ID", FieldType.Int),
+		PersistentID("Persistent ID", FieldType.Text),
+		Name("Name", FieldType.Text),
+		Artist("Artist", FieldType.Dictionary),
+		AlbumArtist("Album Artist", FieldType.Dictionary),
+		Album("Album", FieldType.Dictionary),
+		Composer("Composer", FieldType.Dictionary),
+		Grouping("Grouping", FieldType.Dictionary),
+		Genre("Genre", FieldType.Dictionary),
+		Kind("Kind", FieldType.Dictionary),
+		Comments("Comments", FieldType.Text),
+		Location("Location", FieldType.Path),
+		Rating("Rating", FieldType.Int),
+		Year("Year", FieldType.Int),
+		TrackNumber("Track Number", FieldType.Int),
+		TrackCount("Track Count", FieldType.Int),
+		DiscNumber("Disc Number", FieldType.Int),
+		DiscCount("Disc Count", FieldType.Int),
+		BPM("BPM", FieldType.Int),
+		Size("Size", FieldType.Int),
+		TotalTime("Total Time", FieldType.Int);
+
+		private static final HashMap<String, TrackField> BY_KEY = new HashMap<>();
+		static
+		{
+			for(TrackField field : values())
+			{
+				BY_KEY.put(field.key, field);
+			}
+		}
+
+		private final String key;
+		private final FieldType type;
+
+		/** Index of this field's column among the columns of the same type.
+		 * Path fields use a dictionary column for their folder. */
+		private int column;
+		
+		/** Index of the text column holding a path field's file name */
+		private int nameColumn = -1;
+
+		TrackField(final String key, final FieldType type)
+		{
+			this.key = key;
+			this.type = type;
+		}
+
+		/** @return  The field's key as used in the library file */
+		public String getKey()
+		{
+			return key;
+		}
+
+		public FieldType getType()
+		{
+			return type;
+		}
+
+		/** @param key  Key as used in the library file (i.e. "Track Number")
+		 * @return  Matching field, or null if the key isn't stored.
+		 */
+		public static TrackField getEnum(String key)
+		{
+			return BY_KEY.get(key);
+		}
+	}
+
+	private static final int INT_COLUMNS;
+	private static final int DICTIONARY_COLUMNS;
+	private static final int TEXT_COLUMNS;
+	static
+	{
+		int[] counts = new int[FieldType.values().length];
+		for(TrackField field : TrackField.values())
+		{
+			if(field.type == FieldType.Path)
+			{
+				field.column = counts[FieldType.Dictionary.ordinal()]++;
+				field.nameColumn = counts[FieldType.Text.ordinal()]++;
+			}
+			else
+			{
+				field.column = counts[field.type.ordinal()]++;
+			}
+		}
+		INT_COLUMNS = counts[FieldType.Int.ordinal()];
+		DICTIONARY_COLUMNS = counts[FieldType.Dictionary.ordinal()];
+		TEXT_COLUMNS = counts[FieldType.Text.ordinal()];
+	}
+
+	/** A dictionary encoded column's distinct values */
+	private static class Dictionary
+	{
+		private final StringPool 			pool;
+		private String[] 					values 	= new String[64];
+		private int 						size;
+		private HashMap<String, Integer> 	codes 	= new HashMap<>();
+		
+		/** Decoded file system path of each value, for the folders of path fields.
+		 * Filled when a path is first asked for. */
+		private volatile String[] 			paths 	= new String[0];
+
+		private Dictionary(StringPool pool)
+		{
+			this.pool = pool;
+		}
+
+		private int encode(String value)
+		{
+			Integer code = codes.get(value);
+			if(code == null)
+			{
+				if(size == values.length)
+				{
+					values = Arrays.copyOf(values, size * 2);
+				}
+				code = size;
+				values[size++] = pool.intern(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		private String decode(int code)
+		{
+			return values[code];
+		}
+		
+		private String decodePath(int code)
+		{
+			String[] decoded = paths;
+			if(code >= decoded.length)
+			{
+				decoded = Arrays.copyOf(decoded, size);
+				paths = decoded;
+			}
+			String path = decoded[code];
+			if(path == null)
+			{
+				path = URI.create(values[code]).getPath();
+				decoded[code] = path;
+			}
+			return path;
+		}
+	}
+
+	private final boolean 			isOffHeap;
+	private final StringPool 		pool;
+	private Columns.Ints[] 			ints 		= new Columns.Ints[INT_COLUMNS];
+	private Columns.Ints[] 			codes 		= new Columns.Ints[DICTIONARY_COLUMNS];
+	private Columns.Texts[] 		texts 		= new Columns.Texts[TEXT_COLUMNS];
+	private Dictionary[] 			dictionaries = new Dictionary[DICTIONARY_COLUMNS];
+	
+	/** Content hash of each track entry, as read from the library file */
+	private Columns.Longs 			hashes;
+
+	private int capacity;
+	private int size;
+
+	/** Row currently being filled by {@link LibraryParser} */
+	private int currentRow = -1;
+	/** Content hash of the row currently being filled */
+	private long currentHash;
+
+	/** Creates an empty {@code TrackStore} on the Java heap, with its own {@link StringPool} */
+	public TrackStore()
+	{
+		this(false, new StringPool());
+	}
+
+	/** Creates an empty {@code TrackStore}.
+	 * @param isOffHeap  True to keep the columns outside of the Java heap,
+	 * see {@link Columns}. Dictionaries are always kept on the heap.
+	 * @param pool  Pool in which dictionary values are interned.
+	 */
+	public TrackStore(boolean isOffHeap, StringPool pool)
+	{
+		this(INITIAL_CAPACITY, isOffHeap, pool);
+	}
+	
+	private TrackStore(int capacity, boolean isOffHeap, StringPool pool)
+	{
+		this.capacity = capacity;
+		this.isOffHeap = isOffHeap;
+		this.pool = pool;
+		this.hashes = Columns.newLongs(capacity, isOffHeap);
+		for(int i = 0; i < INT_COLUMNS; i++)
+		{
+			ints[i] = Columns.newInts(capacity, isOffHeap);
+		}
+		for(int i = 0; i < DICTIONARY_COLUMNS; i++)
+		{
+			codes[i] = Columns.newInts(capacity, isOffHeap);
+			dictionaries[i] = new Dictionary(pool);
+		}
+		for(int i = 0; i < TEXT_COLUMNS; i++)
+		{
+			texts[i] = Columns.newTexts(capacity, isOffHeap);
+		}
+	}
+
+	/** @return  Number of tracks stored */
+	public int size()
+	{
+		return size;
+	}
+
+	/** @return  Pool in which dictionary values are interned */
+	public StringPool getStringPool()
+	{
+		return pool;
+	}
+
+	/** @return  True if the columns are kept outside of the Java heap */
+	public boolean isOffHeap()
+	{
+		return isOffHeap;
+	}
+
+	/** Adds a new, empty row.
+	 * @return  The new row's index.
+	 */
+	public int addRow()
+	{
+		if(size == capacity)
+		{
+			grow();
+		}
+		for(int i = 0; i < INT_COLUMNS; i++)
+		{
+			ints[i].set(size, NONE);
+		}
+		for(int i = 0; i < DICTIONARY_COLUMNS; i++)
+		{
+			codes[i].set(size, -1);
+		}
+		return size++;
+	}
+
+	private void grow()
+	{
+		capacity *= 2;
+		hashes.resize(capacity, size);
+		for(int i = 0; i < INT_COLUMNS; i++)
+		{
+			ints[i].resize(capacity, size);
+		}
+		for(int i = 0; i < DICTIONARY_COLUMNS; i++)
+		{
+			codes[i].resize(capacity, size);
+		}
+		for(int i = 0; i < TEXT_COLUMNS; i++)
+		{
+			texts[i].resize(capacity, size);
+		}
+	}
+
+	/** @param row  Track row.
+	 * @param field  Field to check.
+	 * @return  True if the track has a value for the field.
+	 */
+	public boolean has(int row, TrackField field)
+	{
+		switch(field.type)
+		{
+			case Int :
+				return ints[field.column].get(row) != NONE;
+			case Dictionary :
+			case Path :
+				return codes[field.column].get(row) != -1;
+			default :
+				return texts[field.column].get(row) != null;
+		}
+	}
+
+	/** Gets an integer field's value.
+	 * @param row  Track row.
+	 * @param field  An integer field.
+	 * @param defaultValue  Returned if the track doesn't have the field.
+	 * @return  The field's value, or defaultValue.
+	 */
+	public int getInt(int row, TrackField field, int defaultValue)
+	{
+		int value = ints[field.column].get(row);
+		return value == NONE ? defaultValue : value;
+	}
+
+	/** Gets a dictionary, text or path field's value. Path
+	 * fields are returned as they are in the library file.
+	 * @param row  Track row.
+	 * @param field  A dictionary, text or path field.
+	 * @param defaultValue  Returned if the track doesn't have the field.
+	 * @return  The field's value, or defaultValue.
+	 */
+	public String getString(int row, TrackField field, String defaultValue)
+	{
+		String value;
+		switch(field.type)
+		{
+			case Dictionary :
+				int code = codes[field.column].get(row);
+				value = code == -1 ? null : dictionaries[field.column].decode(code);
+				break;
+			case Path :
+				int folder = codes[field.column].get(row);
+				value = folder == -1 ? null
+						: dictionaries[field.column].decode(folder) + texts[field.nameColumn].get(row);
+				break;
+			default :
+				value = texts[field.column].get(row);
+				break;
+		}
+		return value == null ? defaultValue : value;
+	}
+	
+	/** Gets the file system path of a track's file. The path is
+	 * decoded from the track's location on every call.
+	 * @param row  Track row.
+	 * @return  The decoded path, or null if the track has no location.
+	 */
+	public String getFilePath(int row)
+	{
+		int column = TrackField.Location.column;
+		int folder = codes[column].get(row);
+		if(folder == -1)
+		{
+			return null;
+		}
+		return dictionaries[column].decodePath(folder)
+				+ decodePercent(texts[TrackField.Location.nameColumn].get(row));
+	}
+	
+	/** Decodes %XX escapes (UTF-8 byte sequences), as {@link URI#getPath()} does */
+	private static String decodePercent(String value)
+	{
+		if(value.indexOf('%') == -1)
+		{
+			return value;
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+		StringBuilder sb = new StringBuilder(value.length());
+		int length = value.length();
+		for(int i = 0; i < length; )
+		{
+			if(value.charAt(i) != '%')
+			{
+				sb.append(value.charAt(i++));
+				continue;
+			}
+			
+			// Consecutive escapes form one UTF-8 sequence
+			bytes.reset();
+			while(i < length && value.charAt(i) == '%')
+			{
+				if(i + 2 >= length)
+				{
+					throw new IllegalArgumentException("Malformed escape in: " + value);
+				}
+				bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+				i += 3;
+			}
+			sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+		}
+		return sb.toString();
+	}
+
+	/** Gets any field's value as text, regardless of its type.
+	 * @param row  Track row.
+	 * @param field  Field to get.
+	 * @return  The field's value as a String, or null if the
+	 * track doesn't have the field.
+	 */
+	public String getText(int row, TrackField field)
+	{
+		if(field.type == FieldType.Int)
+		{
+			int value = ints[field.column].get(row);
+			return value == NONE ? null : String.valueOf(value);
+		}
+		return getString(row, field, null);
+	}
+
+	/** @param row  Track row.
+	 * @param field  An integer field.
+	 * @param value  New value, or {@link #NONE} to clear the field.
+	 */
+	public void setInt(int row, TrackField field, int value)
+	{
+		ints[field.column].set(row, value);
+	}
+
+	/** @param row  Track row.
+	 * @param field  A dictionary, text or path field.
+	 * @param value  New value, or null to clear the field.
+	 */
+	public void setString(int row, TrackField field, String value)
+	{
+		switch(field.type)
+		{
+			case Dictionary :
+				codes[field.column].set(row, value == null ? -1 : dictionaries[field.column].encode(value));
+				break;
+			case Path :
+				int split = value == null ? -1 : value.lastIndexOf('/') + 1;
+				codes[field.column].set(row, value == null ? -1 : dictionaries[field.column].encode(value.substring(0, split)));
+				texts[field.nameColumn].set(row, value == null ? null : value.substring(split));
+				break;
+			default :
+				texts[field.column].set(row, value);
+				break;
+		}
+	}
+
+	/** @param row  Track row.
+	 * @return  Hash of every field in the track's entry in the library
+	 * file. Values set after parsing don't change the hash.
+	 */
+	public long getHash(int row)
+	{
+		return hashes.get(row);
+	}
+	
+	/** Gets the key that identifies a track across
+	 * different exports of the same library.
+	 * @param row  Track row.
+	 * @return  The track's persistent ID, or its track ID if
+	 * the library file doesn't have persistent IDs.
+	 */
+	public String getIdentity(int row)
+	{
+		String id = texts[TrackField.PersistentID.column].get(row);
+		return id != null ? id : String.valueOf(ints[TrackField.TrackID.column].get(row));
+	}
+	
+	/** Concatenates stores that were filled from consecutive
+	 * parts of a library file, see {@link LibraryParser#parseInChunks}.
+	 * Dictionary codes are remapped so the result is the same as a
+	 * single store filled from the whole file.
+	 * @param parts  Stores to concatenate, in file order. They must all
+	 * use the same storage (heap or off-heap) and {@link StringPool}.
+	 * @return  A new store holding every row of every part.
+	 */
+	static TrackStore merge(List<TrackStore> parts)
+	{
+		if(parts.size() == 1)
+		{
+			return parts.get(0);
+		}
+		
+		int total = 0;
+		for(TrackStore part : parts)
+		{
+			total += part.size;
+		}
+		TrackStore first = parts.get(0);
+		TrackStore store = new TrackStore(Math.max(total, INITIAL_CAPACITY), first.isOffHeap, first.pool);
+		
+		for(TrackStore part : parts)
+		{
+			int offset = store.size;
+			for(int row = 0; row < part.size; row++)
+			{
+				for(int i = 0; i < INT_COLUMNS; i++)
+				{
+					store.ints[i].set(offset + row, part.ints[i].get(row));
+				}
+				for(int i = 0; i < TEXT_COLUMNS; i++)
+				{
+					store.texts[i].set(offset + row, part.texts[i].get(row));
+				}
+				store.hashes.set(offset + row, part.hashes.get(row));
+			}
+			for(int i = 0; i < DICTIONARY_COLUMNS; i++)
+			{
+				Dictionary dictionary = part.dictionaries[i];
+				int[] remap = new int[dictionary.size];
+				for(int code = 0; code < dictionary.size; code++)
+				{
+					remap[code] = store.dictionaries[i].encode(dictionary.values[code]);
+				}
+				
+				Columns.Ints from = part.codes[i];
+				Columns.Ints to = store.codes[i];
+				for(int row = 0; row < part.size; row++)
+				{
+					int code = from.get(row);
+					to.set(offset + row, code == -1 ? -1 : remap[code]);
+				}
+			}
+			store.size += part.size;
+		}
+		return store;
+	}
+	
+	/** Writes every column to a snapshot. The snapshot format
+	 * doesn't depend on whether the columns are off-heap.
+	 * @param out  Snapshot being written.
+	 * @throws IOException  If the snapshot can't be written.
+	 * @see LibrarySnapshot
+	 */
+	void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(size);
+		for(TrackField field : TrackField.values())
+		{
+			switch(field.type)
+			{
+				case Int :
+					writeInts(out, ints[field.column]);
+					break;
+				case Dictionary :
+					writeDictionary(out, field.column);
+					break;
+				case Text :
+					writeTexts(out, texts[field.column]);
+					break;
+				case Path :
+					writeDictionary(out, field.column);
+					writeTexts(out, texts[field.nameColumn]);
+					break;
+			}
+		}
+		for(int row = 0; row < size; row++)
+		{
+			out.writeLong(hashes.get(row));
+		}
+	}
+	
+	private void writeInts(DataOutputStream out, Columns.Ints column) throws IOException
+	{
+		for(int row = 0; row < size; row++)
+		{
+			out.writeInt(column.get(row));
+		}
+	}
+	
+	private void writeDictionary(DataOutputStream out, int column) throws IOException
+	{
+		Dictionary dictionary = dictionaries[column];
+		out.writeInt(dictionary.size);
+		for(int i = 0; i < dictionary.size; i++)
+		{
+			LibrarySnapshot.writeString(out, dictionary.values[i]);
+		}
+		writeInts(out, codes[column]);
+	}
+	
+	private void writeTexts(DataOutputStream out, Columns.Texts column) throws IOException
+	{
+		for(int row = 0; row < size; row++)
+		{
+			LibrarySnapshot.writeString(out, column.get(row));
+		}
+	}
+	
+	/** Reads a {@code TrackStore} written by {@link #write(DataOutputStream)}.
+	 * @param in  Snapshot, positioned at the start of the track store.
+	 * @param isOffHeap  True to keep the restored columns outside of the Java heap.
+	 * @param pool  Pool in which dictionary values are interned.
+	 * @return  Restored {@code TrackStore}.
+	 * @see LibrarySnapshot
+	 */
+	static TrackStore read(ByteBuffer in, boolean isOffHeap, StringPool pool)
+	{
+		int size = in.getInt();
+		TrackStore store = new TrackStore(Math.max(size, INITIAL_CAPACITY), isOffHeap, pool);
+		store.size = size;
+		for(TrackField field : TrackField.values())
+		{
+			switch(field.type)
+			{
+				case Int :
+					store.ints[field.column].read(in, size);
+					break;
+				case Dictionary :
+					store.readDictionary(in, field.column);
+					break;
+				case Text :
+					store.readTexts(in, store.texts[field.column]);
+					break;
+				case Path :
+					store.readDictionary(in, field.column);
+					store.readTexts(in, store.texts[field.nameColumn]);
+					break;
+			}
+		}
+		store.hashes.read(in, size);
+		return store;
+	}
+	
+	private void readDictionary(ByteBuffer in, int column)
+	{
+		Dictionary dictionary = dictionaries[column];
+		int count = in.getInt();
+		for(int i = 0; i < count; i++)
+		{
+			dictionary.encode(LibrarySnapshot.readString(in));
+		}
+		codes[column].read(in, size);
+	}
+	
+	private void readTexts(ByteBuffer in, Columns.Texts column)
+	{
+		for(int row = 0; row < size; row++)
+		{
+			column.set(row, LibrarySnapshot.readString(in));
+		}
+	}
+	
+	@Override
+	public void startTrack(String key)
+	{
+		currentRow = addRow();
+		currentHash = FNV_OFFSET;
+	}
+
+	@Override
+	public void field(String name, Object value)
+	{
+		long hash = hash(currentHash, name);
+		if(value instanceof String)
+		{
+			hash = hash(hash, (String) value);
+		}
+		else if(value instanceof byte[])
+		{
+			hash = hash(hash, Arrays.hashCode((byte[]) value));
+		}
+		else
+		{
+			hash = hash(hash, value.hashCode());
+		}
+		currentHash = hash;
+		
+		TrackField field = TrackField.getEnum(name);
+		if(field == null)
+		{
+			return;
+		}
+
+		if(field.type == FieldType.Int)
+		{
+			if(value instanceof Integer)
+			{
+				setInt(currentRow, field, (Integer) value);
+			}
+		}
+		else if(value instanceof String)
+		{
+			setString(currentRow, field, (String) value);
+		}
+	}
+
+	@Override
+	public void endTrack()
+	{
+		hashes.set(currentRow, currentHash);
+		currentRow = -1;
+	}
+	
+	/** 64-bit FNV-1a over the string's characters */
+	private static long hash(long hash, String value)
+	{
+		for(int i = 0; i < value.length(); i++)
+		{
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return (hash ^ 0xffff) * FNV_PRIME; // Separates consecutive values
+	}
+	
+	private static long hash(long hash, int value)
+	{
+		for(int i = 0; i < 4; i++)
+		{
+			hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+			value >>>= 8;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,36 @@
+package id3.utils;
+
+/** Asks a running function to stop.
+ * <p>
+ * The token is cancelled by the user, see {@link id3.gui.dialogs.ProgressDialog},
+ * and checked by the function between files, so a file is never
+ * left half written: a commit that's already running is finished,
+ * commits that haven't started yet are dropped, see
+ * {@link TagWriteExecutor#bind(CancellationToken)}.
+ * <pre>
+ * for(...)
+ * {
+ *     if(token.isCancelled())
+ *     {
+ *         break;
+ *     }
+ *     ...
+ * }
+ * </pre>
+ */
+public class CancellationToken
+{
+	private volatile boolean isCancelled;
+
+	/** Asks the function to stop at the next file */
+	public void cancel()
+	{
+		isCancelled = true;
+	}
+
+	/** @return  True if the function should stop */
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+}
@@ -0,0 +1,65 @@
+package id3.utils;
+
+/** {@link Progress} that's only recorded in its {@link ProgressChannel},
+ * for functions that run without a GUI. Whoever displays it samples
+ * the channel, see {@link Frontend}.
+ */
+public class ChannelProgress implements Progress
+{
+	private final ProgressChannel 	channel = new ProgressChannel(TagWriter::getBytesWritten);
+	private final String 			message;
+	private volatile boolean 		isFinished;
+
+	/** @param message  Describes the function, or null */
+	public ChannelProgress(String message)
+	{
+		this.message = message;
+	}
+
+	@Override
+	public void setDeterminate(int max)
+	{
+		channel.setTotal(max);
+	}
+
+	@Override
+	public void update(int value)
+	{
+		channel.set(value);
+	}
+
+	@Override
+	public void step()
+	{
+		channel.step();
+	}
+
+	@Override
+	public ProgressChannel getChannel()
+	{
+		return channel;
+	}
+
+	@Override
+	public void finish()
+	{
+		isFinished = true;
+	}
+
+	@Override
+	public void finishAndClose()
+	{
+		finish();
+	}
+
+	/** @return  Describes the function, or null */
+	public String getMessage()
+	{
+		return message;
+	}
+
+	public boolean isFinished()
+	{
+		return isFinished;
+	}
+}
@@ -0,0 +1,71 @@
+package id3.utils;
+
+import id3.main.Program;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Shows functions' progress and messages to the user.
+ * <p>
+ * Functions only report through the current frontend, see {@link #get()},
+ * so they can run without creating any AWT component. This default
+ * frontend displays nothing, progress is kept in a {@link ChannelProgress}
+ * and messages are logged. The GUI sets a frontend that opens dialogs,
+ * see {@link id3.gui.dialogs.DialogFrontend}, the headless runner one
+ * that prints to the console, see {@link id3.main.Headless}.
+ */
+public class Frontend
+{
+	protected static final Logger LOG = Program.LOG;
+
+	private static volatile Frontend current = new Frontend();
+
+	/** @return  Frontend functions report to */
+	public static Frontend get()
+	{
+		return current;
+	}
+
+	/** @param frontend  Frontend functions report to, from now on */
+	public static void set(Frontend frontend)
+	{
+		current = frontend;
+	}
+
+	/** Starts showing a function's progress. Call {@link Progress#finish()}
+	 * once the function is done.
+	 * @param message  Describes the function, or null.
+	 * @param token  Cancelled if the user asks the function to stop,
+	 * or null if the function can't be cancelled.
+	 * @return  Progress, indeterminate until its total is set.
+	 */
+	public Progress openProgress(String message, CancellationToken token)
+	{
+		return new ChannelProgress(message);
+	}
+
+	/** @param max  Number of items.
+	 * @param token  See {@link #openProgress(String, CancellationToken)}.
+	 * @return  Determinate progress.
+	 */
+	public Progress openProgress(int max, CancellationToken token)
+	{
+		Progress progress = openProgress(null, token);
+		progress.setDeterminate(max);
+		return progress;
+	}
+
+	/** @param message  Error the user should see */
+	public void showError(String message)
+	{
+		LOG.log(Level.SEVERE, message);
+	}
+
+	/** @param title  What the message is about.
+	 * @param message  Information the user should see.
+	 */
+	public void showMessage(String title, String message)
+	{
+		LOG.log(Level.INFO, title + ": " + message);
+	}
+}
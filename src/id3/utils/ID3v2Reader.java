@@ -0,0 +1,495 @@
+package id3.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Reads individual frames of an ID3v2 tag directly from an mp3 file,
+ * without parsing the whole file with jaudiotagger.
+ * <p>
+ * Only the 10 byte tag header and the frame headers are read while
+ * looking for a frame. Frame contents are skipped until they're asked
+ * for, so finding a frame behind a large picture costs a few small reads.
+ * The mpeg audio frames that follow the tag are never read.
+ * <p>
+ * ID3v2.2, v2.3 and v2.4 tags are supported. Tags using unsynchronisation
+ * and frames that are compressed or encrypted can't be read in place,
+ * {@link #findFrame(String, String...)} throws an {@link UnsupportedTagException}
+ * for them and callers should fall back to jaudiotagger.
+ */
+public final class ID3v2Reader
+{
+	private static final int HEADER_SIZE 		= 10;
+
+	/** Number of bytes of a tag read at once */
+	private static final int WINDOW_SIZE 		= 4 * 1024;
+
+	/** Tag header flags */
+	private static final int FLAG_UNSYNC 		= 0x80;
+	private static final int FLAG_EXTENDED 		= 0x40;
+	private static final int FLAG_FOOTER 		= 0x10;
+
+	/** Frame format flags that change how the frame's content is stored */
+	private static final int V23_ENCODED 		= 0x80 | 0x40 | 0x20;	//compression, encryption, grouping
+	private static final int V24_ENCODED 		= 0x40 | 0x08 | 0x04 | 0x02 | 0x01;	//grouping, compression, encryption, unsync, length
+
+	/** Thrown when a tag or frame is stored in a way that can't be read in place */
+	public static class UnsupportedTagException extends IOException
+	{
+		private UnsupportedTagException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/** Location of a frame in a file */
+	public static class Frame
+	{
+		/** Frame ID (i.e. "APIC", or "PIC" for ID3v2.2) */
+		public final String 	id;
+
+		/** Major version of the tag the frame belongs to (2, 3 or 4) */
+		public final int 		version;
+
+		/** File offset of the frame's header */
+		public final long 		offset;
+
+		/** Size of the frame's content, excluding its header */
+		public final int 		size;
+
+		/** @param id  Frame ID.
+		 * @param version  Major version of the tag.
+		 * @param offset  File offset of the frame's header.
+		 * @param size  Size of the frame's content.
+		 */
+		public Frame(String id, int version, long offset, int size)
+		{
+			this.id = id;
+			this.version = version;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		/** @return  File offset of the frame's content */
+		public long getDataOffset()
+		{
+			return offset + getHeaderSize(version);
+		}
+	}
+
+	/** Version, size and padding of a tag, see {@link ID3v2Reader#readLayout(String)} */
+	public static class Layout
+	{
+		/** Major version of the tag (2, 3 or 4) */
+		public final int 		version;
+
+		/** Size of the tag, including its header, padding and footer */
+		public final int 		size;
+
+		/** Bytes of padding after the last frame */
+		public final int 		padding;
+
+		private Layout(int version, int size, int padding)
+		{
+			this.version = version;
+			this.size = size;
+			this.padding = padding;
+		}
+	}
+
+	/** Called for every frame of a tag by {@link ID3v2Reader#scan(String, FrameVisitor)} */
+	private interface FrameVisitor
+	{
+		/** @param frame  Location of the frame.
+		 * @param isEncoded  True if the frame's content is compressed, encrypted, etc.
+		 * @param window  Window over the tag, to read the frame's content.
+		 * @return  False to stop scanning.
+		 */
+		boolean visit(Frame frame, boolean isEncoded, Window window) throws IOException;
+	}
+
+	/** Buffered view of a tag. Up to {@link #WINDOW_SIZE} bytes are read
+	 * at once, so the headers and content of small frames are usually
+	 * read in a single call. Larger frames are read on their own.
+	 */
+	private static class Window
+	{
+		private final FileChannel 	channel;
+		private final long 			end;
+		private final ByteBuffer 	buffer 	= ByteBuffer.allocate(WINDOW_SIZE);
+
+		/** File offset of the buffer's first byte */
+		private long 				start;
+		private int 				length;
+
+		private Window(FileChannel channel, long end)
+		{
+			this.channel = channel;
+			this.end = end;
+		}
+
+		/** @return  A buffer holding the size bytes at the supplied file
+		 * offset, from index 0. Null if the file ends first.
+		 */
+		private ByteBuffer get(long position, int size) throws IOException
+		{
+			if(position >= start && position + size <= start + length)
+			{
+				return slice(buffer, (int) (position - start), size);
+			}
+			if(size > WINDOW_SIZE)
+			{
+				ByteBuffer large = ByteBuffer.allocate(size);
+				if(!readFully(channel, large, position))
+				{
+					return null;
+				}
+				large.clear();
+				return large;
+			}
+
+			buffer.clear();
+			buffer.limit((int) Math.max(size, Math.min(WINDOW_SIZE, end - position)));
+			start = position;
+			length = 0;
+			if(!readFully(channel, buffer, position))
+			{
+				return null;
+			}
+			length = buffer.limit();
+			return slice(buffer, 0, size);
+		}
+		
+		/** @return  The size bytes of a buffer at the supplied index, from index 0
+		 * of the returned buffer. Same as {@code ByteBuffer.slice(int, int)},
+		 * which doesn't exist before JDK 13.
+		 */
+		private static ByteBuffer slice(ByteBuffer buffer, int index, int size)
+		{
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(index + size);
+			slice.position(index);
+			return slice.slice();
+		}
+	}
+
+	private ID3v2Reader() {}
+
+	/** Finds the first frame with one of the supplied IDs.
+	 * @param path  mp3 file path.
+	 * @param ids  Frame IDs to look for. ID3v2.2 uses 3 character IDs.
+	 * @return  The frame, or null if the file has no ID3v2 tag
+	 * or has none of the frames.
+	 * @throws UnsupportedTagException  If the tag or the frame can't be read in place.
+	 * @throws IOException  If the file can't be read.
+	 */
+	public static Frame findFrame(String path, String... ids) throws IOException
+	{
+		List<String> wanted = Arrays.asList(ids);
+		Frame[] found = new Frame[1];
+		scan(path, (frame, isEncoded, window) ->
+		{
+			if(!wanted.contains(frame.id))
+			{
+				return true;
+			}
+			if(isEncoded)
+			{
+				throw new UnsupportedTagException("Encoded " + frame.id + " frame in " + path);
+			}
+			found[0] = frame;
+			return false;
+		});
+		return found[0];
+	}
+
+	/** Reads the content of the first frame with each of the supplied IDs.
+	 * Other frames are skipped without being read, so only the first part
+	 * of the tag is usually read, in a single call.
+	 * @param path  mp3 file path.
+	 * @param ids  Frame IDs to read. IDs of every tag version can be mixed,
+	 * ID3v2.2 uses 3 character IDs.
+	 * @return  Content of the frames found, by frame ID, or null if
+	 * the file has no ID3v2 tag.
+	 * @throws UnsupportedTagException  If the tag or one of the frames can't be read in place.
+	 * @throws IOException  If the file can't be read.
+	 */
+	public static Map<String, byte[]> readFrames(String path, Set<String> ids) throws IOException
+	{
+		HashMap<String, byte[]> frames = new HashMap<>();
+		boolean hasTag = scan(path, (frame, isEncoded, window) ->
+		{
+			if(ids.contains(frame.id) && !frames.containsKey(frame.id))
+			{
+				if(isEncoded)
+				{
+					throw new UnsupportedTagException("Encoded " + frame.id + " frame in " + path);
+				}
+				ByteBuffer content = window.get(frame.getDataOffset(), frame.size);
+				if(content == null)
+				{
+					return false;
+				}
+				byte[] data = new byte[frame.size];
+				content.get(data);
+				frames.put(frame.id, data);
+			}
+			return frames.size() < ids.size();
+		});
+		return hasTag ? frames : null;
+	}
+
+	/** Reads how a file's ID3v2 tag is laid out. Only frame headers are read.
+	 * @param path  mp3 file path.
+	 * @return  The tag's layout, or null if the file has no ID3v2 tag.
+	 * @throws UnsupportedTagException  If the tag can't be read in place.
+	 * @throws IOException  If the file can't be read.
+	 */
+	public static Layout readLayout(String path) throws IOException
+	{
+		int version;
+		int size;
+		int end;
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			size = readTagSize(channel);
+			if(size == 0)
+			{
+				return null;
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			version = header.get(3);
+			end = HEADER_SIZE + readSyncsafe(header, 6);	// Excluding the footer
+		}
+
+		long[] framesEnd = {HEADER_SIZE};
+		scan(path, (frame, isEncoded, window) ->
+		{
+			framesEnd[0] = frame.getDataOffset() + frame.size;
+			return true;
+		});
+		return new Layout(version, size, (int) (end - framesEnd[0]));
+	}
+
+	/** Decodes the content of a text frame (T000 - TZZZ, except TXXX).
+	 * @param data  Frame content: text encoding, then the text.
+	 * @return  The frame's text. If the frame has several
+	 * null separated values (ID3v2.4), only the first one.
+	 */
+	public static String decodeText(byte[] data)
+	{
+		if(data.length < 2)
+		{
+			return "";
+		}
+		String text = new String(data, 1, data.length - 1, getCharset(data[0]));
+		int end = text.indexOf('\0');
+		return end == -1 ? text : text.substring(0, end);
+	}
+
+	/** @param encoding  Text encoding byte of a frame.
+	 * @return  The encoding's charset. ISO-8859-1 for unknown encodings.
+	 */
+	public static Charset getCharset(int encoding)
+	{
+		switch(encoding)
+		{
+			case 1 :
+				return StandardCharsets.UTF_16;
+			case 2 :
+				return StandardCharsets.UTF_16BE;
+			case 3 :
+				return StandardCharsets.UTF_8;
+			default :
+				return StandardCharsets.ISO_8859_1;
+		}
+	}
+
+	/** Walks the frames of a file's ID3v2 tag, until the visitor stops
+	 * or the tag ends.
+	 * @return  False if the file has no ID3v2 tag.
+	 * @throws UnsupportedTagException  If the tag can't be read in place.
+	 */
+	private static boolean scan(String path, FrameVisitor visitor) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if(!readFully(channel, header, 0) || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3')
+			{
+				return false;
+			}
+
+			int version = header.get(3);
+			int flags = header.get(5) & 0xff;
+			if(version < 2 || version > 4 || (flags & FLAG_UNSYNC) != 0)
+			{
+				throw new UnsupportedTagException("Unsupported ID3v2." + version + " tag in " + path);
+			}
+			long end = HEADER_SIZE + readSyncsafe(header, 6);
+			long position = HEADER_SIZE;
+			Window window = new Window(channel, end);
+
+			if(version > 2 && (flags & FLAG_EXTENDED) != 0)
+			{
+				ByteBuffer extended = window.get(position, 4);
+				if(extended == null)
+				{
+					return true;
+				}
+				// v2.3 size excludes the size field itself, v2.4 size is syncsafe and includes it
+				position += version == 3 ? 4 + extended.getInt(0) : readSyncsafe(extended, 0);
+			}
+
+			int headerSize = getHeaderSize(version);
+			while(position + headerSize <= end)
+			{
+				ByteBuffer frameHeader = window.get(position, headerSize);
+				if(frameHeader == null || frameHeader.get(0) == 0)
+				{
+					return true;	//End of file, or padding
+				}
+
+				byte[] idBytes = new byte[version == 2 ? 3 : 4];
+				for(int i = 0; i < idBytes.length; i++)
+				{
+					idBytes[i] = frameHeader.get(i);
+				}
+				String id = new String(idBytes, StandardCharsets.ISO_8859_1);
+				int size = readFrameSize(frameHeader, version);
+				if(size < 0 || position + headerSize + size > end)
+				{
+					return true;	//Corrupt tag
+				}
+
+				if(!visitor.visit(new Frame(id, version, position, size), isEncoded(frameHeader, version), window))
+				{
+					return true;
+				}
+				position += headerSize + size;
+			}
+			return true;
+		}
+	}
+
+	/** Reads a frame's content.
+	 * @param path  mp3 file path.
+	 * @param frame  Frame found by {@link #findFrame(String, String...)}.
+	 * @return  The frame's content, or null if the file no longer has
+	 * the same frame, of the same size, at the same location.
+	 * @throws IOException  If the file can't be read.
+	 */
+	public static byte[] readFrameData(String path, Frame frame) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			int headerSize = getHeaderSize(frame.version);
+			ByteBuffer buffer = ByteBuffer.allocate(headerSize + frame.size);
+			if(!readFully(channel, buffer, frame.offset))
+			{
+				return null;
+			}
+
+			String id = new String(buffer.array(), 0, frame.id.length(), StandardCharsets.ISO_8859_1);
+			if(!id.equals(frame.id) || readFrameSize(buffer, frame.version) != frame.size
+					|| isEncoded(buffer, frame.version))
+			{
+				return null;
+			}
+
+			byte[] data = new byte[frame.size];
+			buffer.position(headerSize);
+			buffer.get(data);
+			return data;
+		}
+	}
+
+	/** @param channel  Open mp3 file.
+	 * @return  Size of the file's ID3v2 tag, including its header, padding
+	 * and footer, or 0 if the file doesn't start with an ID3v2 tag.
+	 * @throws IOException  If the file can't be read.
+	 */
+	static int readTagSize(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if(!readFully(channel, header, 0) || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3'
+				|| header.get(3) < 2 || header.get(3) > 4)
+		{
+			return 0;
+		}
+		boolean hasFooter = header.get(3) == 4 && (header.get(5) & FLAG_FOOTER) != 0;
+		return HEADER_SIZE + readSyncsafe(header, 6) + (hasFooter ? HEADER_SIZE : 0);
+	}
+
+	private static int getHeaderSize(int version)
+	{
+		return version == 2 ? 6 : 10;
+	}
+
+	/** @return  Size of a frame's content, as stored in its header */
+	private static int readFrameSize(ByteBuffer frameHeader, int version)
+	{
+		switch(version)
+		{
+			case 2 :
+				return (frameHeader.get(3) & 0xff) << 16 | (frameHeader.get(4) & 0xff) << 8
+						| (frameHeader.get(5) & 0xff);
+			case 3 :
+				return frameHeader.getInt(4);
+			default :
+				return readSyncsafe(frameHeader, 4);
+		}
+	}
+
+	/** @return  True if a frame's content is compressed, encrypted, etc., see its header's format flags */
+	private static boolean isEncoded(ByteBuffer frameHeader, int version)
+	{
+		switch(version)
+		{
+			case 2 :
+				return false;
+			case 3 :
+				return (frameHeader.get(9) & V23_ENCODED) != 0;
+			default :
+				return (frameHeader.get(9) & V24_ENCODED) != 0;
+		}
+	}
+
+	/** Reads a 28 bit syncsafe integer (7 bits per byte) */
+	private static int readSyncsafe(ByteBuffer buffer, int index)
+	{
+		int value = 0;
+		for(int i = 0; i < 4; i++)
+		{
+			value = value << 7 | (buffer.get(index + i) & 0x7f);
+		}
+		return value;
+	}
+
+	/** Fills the buffer from the given file position.
+	 * @return  False if the file ends first.
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			if(read == -1)
+			{
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+}
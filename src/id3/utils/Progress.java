@@ -0,0 +1,38 @@
+package id3.utils;
+
+/** Progress of a running function, as seen by the function.
+ * <p>
+ * Opened through {@link Frontend#openProgress(String, CancellationToken)},
+ * so that functions don't depend on how, or whether, progress is displayed.
+ * The GUI shows a {@link id3.gui.dialogs.ProgressDialog}, the headless
+ * runner prints the progress' {@link ProgressChannel}.
+ */
+public interface Progress
+{
+	/** @param max  Number of items, see {@link ProgressChannel#setTotal(long)} */
+	void setDeterminate(int max);
+
+	/** Sets the number of items done, for functions
+	 * that process items one after another.
+	 * @param value  Items done so far.
+	 */
+	void update(int value);
+
+	/** Counts an item as done. Can be called by
+	 * several worker threads at once.
+	 */
+	void step();
+
+	/** @return  Channel the function reports its progress
+	 * and phases to.
+	 */
+	ProgressChannel getChannel();
+
+	/** Marks the function as finished */
+	void finish();
+
+	/** Marks the function as finished, and stops
+	 * displaying its progress right away.
+	 */
+	void finishAndClose();
+}
@@ -0,0 +1,216 @@
+package id3.utils;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/** Progress of a function, reported by its workers and sampled by
+ * whoever displays it, see {@link id3.gui.dialogs.ProgressDialog}.
+ * <p>
+ * Workers count the items they finish with {@link #step()}, a lock-free
+ * increment that any number of threads can call at once. Nothing is
+ * displayed from the workers' threads, the reader samples the channel
+ * every so often, through {@link #getDone()}, {@link #getItemsPerSecond()},
+ * {@link #getBytesPerSecond()} and {@link #getEtaMillis()}.
+ * <p>
+ * A function's steps can be split into phases, such as parsing the library,
+ * building artists and writing tags. Phases can be nested, the counts of
+ * the innermost phase are reported.
+ * <pre>
+ * channel.beginPhase("Writing Tags", tracks.size());
+ * ...
+ * channel.step();		// From any worker thread
+ * ...
+ * channel.endPhase();
+ * </pre>
+ */
+public class ProgressChannel
+{
+	/** Total of a phase whose number of items isn't known */
+	public static final long UNKNOWN = -1;
+
+	private static class Phase
+	{
+		private final String 		name;
+		private final long 			start 		= System.nanoTime();
+		private final long 			startBytes;
+		private final LongAdder 	steps 		= new LongAdder();
+		private volatile long 		position;
+		private volatile long 		total;
+
+		private Phase(String name, long total, long startBytes)
+		{
+			this.name = name;
+			this.total = total;
+			this.startBytes = startBytes;
+		}
+
+		private long getDone()
+		{
+			return Math.max(position, steps.sum());
+		}
+	}
+
+	/** Processed bytes, read whenever rates are sampled */
+	private final LongSupplier 			bytes;
+
+	/** Open phases, innermost first */
+	private final ArrayDeque<Phase> 	phases = new ArrayDeque<>();
+	private volatile Phase 				current;
+
+	/** Creates a channel with a single, unnamed phase.
+	 * @param bytes  Number of bytes processed so far, e.g.
+	 * {@link TagWriter#getBytesWritten()}.
+	 */
+	public ProgressChannel(LongSupplier bytes)
+	{
+		this.bytes = bytes;
+		current = new Phase(null, UNKNOWN, bytes.getAsLong());
+	}
+
+	/** Starts a phase, inside the current one.
+	 * @param name  Shown while the phase runs.
+	 * @param total  Number of items, or {@link #UNKNOWN}.
+	 */
+	public synchronized void beginPhase(String name, long total)
+	{
+		phases.push(current);
+		current = new Phase(name, total, bytes.getAsLong());
+	}
+
+	/** Ends the current phase, returning to the one it was started in */
+	public synchronized void endPhase()
+	{
+		if(!phases.isEmpty())
+		{
+			current = phases.pop();
+		}
+	}
+
+	/** @param total  Number of items of the current phase, or {@link #UNKNOWN} */
+	public void setTotal(long total)
+	{
+		current.total = total;
+	}
+
+	/** Counts an item as done. Can be called from any thread. */
+	public void step()
+	{
+		current.steps.increment();
+	}
+
+	/** Sets the number of items done, for phases run by a single thread.
+	 * @param done  Items done so far.
+	 */
+	public void set(long done)
+	{
+		current.position = done;
+	}
+
+	/** @return  Names of the open phases, outermost first,
+	 * or null if no phase was started.
+	 */
+	public synchronized String getName()
+	{
+		StringBuilder sb = new StringBuilder();
+		Iterator<Phase> it = phases.descendingIterator();
+		while(it.hasNext())
+		{
+			append(sb, it.next().name);
+		}
+		append(sb, current.name);
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	private static void append(StringBuilder sb, String name)
+	{
+		if(name != null)
+		{
+			sb.append(sb.length() == 0 ? name : " > " + name);
+		}
+	}
+
+	/** @return  Items done in the current phase */
+	public long getDone()
+	{
+		return current.getDone();
+	}
+
+	/** @return  Items of the current phase, or {@link #UNKNOWN} */
+	public long getTotal()
+	{
+		return current.total;
+	}
+
+	/** @return  Items done per second, since the current phase began */
+	public long getItemsPerSecond()
+	{
+		Phase phase = current;
+		return perSecond(phase.getDone(), phase.start);
+	}
+
+	/** @return  Bytes processed per second, since the current phase began */
+	public long getBytesPerSecond()
+	{
+		Phase phase = current;
+		return perSecond(bytes.getAsLong() - phase.startBytes, phase.start);
+	}
+
+	/** @return  Estimated time left in the current phase,
+	 * or {@link #UNKNOWN} if it can't be estimated yet.
+	 */
+	public long getEtaMillis()
+	{
+		Phase phase = current;
+		long done = phase.getDone();
+		if(phase.total <= 0 || done == 0)
+		{
+			return UNKNOWN;
+		}
+		long elapsed = System.nanoTime() - phase.start;
+		return Math.max(0, phase.total - done) * (elapsed / 1000000) / done;
+	}
+
+	private static long perSecond(long count, long start)
+	{
+		long elapsed = System.nanoTime() - start;
+		return elapsed <= 0 ? 0 : (long) (count * 1e9 / elapsed);
+	}
+
+	/** @return  Items done and total, rates and time left,
+	 * e.g. {@code 1200/5000, 850/s, 1.2 MB/s, ETA 0:05}
+	 */
+	public String getStats()
+	{
+		long total = getTotal();
+		StringBuilder sb = new StringBuilder().append(getDone());
+		if(total != UNKNOWN)
+		{
+			sb.append('/').append(total);
+		}
+		sb.append(", ").append(getItemsPerSecond()).append("/s");
+
+		long bytesPerSecond = getBytesPerSecond();
+		if(bytesPerSecond > 0)
+		{
+			sb.append(", ").append(formatBytes(bytesPerSecond)).append("/s");
+		}
+		long eta = getEtaMillis();
+		if(eta != UNKNOWN)
+		{
+			long seconds = eta / 1000;
+			sb.append(String.format(", ETA %d:%02d", seconds / 60, seconds % 60));
+		}
+		return sb.toString();
+	}
+
+	private static String formatBytes(long bytes)
+	{
+		if(bytes >= 1024 * 1024)
+		{
+			return String.format("%.1f MB", bytes / (1024.0 * 1024));
+		}
+		return bytes / 1024 + " KB";
+	}
+}
@@ -0,0 +1,222 @@
+package id3.utils;
+
+import id3.main.Program;
+import id3.utils.ID3v2Reader.UnsupportedTagException;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.id3.framebody.FrameBodyTCON;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Selected fields of an audio file, for functions that only read
+ * a few fields of every file.
+ * <p>
+ * Only the fields asked for are read. For mp3 files, their frames are read
+ * in place from the ID3v2 tag with the {@link ID3v2Reader}, without parsing
+ * the mpeg audio or decoding any other frame (artwork, lyrics, etc.). Other
+ * files, tags that can't be read in place, and fields that aren't simple
+ * text frames (i.e. rating, comments) are read with jaudiotagger through
+ * the {@link TagCache}.
+ * <pre>
+ * QuickTag tag = QuickTag.readFields(path, EnumSet.of(FieldKey.ARTIST, FieldKey.ALBUM));
+ * String artist = tag.getFirst(FieldKey.ARTIST);
+ * </pre>
+ */
+public final class QuickTag
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** Part of a "number/total" frame a field is stored in */
+	private static final int WHOLE 		= -1;
+	private static final int NUMBER 	= 0;
+	private static final int TOTAL 		= 1;
+
+	/** Where a field is stored in an ID3v2 tag */
+	private static class FrameField
+	{
+		/** Frame IDs in ID3v2.2, v2.3 and v2.4 tags */
+		private final String[] 	ids;
+		private final int 		part;
+
+		private FrameField(int part, String... ids)
+		{
+			this.ids = ids;
+			this.part = part;
+		}
+	}
+
+	/** Fields that can be read in place */
+	private static final EnumMap<FieldKey, FrameField> FRAME_FIELDS = new EnumMap<>(FieldKey.class);
+	static
+	{
+		FRAME_FIELDS.put(FieldKey.TITLE, 		new FrameField(WHOLE, "TT2", "TIT2", "TIT2"));
+		FRAME_FIELDS.put(FieldKey.ARTIST, 		new FrameField(WHOLE, "TP1", "TPE1", "TPE1"));
+		FRAME_FIELDS.put(FieldKey.ALBUM, 		new FrameField(WHOLE, "TAL", "TALB", "TALB"));
+		FRAME_FIELDS.put(FieldKey.ALBUM_ARTIST, new FrameField(WHOLE, "TP2", "TPE2", "TPE2"));
+		FRAME_FIELDS.put(FieldKey.COMPOSER, 	new FrameField(WHOLE, "TCM", "TCOM", "TCOM"));
+		FRAME_FIELDS.put(FieldKey.GROUPING, 	new FrameField(WHOLE, "TT1", "TIT1", "TIT1"));
+		FRAME_FIELDS.put(FieldKey.GENRE, 		new FrameField(WHOLE, "TCO", "TCON", "TCON"));
+		FRAME_FIELDS.put(FieldKey.YEAR, 		new FrameField(WHOLE, "TYE", "TYER", "TDRC"));
+		FRAME_FIELDS.put(FieldKey.BPM, 			new FrameField(WHOLE, "TBP", "TBPM", "TBPM"));
+		FRAME_FIELDS.put(FieldKey.TRACK, 		new FrameField(NUMBER, "TRK", "TRCK", "TRCK"));
+		FRAME_FIELDS.put(FieldKey.TRACK_TOTAL, 	new FrameField(TOTAL, "TRK", "TRCK", "TRCK"));
+		FRAME_FIELDS.put(FieldKey.DISC_NO, 		new FrameField(NUMBER, "TPA", "TPOS", "TPOS"));
+		FRAME_FIELDS.put(FieldKey.DISC_TOTAL, 	new FrameField(TOTAL, "TPA", "TPOS", "TPOS"));
+	}
+
+	private final EnumSet<FieldKey> 			keys;
+	private final EnumMap<FieldKey, String> 	fields = new EnumMap<>(FieldKey.class);
+
+	private QuickTag(EnumSet<FieldKey> keys)
+	{
+		this.keys = keys;
+	}
+
+	/** Reads some of an audio file's fields, once the file's pending
+	 * commits are written (see {@link TagWriteExecutor}).
+	 * @param path  Audio file path.
+	 * @param keys  Fields to read.
+	 * @return  The file's fields. Fields are empty if the file
+	 * couldn't be read or has no tag.
+	 */
+	public static QuickTag readFields(String path, EnumSet<FieldKey> keys)
+	{
+		TagWriteExecutor.await(path);
+		QuickTag quickTag = new QuickTag(keys);
+		if(path.toLowerCase().endsWith(".mp3") && FRAME_FIELDS.keySet().containsAll(keys))
+		{
+			try
+			{
+				if(quickTag.readFrames(path))
+				{
+					return quickTag;
+				}
+			}
+			catch (UnsupportedTagException e)
+			{
+				LOG.log(Level.FINER, "Can't read tag in place, using jaudiotagger: " + path);
+			}
+			catch (IOException e)
+			{
+				LOG.log(Level.WARNING, "Failed to read tag: " + path);
+				return quickTag;
+			}
+		}
+
+		Tag tag = Utils.getTagFromAudioFile(path);
+		if(tag != null)
+		{
+			for(FieldKey key : keys)
+			{
+				quickTag.fields.put(key, tag.getFirst(key));
+			}
+		}
+		return quickTag;
+	}
+
+	/** @param key  One of the fields that were read.
+	 * @return  The field's value, or an empty string if it isn't set.
+	 * @throws IllegalArgumentException  If the field wasn't read.
+	 */
+	public String getFirst(FieldKey key)
+	{
+		if(!keys.contains(key))
+		{
+			throw new IllegalArgumentException("Field wasn't read: " + key);
+		}
+		String value = fields.get(key);
+		return value == null ? "" : value;
+	}
+
+	/** Reads the fields from the file's ID3v2 tag.
+	 * @return  False if the file has no ID3v2 tag.
+	 */
+	private boolean readFrames(String path) throws IOException
+	{
+		HashSet<String> ids = new HashSet<>();
+		for(FieldKey key : keys)
+		{
+			for(String id : FRAME_FIELDS.get(key).ids)
+			{
+				ids.add(id);
+			}
+		}
+
+		Map<String, byte[]> frames = ID3v2Reader.readFrames(path, ids);
+		if(frames == null)
+		{
+			return false;
+		}
+		for(FieldKey key : keys)
+		{
+			FrameField field = FRAME_FIELDS.get(key);
+			for(String id : field.ids)
+			{
+				byte[] data = frames.get(id);
+				if(data != null)
+				{
+					String value = getPart(ID3v2Reader.decodeText(data), field.part);
+					fields.put(key, key == FieldKey.GENRE ? toGenericGenre(id, value) : value);
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** @return  The number or total of a "number/total" value, or the whole value.
+	 * Leading zeros of the number and total are stripped, as jaudiotagger does,
+	 * i.e. "03/09" gives 3 and 9.
+	 */
+	private static String getPart(String value, int part)
+	{
+		if(part == WHOLE)
+		{
+			return value;
+		}
+		int slash = value.indexOf('/');
+		if(slash == -1)
+		{
+			return part == NUMBER ? stripZeros(value.trim()) : "";
+		}
+		return stripZeros((part == NUMBER ? value.substring(0, slash) : value.substring(slash + 1)).trim());
+	}
+
+	/** @return  A number without its leading zeros, or the value if it isn't a number */
+	private static String stripZeros(String value)
+	{
+		int start = 0;
+		while(start < value.length() - 1 && value.charAt(start) == '0')
+		{
+			start++;
+		}
+		for(int i = start; i < value.length(); i++)
+		{
+			if(!Character.isDigit(value.charAt(i)))
+			{
+				return value;
+			}
+		}
+		return value.substring(start);
+	}
+
+	/** Converts ID3 genre references, i.e. "(17)" or "17", to their
+	 * name, as jaudiotagger does.
+	 */
+	private static String toGenericGenre(String id, String genre)
+	{
+		if(id.length() == 3)
+		{
+			return FrameBodyTCON.convertID3v22GenreToGeneric(genre);
+		}
+		// TCON is the same ID in v2.3 and v2.4, v2.3 references are in parentheses
+		return genre.startsWith("(") ? FrameBodyTCON.convertID3v23GenreToGeneric(genre)
+				: FrameBodyTCON.convertID3v24GenreToGeneric(genre);
+	}
+}
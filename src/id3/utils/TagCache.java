@@ -0,0 +1,218 @@
+package id3.utils;
+
+import id3.main.Program;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.TagField;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Shared, size bounded cache of audio files read by jaudiotagger,
+ * so that running several functions back to back doesn't parse
+ * every file again each time.
+ * <p>
+ * Entries are keyed by file path, and are only valid for the length and
+ * last modified time the file had when it was read. A file that changed
+ * on disk since is read again. Files written through a {@link TagSession}
+ * are cached again as written, files written by
+ * {@link Utils#saveTagToFile(String, Tag)} are dropped.
+ * <p>
+ * The cache holds about {@link #MAX_BYTES} of tag data. The least recently
+ * used files are dropped first.
+ * <p>
+ * Cached files are shared. Tags returned by {@link #get(File)} must not be
+ * edited, a {@link TagSession} takes its file out of the cache with
+ * {@link #take(File)} until it's committed.
+ */
+public final class TagCache
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** Maximum total size of cached tag data */
+	public static final long MAX_BYTES 		= 32L * 1024 * 1024;
+
+	/** Estimated size of an audio file's header and tag objects, besides the tag's fields */
+	private static final long ENTRY_BYTES 	= 2048;
+
+	/** A cached file, valid for the file's length and modified time when it was read */
+	private static class CachedFile
+	{
+		private final AudioFile 	audioFile;
+		private final long 			length;
+		private final long 			lastModified;
+		private final long 			bytes;
+
+		private CachedFile(AudioFile audioFile, long length, long lastModified, long bytes)
+		{
+			this.audioFile = audioFile;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final LinkedHashMap<String, CachedFile> FILES = new LinkedHashMap<>(256, 0.75f, true);
+
+	private static long bytes;
+	private static long hits;
+	private static long misses;
+
+	private TagCache() {}
+
+	/** @param file  Audio file.
+	 * @return  The cached file, or null if it isn't cached or changed since it was read.
+	 * The file's tag is shared and must not be edited.
+	 */
+	public static synchronized AudioFile get(File file)
+	{
+		CachedFile cached = lookup(file);
+		return cached == null ? null : cached.audioFile;
+	}
+
+	/** Removes a file from the cache, so its tag can be edited.
+	 * @param file  Audio file.
+	 * @return  The cached file, or null if it isn't cached or changed since it was read.
+	 * @see #put(AudioFile)
+	 */
+	public static synchronized AudioFile take(File file)
+	{
+		CachedFile cached = lookup(file);
+		if(cached == null)
+		{
+			return null;
+		}
+		remove(file.getPath());
+		return cached.audioFile;
+	}
+
+	/** Caches a file read by jaudiotagger. Its tag must match the file on disk.
+	 * @param audioFile  File as read, or as written.
+	 */
+	public static synchronized void put(AudioFile audioFile)
+	{
+		File file = audioFile.getFile();
+		long[] stat = stat(file);
+		if(stat == null)
+		{
+			return;
+		}
+
+		long size = ENTRY_BYTES + sizeOf(audioFile.getTag());
+		if(size > MAX_BYTES)
+		{
+			return;
+		}
+
+		remove(file.getPath());
+		FILES.put(file.getPath(), new CachedFile(audioFile, stat[0], stat[1], size));
+		bytes += size;
+		for(Iterator<Entry<String, CachedFile>> it = FILES.entrySet().iterator(); bytes > MAX_BYTES && it.hasNext(); )
+		{
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+		}
+	}
+
+	/** Drops a file from the cache, i.e. after it was written.
+	 * @param file  Audio file.
+	 */
+	public static synchronized void invalidate(File file)
+	{
+		remove(file.getPath());
+	}
+
+	/** Drops every cached file */
+	public static synchronized void clear()
+	{
+		FILES.clear();
+		bytes = 0;
+	}
+
+	public static synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public static synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/** @return  Hits, misses, and the number and size of cached files */
+	public static synchronized String getStats()
+	{
+		return hits + " hits, " + misses + " misses, " + FILES.size() + " files, " + bytes / 1024 + " KB";
+	}
+
+	private static CachedFile lookup(File file)
+	{
+		CachedFile cached = FILES.get(file.getPath());
+		if(cached != null)
+		{
+			long[] stat = stat(file);
+			if(stat != null && stat[0] == cached.length && stat[1] == cached.lastModified)
+			{
+				hits++;
+				return cached;
+			}
+			remove(file.getPath());	// Changed on disk
+		}
+		misses++;
+		return null;
+	}
+
+	private static void remove(String path)
+	{
+		CachedFile removed = FILES.remove(path);
+		if(removed != null)
+		{
+			bytes -= removed.bytes;
+		}
+	}
+
+	/** @return  The file's length and last modified time, or null if it can't be read */
+	private static long[] stat(File file)
+	{
+		try
+		{
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return new long[] {attributes.size(), attributes.lastModifiedTime().toMillis()};
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.FINER, "Can't stat file for tag cache: " + file);
+			return null;
+		}
+	}
+
+	/** @return  Total size of the tag's fields */
+	private static long sizeOf(Tag tag)
+	{
+		long size = 0;
+		if(tag == null)
+		{
+			return size;
+		}
+		for(Iterator<TagField> it = tag.getFields(); it.hasNext(); )
+		{
+			try
+			{
+				size += it.next().getRawContent().length;
+			}
+			catch (UnsupportedEncodingException e)
+			{
+				size += ENTRY_BYTES;
+			}
+		}
+		return size;
+	}
+}
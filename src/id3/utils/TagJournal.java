@@ -0,0 +1,612 @@
+package id3.utils;
+
+import id3.main.Program;
+import id3.main.Settings;
+import org.jaudiotagger.tag.FieldKey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/** Write-ahead journal of tag edits, saved next to Settings.ini.
+ * <p>
+ * Every function run from the GUI is an operation, opened with
+ * {@link #begin(String)} and closed with {@link #end()}. Before a
+ * {@link TagSession} writes a file, every field it changes is appended to
+ * the journal as (path, field, old value, new value), where a field that
+ * isn't set has no value, unlike an empty one. Operations are closed
+ * even if their function throws or is cancelled, a cancelled function is
+ * a finished operation that can be undone like any other. An operation that
+ * was never closed was interrupted, i.e. the program crashed or was killed,
+ * and can be rolled back or completed on the next start,
+ * see {@link #getInterruptedOperation()}. The last operations can
+ * also be undone, one by one, see {@link #getLastOperation()}.
+ * Rolling back or completing an operation isn't journaled itself,
+ * it's safe to do again if it's interrupted.
+ * <p>
+ * Records are written to the journal file before the tag is written, so
+ * nothing is lost if the program is killed. They're forced to disk in groups
+ * of {@link #GROUP_RECORDS}, or every {@link #GROUP_MILLIS} ms, rather than
+ * one at a time, so journaling costs next to nothing next to writing the
+ * tags. A power failure can lose the last group.
+ * <p>
+ * Only the text fields functions edit are journaled, see {@link #KEYS}.
+ * Artwork isn't, so embedding or deleting artwork can't be undone.
+ * <p>
+ * Format: records prefixed by their length and CRC32. A record is a type
+ * byte and the operation's ID, followed by:
+ * <li> Begin: name, start time
+ * <li> Edit: path, field key, old value, new value, -1 length for no value
+ * <li> End: nothing
+ * <li> Undone: nothing, the operation was rolled back
+ * <p>
+ * A torn or corrupt record ends the journal. Once the journal grows past
+ * {@link #MAX_BYTES}, it's compacted on the next start to the
+ * operations that can still be rolled back, see {@link #compact()}.
+ */
+public final class TagJournal
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** Journal size above which it's compacted on load */
+	public static final long MAX_BYTES 		= 16L * 1024 * 1024;
+
+	/** Records written between forcing the journal to disk */
+	public static final int GROUP_RECORDS 	= 256;
+	public static final long GROUP_MILLIS 	= 1000;
+
+	private static final byte BEGIN 	= 'B';
+	private static final byte EDIT 		= 'V';
+	private static final byte END 		= 'F';
+	private static final byte UNDONE 	= 'U';
+	
+	/** Edit written before unset and empty fields were told apart, an empty value is an unset field */
+	private static final byte OLD_EDIT 	= 'E';
+
+	/** Fields that are journaled, every text field a function can change */
+	static final FieldKey[] KEYS = {FieldKey.TITLE, FieldKey.ARTIST, FieldKey.ALBUM, FieldKey.ALBUM_ARTIST,
+			FieldKey.COMPOSER, FieldKey.GROUPING, FieldKey.GENRE, FieldKey.COMMENT, FieldKey.YEAR, FieldKey.TRACK,
+			FieldKey.TRACK_TOTAL, FieldKey.DISC_NO, FieldKey.DISC_TOTAL, FieldKey.BPM, FieldKey.RATING, FieldKey.LYRICS};
+
+	/** A field changed by an operation */
+	public static class Edit
+	{
+		public final String 	path;
+		public final FieldKey 	key;
+		/** Field's value before and after the edit, null if the field wasn't set */
+		public final String 	oldValue;
+		public final String 	newValue;
+
+		public Edit(String path, FieldKey key, String oldValue, String newValue)
+		{
+			this.path = path;
+			this.key = key;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+	}
+
+	/** A function run, and the fields it changed */
+	public static class Operation
+	{
+		private final long 				id;
+		private final String 			name;
+		private final long 				time;
+		private final ArrayList<Edit> 	edits = new ArrayList<>();
+		private boolean 				isFinished;
+		private boolean 				isUndone;
+
+		private Operation(long id, String name, long time)
+		{
+			this.id = id;
+			this.name = name;
+			this.time = time;
+		}
+
+		public long getId()
+		{
+			return id;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/** @return  Start time, in epoch milliseconds */
+		public long getTime()
+		{
+			return time;
+		}
+
+		/** @return  Fields changed, in the order they were written */
+		public List<Edit> getEdits()
+		{
+			return edits;
+		}
+
+		/** @return  False if the operation was interrupted */
+		public boolean isFinished()
+		{
+			return isFinished;
+		}
+
+		public boolean isUndone()
+		{
+			return isUndone;
+		}
+
+		/** Gets the values that roll the operation back or complete it.
+		 * @param isRollback  True for the fields' values before the operation,
+		 * false for their values after it.
+		 * @return  Value of every field, by file path, in file order.
+		 * A null value is a field that isn't set, and is deleted.
+		 */
+		public Map<String, Map<FieldKey, String>> getValues(boolean isRollback)
+		{
+			LinkedHashMap<String, Map<FieldKey, String>> values = new LinkedHashMap<>();
+			ListIterator<Edit> it = edits.listIterator(isRollback ? edits.size() : 0);
+			while(isRollback ? it.hasPrevious() : it.hasNext())
+			{
+				// A file edited more than once ends up with its first old, or last new, value
+				Edit edit = isRollback ? it.previous() : it.next();
+				values.computeIfAbsent(edit.path, path -> new LinkedHashMap<>())
+						.put(edit.key, isRollback ? edit.oldValue : edit.newValue);
+			}
+			return values;
+		}
+	}
+
+	private static FileChannel channel;
+	
+	/** Records encoded but not written yet */
+	private static ByteBuffer pending = ByteBuffer.allocate(8192);
+	private static final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+	private static long operation;
+	private static long lastId;
+	private static int unsynced;
+	private static long lastSync;
+
+	private TagJournal() {}
+
+	/** Opens an operation. Edits committed until {@link #end()} are journaled under it.
+	 * Callers close it in a {@code finally} block, so a function that throws
+	 * doesn't leave it open for the edits of the next one.
+	 * <pre>
+	 * TagJournal.begin(name);
+	 * try
+	 * {
+	 *     ...
+	 * }
+	 * finally
+	 * {
+	 *     TagJournal.end();
+	 * }
+	 * </pre>
+	 * @param name  Name of the function, as shown to the user.
+	 */
+	public static synchronized void begin(String name)
+	{
+		long time = System.currentTimeMillis();
+		long id = Math.max(lastId + 1, time);
+		append(BEGIN, id, out ->
+		{
+			writeString(out, name);
+			out.writeLong(time);
+		});
+		if(flush())
+		{
+			operation = id;
+			lastId = id;
+		}
+	}
+
+	/** Closes the current operation, once its pending commits are written */
+	public static void end()
+	{
+		TagWriteExecutor.awaitAll();
+		synchronized(TagJournal.class)
+		{
+			if(operation != 0)
+			{
+				append(END, operation, out -> {});
+				flush();
+				operation = 0;
+				sync();
+			}
+		}
+	}
+
+	/** @return  ID of the current operation, or 0 if none is open */
+	static synchronized long getOperation()
+	{
+		return operation;
+	}
+
+	/** Journals a file's edits, before they're written.
+	 * @param operation  Operation the edits belong to.
+	 * @param edits  Fields changed.
+	 */
+	static synchronized void record(long operation, List<Edit> edits)
+	{
+		for(Edit edit : edits)
+		{
+			append(EDIT, operation, out ->
+			{
+				writeString(out, edit.path);
+				writeString(out, edit.key.name());
+				writeString(out, edit.oldValue);
+				writeString(out, edit.newValue);
+			});
+		}
+		flush();
+		if(unsynced >= GROUP_RECORDS || System.currentTimeMillis() - lastSync >= GROUP_MILLIS)
+		{
+			sync();
+		}
+	}
+
+	/** Marks an operation as rolled back, see {@link #getLastOperation()}
+	 * @param undone  The operation.
+	 */
+	public static synchronized void markUndone(Operation undone)
+	{
+		undone.isUndone = true;
+		append(UNDONE, undone.id, out -> {});
+		flush();
+		sync();
+	}
+
+	/** Marks an interrupted operation as finished, once it was completed
+	 * or the user chose to keep it as is.
+	 * @param op  The operation.
+	 */
+	public static synchronized void markFinished(Operation op)
+	{
+		op.isFinished = true;
+		append(END, op.id, out -> {});
+		flush();
+		sync();
+	}
+
+	/** @return  The last operation that changed any field and wasn't undone,
+	 * or null if there's none. Undoing it then makes the operation
+	 * before it the last one.
+	 */
+	public static Operation getLastOperation()
+	{
+		return getLastOperation(read());
+	}
+	
+	/** @param operations  Every operation in the journal, see {@link #read()}
+	 * @return  The last operation that can be undone, see {@link #getLastOperation()}
+	 */
+	private static Operation getLastOperation(List<Operation> operations)
+	{
+		for(int i = operations.size() - 1; i >= 0; i--)
+		{
+			Operation op = operations.get(i);
+			if(!op.isUndone && !op.edits.isEmpty() && op.id != getOperation())
+			{
+				return op;
+			}
+		}
+		return null;
+	}
+
+	/** @return  The last operation that was interrupted and wasn't rolled
+	 * back since, or null if there's none.
+	 */
+	public static Operation getInterruptedOperation()
+	{
+		ArrayList<Operation> operations = read();
+		for(int i = operations.size() - 1; i >= 0; i--)
+		{
+			Operation op = operations.get(i);
+			if(!op.isFinished && !op.isUndone && !op.edits.isEmpty() && op.id != getOperation())
+			{
+				return op;
+			}
+		}
+		return null;
+	}
+
+	/** Compacts the journal if it's grown past {@link #MAX_BYTES}, keeping
+	 * the interrupted operations and the last operation.
+	 */
+	public static synchronized void compact()
+	{
+		File file = Settings.JOURNAL_FILE;
+		if(file.length() <= MAX_BYTES)
+		{
+			return;
+		}
+
+		ArrayList<Operation> operations = read();
+		Operation last = getLastOperation(operations);
+		File temp = new File(file.getPath() + ".tmp");
+		close();
+		try(FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			channel = out;
+			for(Operation op : operations)
+			{
+				if(op == last || (!op.isFinished && !op.isUndone))
+				{
+					rewrite(op);
+				}
+			}
+			out.force(false);
+			channel = null;
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			LOG.log(Level.FINE, "Tag journal compacted");
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "Failed to compact tag journal");
+			channel = null;
+			temp.delete();
+		}
+	}
+
+	private static void rewrite(Operation op)
+	{
+		append(BEGIN, op.id, out ->
+		{
+			writeString(out, op.name);
+			out.writeLong(op.time);
+		});
+		record(op.id, op.edits);
+		if(op.isFinished)
+		{
+			append(END, op.id, out -> {});
+		}
+		flush();
+	}
+
+	/** @return  Every operation in the journal, in the order they were begun */
+	private static ArrayList<Operation> read()
+	{
+		synchronized(TagJournal.class)
+		{
+			sync();
+		}
+
+		LinkedHashMap<Long, Operation> operations = new LinkedHashMap<>();
+		File file = Settings.JOURNAL_FILE;
+		if(!file.exists())
+		{
+			return new ArrayList<>();
+		}
+
+		ByteBuffer in;
+		try
+		{
+			in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "Failed to read tag journal");
+			return new ArrayList<>();
+		}
+
+		CRC32 crc = new CRC32();
+		try
+		{
+			while(in.remaining() >= 8)
+			{
+				int length = in.getInt();
+				int checksum = in.getInt();
+				if(length < 9 || length > in.remaining())
+				{
+					break;
+				}
+				crc.reset();
+				crc.update(in.array(), in.position(), length);
+				if((int) crc.getValue() != checksum)
+				{
+					break;
+				}
+
+				ByteBuffer record = in.slice();
+				record.limit(length);
+				in.position(in.position() + length);
+
+				byte type = record.get();
+				long id = record.getLong();
+				if(type == BEGIN)
+				{
+					String name = readString(record);
+					operations.put(id, new Operation(id, name, record.getLong()));
+					synchronized(TagJournal.class)
+					{
+						lastId = Math.max(lastId, id);
+					}
+					continue;
+				}
+
+				Operation op = operations.get(id);
+				if(op == null)
+				{
+					continue;
+				}
+				switch(type)
+				{
+					case EDIT :
+					case OLD_EDIT :
+						String path = readString(record);
+						FieldKey key = FieldKey.valueOf(readString(record));
+						String oldValue = readString(record);
+						String newValue = readString(record);
+						if(type == OLD_EDIT)
+						{
+							oldValue = oldValue.isEmpty() ? null : oldValue;
+							newValue = newValue.isEmpty() ? null : newValue;
+						}
+						op.edits.add(new Edit(path, key, oldValue, newValue));
+						break;
+					case END :
+						op.isFinished = true;
+						break;
+					case UNDONE :
+						op.isUndone = true;
+						break;
+				}
+			}
+		}
+		catch (BufferUnderflowException | IllegalArgumentException e)
+		{
+			LOG.log(Level.WARNING, "Tag journal is corrupt, read up to the corrupt record");
+		}
+		return new ArrayList<>(operations.values());
+	}
+
+	private interface RecordWriter
+	{
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/** Encodes a record, to be written by {@link #flush()} */
+	private static void append(byte type, long id, RecordWriter writer)
+	{
+		recordBytes.reset();
+		try
+		{
+			DataOutputStream out = new DataOutputStream(recordBytes);
+			out.writeByte(type);
+			out.writeLong(id);
+			writer.write(out);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);	// Not thrown by an in-memory stream
+		}
+
+		byte[] record = recordBytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		if(pending.remaining() < record.length + 8)
+		{
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length + 8));
+			pending.flip();
+			pending = grown.put(pending);
+		}
+		pending.putInt(record.length).putInt((int) crc.getValue()).put(record);
+		unsynced++;
+	}
+
+	/** Writes the encoded records to the journal, opening it if needed.
+	 * A file's records are written at once, before its tag is.
+	 * @return  False if the journal couldn't be written.
+	 */
+	private static boolean flush()
+	{
+		pending.flip();
+		try
+		{
+			if(channel == null)
+			{
+				channel = FileChannel.open(Settings.JOURNAL_FILE.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+				lastSync = System.currentTimeMillis();
+			}
+			while(pending.hasRemaining())
+			{
+				channel.write(pending);
+			}
+			return true;
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.SEVERE, "Failed to write tag journal");
+			return false;
+		}
+		finally
+		{
+			pending.clear();
+		}
+	}
+
+	/** Forces the journal's records to disk */
+	private static void sync()
+	{
+		if(channel == null || unsynced == 0)
+		{
+			return;
+		}
+		try
+		{
+			channel.force(false);
+		}
+		catch (IOException e)
+		{
+			LOG.log(Level.WARNING, "Failed to sync tag journal");
+		}
+		unsynced = 0;
+		lastSync = System.currentTimeMillis();
+	}
+
+	private static void close()
+	{
+		if(channel != null)
+		{
+			sync();
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				LOG.log(Level.WARNING, "Failed to close tag journal");
+			}
+			channel = null;
+		}
+	}
+
+	/** Writes a length prefixed UTF-8 string, or -1 if the string is null */
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if(value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in)
+	{
+		int length = in.getInt();
+		if(length == -1)
+		{
+			return null;
+		}
+		if(length < 0 || length > in.remaining())
+		{
+			throw new IllegalArgumentException("Bad string length: " + length);
+		}
+		String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+}
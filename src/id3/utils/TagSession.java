@@ -0,0 +1,473 @@
+package id3.utils;
+
+import id3.main.Program;
+import id3.main.Settings;
+import id3.objects.TrackStore;
+import id3.utils.TagJournal.Edit;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.audio.exceptions.CannotReadException;
+import org.jaudiotagger.audio.exceptions.CannotWriteException;
+import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
+import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.KeyNotFoundException;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.TagException;
+import org.jaudiotagger.tag.TagField;
+import org.jaudiotagger.tag.id3.ID3v23Tag;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** A single edit of an audio file's tag.
+ * <p>
+ * The file is read once, when the session is opened. Its tag is edited
+ * through {@link #getTag()}, then written back by {@link #commit()}
+ * through the same {@code AudioFile} handle, so the file isn't read
+ * a second time before it's written.
+ * <p>
+ * The raw content of every tag field is recorded when the file is read.
+ * On commit, fields are compared with what was read, and the file is
+ * only written if a field was actually added, changed or removed. Running
+ * a function again over files it already fixed doesn't write anything.
+ * <pre>
+ * TagSession session = TagSession.open(tracks, row);
+ * session.getTag().setField(FieldKey.TITLE, title);
+ * session.commit();
+ * </pre>
+ * Several functions can edit a file in a single session, see
+ * {@link #batch(Runnable)}: the file is read by the first of them
+ * and written once, after the last.
+ */
+public class TagSession
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** Session shared by the edits of a batch, see {@link #batch(Runnable)} */
+	private static class Batch
+	{
+		private TagSession 							session;
+		private boolean 							isSubmitted;
+		private final CompletableFuture<Boolean> 	commit = new CompletableFuture<>();
+	}
+
+	/** Batch running on the current thread, if any */
+	private static final ThreadLocal<Batch> BATCH = new ThreadLocal<>();
+
+	private final String 		path;
+
+	/** The file as read when the session was opened, or null if it couldn't be read */
+	private final AudioFile 	audioFile;
+	private Tag 				tag;
+	
+	/** Raw content of every field of the tag as read, by field ID */
+	private final Map<String, List<ByteBuffer>> original;
+	
+	/** Journal operation the session was opened in, or 0, see {@link TagJournal} */
+	private final long 							operation;
+	
+	/** Value of every journaled field as read, null if the session isn't journaled */
+	private final EnumMap<FieldKey, String> 	originalValues;
+	
+	/** Why the last commit failed, or null */
+	private Exception 							failure;
+
+	private TagSession(String path, AudioFile audioFile, Tag tag)
+	{
+		this.path = path;
+		this.audioFile = audioFile;
+		this.tag = tag;
+		this.original = readFields(tag);
+		this.operation = TagJournal.getOperation();
+		this.originalValues = operation == 0 ? null : readValues(tag);
+	}
+
+	/** Reads an audio file and its tag. A file in the {@link TagCache}
+	 * is taken out of it until the session is committed. Waits for
+	 * the file's pending commits first, see {@link TagWriteExecutor}.
+	 * @param path  File path of the audio file.
+	 * @return  A session for the file. Its tag is null if the
+	 * file couldn't be read or doesn't have a tag.
+	 */
+	public static TagSession open(String path)
+	{
+		TagSession batched = getBatched(path);
+		if(batched != null)
+		{
+			return batched;
+		}
+		
+		AudioFile audioFile = null;
+		Tag tag = null;
+		try
+		{
+			TagWriteExecutor.await(path);
+			File file = new File(path);
+			audioFile = TagCache.take(file);
+			if(audioFile == null)
+			{
+				audioFile = AudioFileIO.read(file);
+			}
+			tag = audioFile.getTag();
+		}
+		catch (CannotReadException | IOException
+				| ReadOnlyFileException e)
+		{
+			LOG.log(Level.SEVERE, "Failed to read file: " + path);
+		}
+		catch (TagException | InvalidAudioFrameException e)
+		{
+			LOG.log(Level.WARNING, "Error reading tag: " + path);
+		}
+		catch (StringIndexOutOfBoundsException ex)
+		{
+			// do nothing : bug w/ JAudioTagger, sometimes throws this ex
+		}
+		
+		TagSession session = new TagSession(path, audioFile, tag);
+		Batch batch = BATCH.get();
+		if(batch != null && batch.session == null)
+		{
+			batch.session = session;
+		}
+		return session;
+	}
+
+	/** Reads a track's audio file. If the tag is empty or doesn't exist,
+	 * a new one is created and filled with the iTunes Track Entry.
+	 * <p>
+	 * An existing tag is only filled with the track entry in reconcile
+	 * mode ({@link Settings#isReconcileTags}), so that the tag ends up
+	 * matching the library. Otherwise only the fields a function
+	 * changes are written.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the iTunes Track Entry in tracks
+	 * @return  A session for the track's file. Its tag is never null.
+	 */
+	public static TagSession open(TrackStore tracks, int row)
+	{
+		String path = Utils.getFilePathFromTrackEntry(tracks, row);
+		TagSession batched = getBatched(path);
+		if(batched != null && batched.tag != null)
+		{
+			return batched;	// Already filled by an earlier edit of the batch
+		}
+		
+		TagSession session = batched != null ? batched : open(path);
+		if(session.tag == null)
+		{
+			session.tag = new ID3v23Tag();
+			LOG.log(Level.WARNING, " : EMPTY TAG, creating new");
+			Utils.fillTagFromTrackEntry(session.tag, tracks, row);
+		}
+		else if(Settings.isReconcileTags)
+		{
+			Utils.fillTagFromTrackEntry(session.tag, tracks, row);
+		}
+		return session;
+	}
+
+	/** Runs several edits of a file as a single session, on the current
+	 * thread. The first {@code open} of the batch reads the file, later ones
+	 * for the same file return the same session, with the tag as edited so
+	 * far. Submitting the session to {@link TagWriteExecutor} is deferred
+	 * until the last edit has run, so the file is written once, however
+	 * many edits submitted it.
+	 * <p>
+	 * If an edit throws, nothing is written and the exception is rethrown.
+	 * Batches don't nest, an inner batch runs as part of the outer one.
+	 * <pre>
+	 * TagSession.batch(() ->
+	 * {
+	 *     Functions.formatFields(tracks, row, ...);
+	 *     Functions.saveRatings(tracks, row);
+	 * });
+	 * </pre>
+	 * @param edits  Edits of a single file, each opening its own session.
+	 * @return  Completes with true if the file was written, or
+	 * exceptionally if it couldn't be, see {@link TagWriteExecutor#submit}.
+	 * @see id3.functions.Pipeline
+	 */
+	public static CompletableFuture<Boolean> batch(Runnable edits)
+	{
+		if(BATCH.get() != null)
+		{
+			edits.run();
+			return BATCH.get().commit;
+		}
+		
+		Batch batch = new Batch();
+		BATCH.set(batch);
+		try
+		{
+			edits.run();
+		}
+		catch (RuntimeException e)
+		{
+			batch.commit.complete(false);
+			throw e;
+		}
+		finally
+		{
+			BATCH.remove();
+		}
+		
+		if(batch.isSubmitted)
+		{
+			TagWriteExecutor.submit(batch.session).whenComplete((written, e) ->
+			{
+				if(e != null)
+				{
+					batch.commit.completeExceptionally(e);
+				}
+				else
+				{
+					batch.commit.complete(written);
+				}
+			});
+		}
+		else
+		{
+			batch.commit.complete(false);
+		}
+		return batch.commit;
+	}
+	
+	/** @return  The session of the batch running on this thread,
+	 * if it's for the same file, otherwise null.
+	 */
+	private static TagSession getBatched(String path)
+	{
+		Batch batch = BATCH.get();
+		if(batch != null && batch.session != null && batch.session.path.equals(path))
+		{
+			return batch.session;
+		}
+		return null;
+	}
+	
+	/** Defers the submission of a batch's session until the batch
+	 * ends, see {@link #batch(Runnable)}.
+	 * @return  Completes when the batch's file is written, or null if
+	 * the session isn't part of a batch running on this thread.
+	 */
+	CompletableFuture<Boolean> deferSubmit()
+	{
+		Batch batch = BATCH.get();
+		if(batch == null || batch.session != this)
+		{
+			return null;
+		}
+		batch.isSubmitted = true;
+		return batch.commit;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	/** @return  Size of the tag's fields as edited so far, in bytes */
+	public long getSize()
+	{
+		long size = 0;
+		for(List<ByteBuffer> contents : readFields(tag).values())
+		{
+			for(ByteBuffer content : contents)
+			{
+				size += content.capacity();
+			}
+		}
+		return size;
+	}
+
+	/** @return  The file's tag, to be edited before {@link #commit()} */
+	public Tag getTag()
+	{
+		return tag;
+	}
+
+	/** @return  IDs of the fields that were added, changed or removed
+	 * since the file was read, in alphabetical order.
+	 */
+	public Set<String> getChangedFields()
+	{
+		Map<String, List<ByteBuffer>> current = readFields(tag);
+		TreeSet<String> changed = new TreeSet<>();
+		for(Entry<String, List<ByteBuffer>> field : current.entrySet())
+		{
+			if(!field.getValue().equals(original.get(field.getKey())))
+			{
+				changed.add(field.getKey());
+			}
+		}
+		for(String id : original.keySet())
+		{
+			if(!current.containsKey(id))
+			{
+				changed.add(id);
+			}
+		}
+		return changed;
+	}
+	
+	/** @return  True if any field was added, changed or removed since the file was read */
+	public boolean isChanged()
+	{
+		return !getChangedFields().isEmpty();
+	}
+	
+	/** Writes the tag to the file it was read from, if any of its fields
+	 * changed. Nothing is written in debug mode (see {@link Settings#isDebugMode}).
+	 * The tag is written in place when it fits, see {@link TagWriter}.
+	 * The file is then cached as written, see {@link TagCache}.
+	 * Sessions opened during a journal operation record their
+	 * edits first, see {@link TagJournal}.
+	 * @return  True if the file was written, see {@link #getFailure()}
+	 * if it couldn't be.
+	 */
+	public boolean commit()
+	{
+		failure = null;
+		if(Settings.isDebugMode)
+		{
+			return false;
+		}
+		if(audioFile == null)
+		{
+			LOG.log(Level.SEVERE, "Tried to save tag to file, file doesn't exist: " + path);
+			failure = new FileNotFoundException(path);
+			return false;
+		}
+		
+		Set<String> changed = getChangedFields();
+		if(changed.isEmpty())
+		{
+			LOG.log(Level.FINEST, "Tag unchanged, not written: " + path);
+			TagCache.put(audioFile);
+			return false;
+		}
+
+		try
+		{
+			if(originalValues != null)
+			{
+				TagJournal.record(operation, getEdits());
+			}
+			audioFile.setTag(tag);
+			if(!audioFile.getFile().canWrite())
+			{
+				audioFile.getFile().setWritable(true);
+			}
+			TagWriter.commit(audioFile);
+			TagCache.put(audioFile);
+			LOG.log(Level.FINER, "Tag written successfully (" + changed + ")" + path);
+			return true;
+		}
+		catch (CannotWriteException e)
+		{
+			LOG.log(Level.SEVERE, "ID3 Tag failed to write: " + path);
+			failure = e;
+		}
+		catch (StringIndexOutOfBoundsException ex)
+		{
+			// do nothing : bug w/ JAudioTagger, sometimes throws this ex
+		}
+		return false;
+	}
+	
+	/** @return  Why the last {@link #commit()} didn't write the file,
+	 * or null if it was written or didn't need to be.
+	 */
+	public Exception getFailure()
+	{
+		return failure;
+	}
+	
+	/** @return  Journaled fields that changed since the file was read */
+	private List<Edit> getEdits()
+	{
+		EnumMap<FieldKey, String> values = readValues(tag);
+		ArrayList<Edit> edits = new ArrayList<>();
+		for(FieldKey key : TagJournal.KEYS)
+		{
+			String oldValue = originalValues.get(key);
+			String newValue = values.get(key);
+			if(!Objects.equals(oldValue, newValue))
+			{
+				edits.add(new Edit(path, key, oldValue, newValue));
+			}
+		}
+		return edits;
+	}
+	
+	/** @return  Value of every journaled field that's set in a tag, empty ones included */
+	private static EnumMap<FieldKey, String> readValues(Tag tag)
+	{
+		EnumMap<FieldKey, String> values = new EnumMap<>(FieldKey.class);
+		if(tag == null)
+		{
+			return values;
+		}
+		
+		for(FieldKey key : TagJournal.KEYS)
+		{
+			try
+			{
+				if(tag.hasField(key))
+				{
+					values.put(key, tag.getFirst(key));
+				}
+			}
+			catch (KeyNotFoundException | UnsupportedOperationException e)
+			{
+				// Field isn't supported by this tag type
+			}
+		}
+		return values;
+	}
+	
+	/** @return  Raw content of every field of a tag, by field ID */
+	private static Map<String, List<ByteBuffer>> readFields(Tag tag)
+	{
+		HashMap<String, List<ByteBuffer>> fields = new HashMap<>();
+		if(tag == null)
+		{
+			return fields;
+		}
+		
+		for(Iterator<TagField> it = tag.getFields(); it.hasNext(); )
+		{
+			TagField field = it.next();
+			byte[] content;
+			try
+			{
+				content = field.getRawContent();
+			}
+			catch (UnsupportedEncodingException e)
+			{
+				content = field.toString().getBytes(StandardCharsets.UTF_8);
+			}
+			fields.computeIfAbsent(field.getId(), id -> new ArrayList<>()).add(ByteBuffer.wrap(content));
+		}
+		return fields;
+	}
+}
@@ -0,0 +1,261 @@
+package id3.utils;
+
+import id3.main.Program;
+import id3.main.Settings;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Commits {@link TagSession}s in the background, on a bounded pool of
+ * {@link Settings#tagWriteThreads} threads, so that functions can read the
+ * next files while earlier ones are being written.
+ * <p>
+ * Commits are striped by storage device: each device gets
+ * {@link Settings#tagWritesPerDevice} serial lanes, so a single disk isn't
+ * thrashed by concurrent writes while several disks are written at once. A
+ * file always goes to the same lane, so commits to the same file are
+ * written in the order they were submitted. Opening a session, or a
+ * {@link QuickTag}, waits for the file's pending commits.
+ * <p>
+ * The tags of submitted sessions stay in memory until they're written.
+ * Submitting blocks while more than {@link #MAX_IN_FLIGHT_BYTES} of tag
+ * data is waiting to be written.
+ * <pre>
+ * TagWriteExecutor.submit(session);
+ * ...
+ * TagWriteExecutor.awaitAll();	// Before reporting a function as finished
+ * </pre>
+ * A session that's part of a batch is submitted once the batch ends,
+ * see {@link TagSession#batch(Runnable)}.
+ * <p>
+ * Commits are bound to the function run that submitted them, see
+ * {@link #bind(CancellationToken)}. When a function is cancelled, its
+ * commits that haven't started are dropped, other functions' commits are
+ * still written. A commit that has started is always finished, so no file
+ * is left half written.
+ * <p>
+ * Pending commits are written before the JVM exits.
+ */
+public final class TagWriteExecutor
+{
+	private static final Logger LOG = Program.LOG;
+
+	/** Maximum size of the tags waiting to be written */
+	public static final int MAX_IN_FLIGHT_BYTES 	= 64 * 1024 * 1024;
+
+	private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT_BYTES);
+
+	/** Latest pending commit of each file, by path */
+	private static final ConcurrentHashMap<String, CompletableFuture<Boolean>> PENDING = new ConcurrentHashMap<>();
+
+	/** Serial lanes, by device and lane number */
+	private static final ConcurrentHashMap<String, Lane> LANES = new ConcurrentHashMap<>();
+	
+	/** Token of the function run submitting commits on the current thread, if any */
+	private static final ThreadLocal<CancellationToken> RUN = new ThreadLocal<>();
+
+	private static ExecutorService pool;
+
+	/** Runs tasks one at a time, in order, on the pool */
+	private static class Lane
+	{
+		private final ArrayDeque<Runnable> 	tasks = new ArrayDeque<>();
+		private boolean 					isRunning;
+
+		private synchronized void execute(Runnable task)
+		{
+			tasks.add(task);
+			if(!isRunning)
+			{
+				isRunning = true;
+				getPool().execute(this::runNext);
+			}
+		}
+
+		private void runNext()
+		{
+			Runnable task;
+			synchronized(this)
+			{
+				task = tasks.poll();
+				if(task == null)
+				{
+					isRunning = false;
+					return;
+				}
+			}
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				getPool().execute(this::runNext);
+			}
+		}
+	}
+
+	private TagWriteExecutor() {}
+
+	/** Schedules a session's commit, see {@link TagSession#commit()}.
+	 * Blocks while too much tag data is waiting to be written. The
+	 * commit is dropped if the function run it's bound to is cancelled
+	 * before it starts, see {@link #bind(CancellationToken)}.
+	 * @param session  Session whose tag was edited.
+	 * @return  Completes with true if the file was written, false if it
+	 * didn't need to be. Completes exceptionally if the file couldn't be
+	 * written, see {@link TagSession#getFailure()}, or with a
+	 * {@link CancellationException} if the commit was dropped.
+	 */
+	public static CompletableFuture<Boolean> submit(TagSession session)
+	{
+		CompletableFuture<Boolean> deferred = session.deferSubmit();
+		if(deferred != null)
+		{
+			return deferred;
+		}
+		
+		String path = session.getPath();
+		int bytes = (int) Math.min(session.getSize(), MAX_IN_FLIGHT_BYTES);
+		IN_FLIGHT.acquireUninterruptibly(bytes);
+
+		CancellationToken token = RUN.get();
+		CompletableFuture<Boolean> commit = new CompletableFuture<>();
+		PENDING.put(path, commit);
+		getLane(path).execute(() ->
+		{
+			try
+			{
+				if(token != null && token.isCancelled())
+				{
+					LOG.log(Level.FINER, "Tag commit dropped: " + path);
+					commit.completeExceptionally(new CancellationException(path));
+				}
+				else
+				{
+					boolean written = session.commit();
+					if(session.getFailure() != null)
+					{
+						commit.completeExceptionally(session.getFailure());
+					}
+					else
+					{
+						commit.complete(written);
+					}
+				}
+			}
+			catch (RuntimeException e)
+			{
+				LOG.log(Level.SEVERE, "Tag commit failed: " + path, e);
+				commit.completeExceptionally(e);
+			}
+			finally
+			{
+				IN_FLIGHT.release(bytes);
+				PENDING.remove(path, commit);
+			}
+		});
+		return commit;
+	}
+
+	/** Waits until every pending commit of a file is written.
+	 * @param path  Audio file path.
+	 */
+	public static void await(String path)
+	{
+		CompletableFuture<Boolean> commit = PENDING.get(path);
+		if(commit != null)
+		{
+			awaitQuietly(commit);
+		}
+	}
+
+	/** Waits until every submitted commit is written */
+	public static void awaitAll()
+	{
+		for(CompletableFuture<Boolean> commit : new ArrayList<>(PENDING.values()))
+		{
+			awaitQuietly(commit);
+		}
+	}
+	
+	/** Waits for a commit, whether it was written, failed or dropped.
+	 * Failures are reported to whoever submitted the commit.
+	 */
+	private static void awaitQuietly(CompletableFuture<Boolean> commit)
+	{
+		try
+		{
+			commit.join();
+		}
+		catch (CompletionException | CancellationException e)
+		{
+			// reported through the future returned by submit
+		}
+	}
+
+	/** Binds the commits submitted on the current thread to a function run.
+	 * Once the run's token is cancelled, its commits that haven't started
+	 * yet are dropped, and the files left as they were.
+	 * <pre>
+	 * CancellationToken previous = TagWriteExecutor.bind(token);
+	 * try
+	 * {
+	 *     ...
+	 * }
+	 * finally
+	 * {
+	 *     TagWriteExecutor.bind(previous);
+	 * }
+	 * </pre>
+	 * @param token  Token of the run, or null to unbind.
+	 * @return  Token the thread was bound to before, or null.
+	 */
+	public static CancellationToken bind(CancellationToken token)
+	{
+		CancellationToken previous = RUN.get();
+		if(token == null)
+		{
+			RUN.remove();
+		}
+		else
+		{
+			RUN.set(token);
+		}
+		return previous;
+	}
+	
+	private static synchronized ExecutorService getPool()
+	{
+		if(pool == null)
+		{
+			AtomicInteger count = new AtomicInteger();
+			pool = Executors.newFixedThreadPool(Math.max(1, Settings.tagWriteThreads), task ->
+			{
+				Thread thread = new Thread(task, "Tag Writer " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			// Writers are daemons so they don't keep an idle JVM alive, commits are awaited on exit instead
+			Runtime.getRuntime().addShutdownHook(new Thread(TagWriteExecutor::awaitAll, "Tag Writer Shutdown"));
+		}
+		return pool;
+	}
+
+	private static Lane getLane(String path)
+	{
+		int lanes = Math.max(1, Settings.tagWritesPerDevice);
+		String key = Utils.getDevice(path) + "#" + Math.floorMod(path.hashCode(), lanes);
+		return LANES.computeIfAbsent(key, k -> new Lane());
+	}
+}
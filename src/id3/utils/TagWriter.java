@@ -0,0 +1,238 @@
+package id3.utils;
+
+import id3.main.Program;
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.exceptions.CannotWriteException;
+import org.jaudiotagger.audio.mp3.MP3File;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.id3.AbstractID3v2Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Writes tags to audio files.
+ * <p>
+ * The ID3v2 tag of an mp3 file is written in place when the new tag fits
+ * in the space of the old one, its padding included. Only the tag region
+ * at the start of the file is overwritten, with a single positioned write,
+ * and whatever space is left becomes padding. Nothing else in the file is
+ * read or copied, which matters for libraries on network drives.
+ * <p>
+ * Tags that don't fit, other tag types and other containers are written by
+ * jaudiotagger, which may rewrite the whole file. Counts of both kinds of
+ * writes, and the number of bytes written, are kept for {@link #getStats()}.
+ * <p>
+ * {@link #rewrite(File, AbstractID3v2Tag, int)} reserves padding after
+ * a tag, so that the file's later edits fit in place.
+ */
+public final class TagWriter
+{
+	private static final Logger LOG = Program.LOG;
+
+	private static final int HEADER_SIZE 		= 10;
+
+	/** Tag header flags that the in place writer doesn't handle */
+	private static final int FLAG_EXTENDED 		= 0x40;
+	private static final int FLAG_FOOTER 		= 0x10;
+
+	private static long inPlaceWrites;
+	private static long rewrites;
+	private static long bytesWritten;
+	private static long writeNanos;
+
+	private TagWriter() {}
+
+	/** Writes an audio file's tag, in place if possible.
+	 * @param audioFile  File whose tag was set with {@link AudioFile#setTag(Tag)}.
+	 * @throws CannotWriteException  If the file couldn't be written.
+	 */
+	public static void commit(AudioFile audioFile) throws CannotWriteException
+	{
+		long start = System.nanoTime();
+		File file = audioFile.getFile();
+		if(audioFile instanceof MP3File && audioFile.getTag() instanceof AbstractID3v2Tag)
+		{
+			try
+			{
+				int written = writeInPlace(file, (AbstractID3v2Tag) audioFile.getTag());
+				if(written > 0)
+				{
+					record(true, written, start);
+					LOG.log(Level.FINEST, "Tag written in place (" + written + " bytes): " + file);
+					return;
+				}
+			}
+			catch (IOException e)
+			{
+				throw new CannotWriteException("Failed to write tag in place: " + file, e);
+			}
+		}
+
+		audioFile.commit();
+		record(false, file.length(), start);	// Worst case, the whole file was rewritten
+	}
+
+	/** Overwrites a file's ID3v2 tag with a new one, if it fits in
+	 * the old tag's space.
+	 * @param file  mp3 file.
+	 * @param tag  New tag.
+	 * @return  Number of bytes written, or 0 if the file has no ID3v2 tag
+	 * or the new tag doesn't fit, in which case nothing was written.
+	 * @throws IOException  If the file couldn't be read or written.
+	 */
+	static int writeInPlace(File file, AbstractID3v2Tag tag) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tag.write(Channels.newChannel(out));	// Header and frames, without padding
+		byte[] bytes = out.toByteArray();
+		if(bytes.length < HEADER_SIZE || (bytes[5] & (FLAG_EXTENDED | FLAG_FOOTER)) != 0)
+		{
+			return 0;
+		}
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			int size = ID3v2Reader.readTagSize(channel);
+			if(size < bytes.length)
+			{
+				return 0;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(size);	// Zero filled, the rest is padding
+			buffer.put(bytes);
+			writeSyncsafe(buffer, 6, size - HEADER_SIZE);
+			buffer.clear();
+			while(buffer.hasRemaining())
+			{
+				channel.write(buffer, buffer.position());
+			}
+			return size;
+		}
+	}
+
+	/** Replaces a file's ID3v2 tag with a new one followed by the supplied
+	 * amount of padding, so that later edits can be written in place.
+	 * The file is rewritten through a temporary file next to it.
+	 * @param file  mp3 file.
+	 * @param tag  New tag.
+	 * @param padding  Bytes of padding to reserve after the tag's frames.
+	 * @return  Number of bytes written, or 0 if the tag has an extended
+	 * header or footer and wasn't written.
+	 * @throws IOException  If the file couldn't be read or written.
+	 */
+	public static long rewrite(File file, AbstractID3v2Tag tag, int padding) throws IOException
+	{
+		long start = System.nanoTime();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tag.write(Channels.newChannel(out));
+		byte[] bytes = out.toByteArray();
+		if(bytes.length < HEADER_SIZE || (bytes[5] & (FLAG_EXTENDED | FLAG_FOOTER)) != 0)
+		{
+			return 0;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(bytes.length + padding);
+		header.put(bytes);
+		writeSyncsafe(header, 6, bytes.length + padding - HEADER_SIZE);
+		header.clear();
+
+		Path target = file.toPath();
+		Path temp = Files.createTempFile(target.getParent(), ".id3", ".tmp");
+		long written;
+		try
+		{
+			PosixFileAttributeView permissions = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+			if(permissions != null)
+			{
+				Files.setPosixFilePermissions(temp, permissions.readAttributes().permissions());
+			}
+			try(FileChannel source = FileChannel.open(target, StandardOpenOption.READ);
+				FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE))
+			{
+				while(header.hasRemaining())
+				{
+					channel.write(header);
+				}
+				long audioStart = ID3v2Reader.readTagSize(source);
+				long length = source.size();
+				for(long position = audioStart; position < length; )
+				{
+					position += source.transferTo(position, length - position, channel);
+				}
+				written = channel.size();
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+
+		TagCache.invalidate(file);
+		record(false, written, start);
+		return written;
+	}
+
+	private static void writeSyncsafe(ByteBuffer buffer, int index, int value)
+	{
+		for(int i = 3; i >= 0; i--)
+		{
+			buffer.put(index + i, (byte) (value & 0x7f));
+			value >>>= 7;
+		}
+	}
+
+	private static synchronized void record(boolean isInPlace, long bytes, long start)
+	{
+		if(isInPlace)
+		{
+			inPlaceWrites++;
+		}
+		else
+		{
+			rewrites++;
+		}
+		bytesWritten += bytes;
+		writeNanos += System.nanoTime() - start;
+	}
+
+	public static synchronized long getInPlaceWrites()
+	{
+		return inPlaceWrites;
+	}
+
+	public static synchronized long getRewrites()
+	{
+		return rewrites;
+	}
+
+	/** @return  Bytes written. Writes done by jaudiotagger count as
+	 * rewriting the whole file.
+	 */
+	public static synchronized long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+
+	/** @return  Writes in place and rewrites, bytes written, and
+	 * writes per second of time spent writing.
+	 */
+	public static synchronized String getStats()
+	{
+		long writes = inPlaceWrites + rewrites;
+		long perSecond = writeNanos == 0 ? 0 : writes * 1000000000L / writeNanos;
+		return inPlaceWrites + " in place, " + rewrites + " rewritten, "
+				+ bytesWritten / 1024 + " KB written, " + perSecond + " writes/s";
+	}
+}
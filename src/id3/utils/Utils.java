@@ -2,6 +2,8 @@ package id3.utils;
 
 import id3.main.Program;
 import id3.main.Settings;
+import id3.objects.TrackStore;
+import id3.objects.TrackStore.TrackField;
 import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.audio.AudioFileIO;
 import org.jaudiotagger.audio.exceptions.CannotReadException;
@@ -11,21 +13,16 @@ import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
 import org.jaudiotagger.tag.FieldKey;
 import org.jaudiotagger.tag.Tag;
 import org.jaudiotagger.tag.TagException;
-import org.jaudiotagger.tag.id3.ID3v23Tag;
 import org.jaudiotagger.tag.images.Artwork;
 
-import javax.swing.text.*;
-import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.net.URI;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +46,21 @@ public final class Utils
 	public static final String[] FIELDS_INTS 		= {"Year", "Track Number", "Track Count", "Disc Number",
 														"Disc Count", "BPM"};
 	
+	/** Tag fields filled from an iTunes Track Entry, and the entry field each is filled from.
+	 * @see #fillTagFromTrackEntry(Tag, TrackStore, int)
+	 */
+	private static final FieldKey[] 	ENTRY_KEYS 		= {FieldKey.TITLE, FieldKey.ARTIST, FieldKey.ALBUM_ARTIST,
+			FieldKey.COMPOSER, FieldKey.ALBUM, FieldKey.GROUPING, FieldKey.GENRE, FieldKey.DISC_NO,
+			FieldKey.DISC_TOTAL, FieldKey.TRACK, FieldKey.TRACK_TOTAL, FieldKey.YEAR, FieldKey.COMMENT,
+			FieldKey.BPM};
+	private static final TrackField[] 	ENTRY_FIELDS 	= {TrackField.Name, TrackField.Artist, TrackField.AlbumArtist,
+			TrackField.Composer, TrackField.Album, TrackField.Grouping, TrackField.Genre, TrackField.DiscNumber,
+			TrackField.DiscCount, TrackField.TrackNumber, TrackField.TrackCount, TrackField.Year, TrackField.Comments,
+			TrackField.BPM};
+	
+	/** Storage device of each directory, see {@link #getDevice(String)} */
+	private static final ConcurrentHashMap<Path, String> DEVICES = new ConcurrentHashMap<>();
+	
 	private Utils() {}
 	
 	/** Capitalizes the first letter of every word,
@@ -241,85 +253,43 @@ public final class Utils
 		return files;
 	}
 	
-	/** Creates a document filter that accepts
-	 * only numbers.
-	 * @param document  Document to apply filter to.
+	/** Gets the "Location" field from an iTunes Track Entry
+	 * (aka: the file path) and decodes it to a file path.
+	 * The path is rebuilt on every call, it isn't stored.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the track entry in tracks
+	 * @return  File path corresponding to the Track Entry
+	 * @see TrackStore#getFilePath(int)
 	 */
-	public static void setDocFormatNumbersOnly(AbstractDocument document)
+	public static String getFilePathFromTrackEntry(TrackStore tracks, int row)
 	{
-        document.setDocumentFilter(new DocumentFilter()
-        {
-            @Override
-            public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) throws BadLocationException
-            {
-                Document doc = fb.getDocument();
-                StringBuilder sb = new StringBuilder();
-                sb.append(doc.getText(0,  doc.getLength()));
-                sb.insert(offset, string);
-                
-                if(doc.getLength() >= 2)
-                {
-                	return;
-                }
-                	
-                if(testInput(sb.toString()))
-                {
-                	super.insertString(fb, offset, string, attr);
-                }
-                else
-                {
-                	Toolkit.getDefaultToolkit().beep();
-                }
-
-            }
-
-            @Override
-            public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException
-            {
-            	Document doc = fb.getDocument();
-                StringBuilder sb = new StringBuilder();
-                sb.append(doc.getText(0,  doc.getLength()));
-                sb.replace(offset, offset + length, text);
-                
-                if(doc.getLength() >= 2)
-                {
-                	return;
-                }
-                	
-                if(testInput(sb.toString()))
-                {
-                	super.replace(fb, offset, length, text, attrs);
-                }
-                else
-                {
-                	Toolkit.getDefaultToolkit().beep();
-                }
-            }
-            
-            private boolean testInput(String input)
-            {
-            	try
-            	{
-            		Integer.parseInt(input);
-            		return true;
-            	} 
-            	catch (NumberFormatException e)
-            	{
-            		return false;
-            	}
-            }
-        });
-    }
+		return tracks.getFilePath(row);
+	}
 	
-	/** Gets the "Location" field from an iTunes Track Entry
-	 * (aka: the file path) and formats it to a proper URI.
-	 * @param entry  Library file's equivalent to a track in iTunes
-	 * @return  File path corresponding to the Track Entry
-	 * @see id3.objects.Library
+	/** Gets the storage device (drive, mount or network share)
+	 * a file is on. Lookups are cached by directory.
+	 * @param path  File path.
+	 * @return  Name of the file's device, or its top-level
+	 * directory if the device can't be found.
 	 */
-	public static String getFilePathFromTrackEntry(Entry<String, Map> entry)
+	public static String getDevice(String path)
 	{
-		return URI.create((String) entry.getValue().get("Location")).getPath();
+		Path dir = Paths.get(path).toAbsolutePath().getParent();
+		if(dir == null)
+		{
+			return "";
+		}
+		return DEVICES.computeIfAbsent(dir, d ->
+		{
+			try
+			{
+				return Files.getFileStore(d).toString();
+			}
+			catch (IOException e)
+			{
+				return d.getNameCount() > 0 ? d.getRoot() + d.getName(0).toString() : d.toString();
+			}
+		});
 	}
 	
 	/** Attempts to find the relevant {@code FieldKey} from
@@ -459,56 +429,36 @@ public final class Utils
 		return entry;
 	}
 	
-	/** Gets ID3 tag info from a file. If the tag is empty or doesn't exist, 
-	 * a new one will be created. This new tag will then attempt to be filled
-	 * with information from the iTunes Track Entry. Even if a new
-	 * tag isn't necessary, empty fields will  still attempt to be filled.
-	 * All tag objects are forced into ID3v2.3 format, the
-	 * most compatible format.
-	 * @param entry  iTunes Track Entry
-	 * @returns new tag object
-	 * @see id3.objects.Library
+	/** Fills a tag with the information of an iTunes Track Entry.
+	 * Fields the entry doesn't have are left as they are on the tag.
+	 * @param tag  Tag to fill.
+	 * @param tracks  Library's track entries
+	 * @param row  Row of the iTunes Track Entry in tracks
+	 * @see TagSession#open(TrackStore, int)
 	 */
-	public static Tag getTagFromTrackEntry(Entry<String, Map> entry)
+	static void fillTagFromTrackEntry(Tag tag, TrackStore tracks, int row)
 	{
-		String filePath = Utils.getFilePathFromTrackEntry(entry);
-		Tag tag = null;
-
 		try
 		{
-			tag = getTagFromAudioFile(filePath);
-			
-			if(tag == null)
+			for(int i = 0; i < ENTRY_KEYS.length; i++)
 			{
-				tag = new ID3v23Tag();
-				LOG.log(Level.WARNING, " : EMPTY TAG, creating new");
+				String value = tracks.getText(row, ENTRY_FIELDS[i]);
+				if(value != null)
+				{
+					tag.setField(ENTRY_KEYS[i], value);
+				}
 			}
 			
-			tag.setField(FieldKey.TITLE, (String) entry.getValue().getOrDefault("Name", ""));
-			tag.setField(FieldKey.ARTIST, (String) entry.getValue().getOrDefault("Artist", ""));
-			tag.setField(FieldKey.ALBUM_ARTIST, (String) entry.getValue().getOrDefault("Album Artist", ""));
-			tag.setField(FieldKey.COMPOSER, (String) entry.getValue().getOrDefault("Composer", ""));
-			tag.setField(FieldKey.ALBUM, (String) entry.getValue().getOrDefault("Album", ""));
-			tag.setField(FieldKey.GROUPING, (String) entry.getValue().getOrDefault("Grouping", ""));
-			tag.setField(FieldKey.GENRE, (String) entry.getValue().getOrDefault("Genre", ""));
-			tag.setField(FieldKey.DISC_NO, String.valueOf(entry.getValue().getOrDefault("Disc Number", "0")));
-			tag.setField(FieldKey.DISC_TOTAL, String.valueOf(entry.getValue().getOrDefault("Disc Count", "0")));
-			tag.setField(FieldKey.TRACK, String.valueOf(entry.getValue().getOrDefault("Track Number", "0")));
-			tag.setField(FieldKey.TRACK_TOTAL, String.valueOf(entry.getValue().getOrDefault("Track Count", "0")));
-			tag.setField(FieldKey.YEAR, String.valueOf(entry.getValue().getOrDefault("Year", "0")));
-			tag.setField(FieldKey.COMMENT, (String) entry.getValue().getOrDefault("Comments", ""));
-			tag.setField(FieldKey.BPM, String.valueOf(entry.getValue().getOrDefault("BPM" , "0")));
-			
-			String rating = String.valueOf(entry.getValue().getOrDefault("Rating", 0));
-			rating = convertITunesRatingToID3(rating);
-			tag.setField(FieldKey.RATING, rating);
-			
+			String rating = tracks.getText(row, TrackField.Rating);
+			if(rating != null)
+			{
+				tag.setField(FieldKey.RATING, convertITunesRatingToID3(rating));
+			}
 		}
 		catch (TagException e)
 		{
-			LOG.log(Level.SEVERE, "Error reading/creating tag: " + filePath);
+			LOG.log(Level.SEVERE, "Error reading/creating tag: " + getFilePathFromTrackEntry(tracks, row));
 		}
-		return tag;
 	}
 	
 	/** Searches a file's ID3 tag for artwork information.
@@ -608,19 +558,9 @@ public final class Utils
 		return FIELDS;
 	}
 	
-	/** Saves a {@code Tag} (ID3 Tag) to the supplied
-	 * iTunes Track Entry's file.
-	 * @param entry  Library file's equivalent to a track in iTunes
-	 * @param tag  {@link Tag} to save to file.
-	 */
-	public static void saveTagToFile(Entry<String, Map> entry, Tag tag)
-	{
-		String fileLocation = Utils.getFilePathFromTrackEntry(entry);
-		saveTagToFile(fileLocation, tag);
-	}
-	
 	/** Saves a [@code Tag} (ID3 Tag) to the supplied
-	 * file path.
+	 * file path. The file is read again before it's written,
+	 * use a {@link TagSession} to edit a file's own tag.
 	 * @param filePath  File path to save ID3 tag to.
 	 * @param tag  {@link Tag} to save to file.
 	 */
@@ -630,13 +570,15 @@ public final class Utils
 		{	
 			try
 			{
+				TagWriteExecutor.await(filePath);
 				AudioFile af = AudioFileIO.read(new File(filePath));
 				af.setTag(tag);
 				if(!af.getFile().canWrite())
 				{
 					af.getFile().setWritable(true);
 				}
-				af.commit();
+				TagWriter.commit(af);
+				TagCache.invalidate(af.getFile());
 				LOG.log(Level.FINER, "Tag written successfully" + filePath);
 			}
 			catch (CannotReadException | IOException
@@ -660,16 +602,26 @@ public final class Utils
 	}
 	
 	/** Gets a {@link Tag} object, representing
-	 * the supplied file path's ID3 tag info.
+	 * the supplied file path's ID3 tag info. Files are
+	 * read through the {@link TagCache}.
 	 * @param path  File path to retrieve ID3 tag info from.
-	 * @return  {@code Tag} representing ID3 tag info.
+	 * @return  {@code Tag} representing ID3 tag info. It's shared with
+	 * the cache and must not be edited, use a {@link TagSession} instead.
 	 */
 	public static Tag getTagFromAudioFile(String path)
 	{
 		Tag tag = null;
 		try
 		{
-			tag = AudioFileIO.read(new File(path)).getTag();
+			TagWriteExecutor.await(path);
+			File file = new File(path);
+			AudioFile af = TagCache.get(file);
+			if(af == null)
+			{
+				af = AudioFileIO.read(file);
+				TagCache.put(af);
+			}
+			tag = af.getTag();
 		}
 		catch (CannotReadException | IOException
 				| ReadOnlyFileException e)